@@ -1,11 +1,20 @@
 package bg.startit.products;
 
+import bg.startit.products.model.BulkResult;
+import bg.startit.products.model.ColorMatch;
 import bg.startit.products.model.Product;
+import bg.startit.products.pagination.CountStrategy;
+import bg.startit.products.pagination.Cursor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 import java.math.BigDecimal;
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Methods to be implemented in Car, Phone, Tv Controller, Service and Repository
@@ -16,10 +25,56 @@ public interface IStaff
 
   Product findProduct(Long id);
 
+  /**
+   * Find product by id selecting only the given DTO fields in one query, the others are left null.
+   *
+   * @throws IllegalArgumentException if a field is not a product column
+   */
+  Product findProduct(Long id, Collection<String> fields);
+
+  /**
+   * Find many products by id with as few queries as possible.
+   *
+   * @return found products by id in the order of ids, ids not found are not contained
+   */
+  Map<Long, Product> findProducts(List<Long> ids);
+
   Page<Product> findProduct(String color, Pageable pageable);
 
   Page<Product> findProduct(BigDecimal price, Pageable pageable);
 
+  /**
+   * Same as {@link #getAll(Pageable)} with the total of the page computed by countStrategy.
+   */
+  Page<Product> getAll(Pageable pageable, CountStrategy countStrategy);
+
+  /**
+   * Find products by color compared according to match, ordered by price.
+   */
+  Page<Product> findProduct(String color, ColorMatch match, Pageable pageable, CountStrategy countStrategy);
+
+  Page<Product> findProduct(BigDecimal price, Pageable pageable, CountStrategy countStrategy);
+
+  /**
+   * Keyset pagination: rows ordered by ID, starting after the cursor (null for the first page).
+   */
+  Slice<Product> getAll(Cursor cursor, int limit);
+
+  /**
+   * Keyset pagination: rows ordered by (PRICE DESC, ID DESC), starting after the cursor.
+   */
+  Slice<Product> findProduct(String color, ColorMatch match, Cursor cursor, int limit);
+
+  /**
+   * Keyset pagination: rows ordered by (PRICE DESC, ID DESC), starting after the cursor.
+   */
+  Slice<Product> findProduct(BigDecimal price, Cursor cursor, int limit);
+
+  /**
+   * Pass every product ordered by id to consumer, one at a time without holding them in memory.
+   */
+  void exportAll(Consumer<Product> consumer);
+
   String getColor(Long id);
 
   String getBrandName(Long id);
@@ -34,5 +89,19 @@ public interface IStaff
 
   boolean update(Product product);
 
+  /**
+   * Create many products with JDBC batching.
+   *
+   * @return result with the generated id for every product in the same order
+   */
+  List<BulkResult> createAll(List<Product> products);
+
+  /**
+   * Update many products by id with JDBC batching.
+   *
+   * @return result for every product in the same order
+   */
+  List<BulkResult> updateAll(List<Product> products);
+
   boolean delete(Long id);
 }
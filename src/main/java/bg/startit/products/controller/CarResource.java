@@ -1,24 +1,43 @@
 package bg.startit.products.controller;
 
 import bg.startit.products.IStaff;
+import bg.startit.products.dao.StaleVersionException;
 import bg.startit.products.dto.car.CarDto;
 import bg.startit.products.dto.car.CarListDto;
+import bg.startit.products.export.ExportFormat;
+import bg.startit.products.export.ProductExportWriter;
+import bg.startit.products.mappers.ProductColumns;
+import bg.startit.products.model.BulkResult;
+import bg.startit.products.model.ColorMatch;
 import bg.startit.products.model.Car;
 import bg.startit.products.model.Product;
+import bg.startit.products.pagination.CountStrategy;
+import bg.startit.products.pagination.Cursor;
 import bg.startit.products.service.CarService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.Positive;
 import javax.validation.constraints.Size;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -28,6 +47,16 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/v1/cars")
 public class CarResource implements IStaff {
 
+    /**
+     * Maximum number of ids of one multi-get request.
+     */
+    private static final int MAX_IDS = 10000;
+
+    /**
+     * Maximum page size, a keyset page reads one row more.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private final CarService carService;
 
     public CarResource(CarService carService) {
@@ -41,14 +70,43 @@ public class CarResource implements IStaff {
         return carService.getAll(pageable);
     }
 
-    // Get all cars
+    @Override
+    public Page<Product> getAll(Pageable pageable, CountStrategy countStrategy) {
+
+        return carService.getAll(pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> getAll(Cursor cursor, int limit) {
+
+        return carService.getAll(cursor, limit);
+    }
+
+    // Get all cars, by page number or by cursor (empty cursor for the first page)
     @GetMapping("/all")
     public ResponseEntity<CarListDto> getAllRest(@RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                 @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                 @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                 @RequestParam(required = false) String cursor,
+                                                 @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> cars = getAll(Cursor.decode(cursor), pageSize);
+
+                return ResponseEntity.ok(mapCarToCarListDto(pageSize, cars, car -> Cursor.of(car.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<Car> cars = pageProductToPageCar(pageable, getAll(pageable));
+        final Page<Car> cars = pageProductToPageCar(pageable, getAll(pageable, total));
 
         return ResponseEntity.ok(mapCarToCarListDto(pageNumber, pageSize, cars));
     }
@@ -59,29 +117,72 @@ public class CarResource implements IStaff {
         return carService.findProduct(id);
     }
 
-    // Get car by id
+    @Override
+    public Product findProduct(Long id, Collection<String> fields) {
+
+        return carService.findProduct(id, fields);
+    }
+
+    // Get car by id, optionally only the given fields e.g. ?fields=color,price
     @GetMapping("/{id}")
-    public ResponseEntity<CarDto> getCarByIdRest(@PathVariable @Min(1) Long id) {
+    public ResponseEntity<CarDto> getCarByIdRest(@PathVariable @Min(1) Long id,
+                                                 @RequestParam(required = false) List<String> fields) {
+
+        CarDto carDto = new CarDto();
+
+        // Check the fields here, exceptions thrown by the DAO are translated to DataAccessException
+        if (fields != null) {
+            try {
+                ProductColumns.toColumns(fields);
+            } catch (IllegalArgumentException e) {
+                carDto.setBrand_name(e.getMessage());
+                return ResponseEntity.badRequest().body(carDto);
+            }
+        }
 
         // Find car by id
-        final Car car = (Car) findProduct(id);
+        final Car car = (Car) (fields == null ? findProduct(id) : findProduct(id, fields));
 
-        CarDto carDto = new CarDto();
         if (car == null) {
             carDto.setBrand_name("Car not found!");
             return ResponseEntity.badRequest().body(carDto);
         }
 
-        carDto = new CarDto(
-                car.getId(),
-                car.getBrand_name(),
-                car.getColor(),
-                car.getPrice(),
-                car.getWeight(),
-                car.getLength(),
-                car.getQuantity());
+        // The version to send back in If-Match when updating the car
+        if (car.getVersion() != null) {
+            return ResponseEntity.ok().eTag(VersionTags.of(car.getVersion())).body(mapCarToCarDto(car));
+        }
+
+        return ResponseEntity.ok(mapCarToCarDto(car));
+    }
 
-        return ResponseEntity.ok(carDto);
+    @Override
+    public void exportAll(Consumer<Product> consumer) {
+
+        carService.exportAll(consumer);
+    }
+
+    // Export all cars as NDJSON or CSV, streamed row by row while they are read
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportRest(@RequestParam(defaultValue = "NDJSON") ExportFormat format) {
+
+        final StreamingResponseBody body = outputStream -> {
+            ProductExportWriter writer = new ProductExportWriter(outputStream, format);
+
+            try {
+                exportAll(writer::write);
+            } catch (UncheckedIOException e) {
+                // The client disconnected, the rows are no longer read
+                throw e.getCause();
+            }
+
+            writer.finish();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"cars." + format.getExtension() + "\"")
+                .body(body);
     }
 
     @Override
@@ -179,21 +280,85 @@ public class CarResource implements IStaff {
         return ResponseEntity.ok(String.format("%d cm.", length));
     }
 
+    @Override
+    public Map<Long, Product> findProducts(List<Long> ids) {
+
+        return carService.findProducts(ids);
+    }
+
+    // Get cars by ids e.g. /batch?ids=1,2,3 in the same order, ids not found are returned as missing
+    @GetMapping("/batch")
+    public ResponseEntity<CarListDto> getCarsByIdsRest(@RequestParam List<Long> ids) {
+
+        if (ids.size() > MAX_IDS) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        final Map<Long, Product> cars = findProducts(ids);
+
+        CarListDto carListDto = new CarListDto(
+                null,
+                null,
+                cars.size(),
+                null,
+                cars.values()
+                        .stream()
+                        .map(car -> mapCarToCarDto((Car) car))
+                        .collect(Collectors.toList()));
+
+        carListDto.setMissing(ids.stream()
+                .filter(id -> !cars.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList()));
+
+        return ResponseEntity.ok(carListDto);
+    }
+
     @Override
     public Page<Product> findProduct(String color, Pageable pageable) {
 
         return carService.findProduct(color, pageable);
     }
 
-    // Get cars by color
+    @Override
+    public Page<Product> findProduct(String color, ColorMatch match, Pageable pageable, CountStrategy countStrategy) {
+
+        return carService.findProduct(color, match, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> findProduct(String color, ColorMatch match, Cursor cursor, int limit) {
+
+        return carService.findProduct(color, match, cursor, limit);
+    }
+
+    // Get cars by color, match EXACT and PREFIX are cheaper than the default SUBSTRING
     @GetMapping("/colors/{color}")
     public ResponseEntity<CarListDto> getCarByColorRest(@PathVariable @Size(min = 1) String color,
+                                                        @RequestParam(defaultValue = "SUBSTRING") ColorMatch match,
                                                         @RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                        @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                        @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                        @RequestParam(required = false) String cursor,
+                                                        @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> cars = findProduct(color, match, Cursor.decodeKeyedOnPrice(cursor), pageSize);
+
+                return ResponseEntity.ok(mapCarToCarListDto(pageSize, cars, car -> Cursor.of(car.getPrice(), car.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<Car> cars = pageProductToPageCar(pageable, findProduct(color, pageable));
+        final Page<Car> cars = pageProductToPageCar(pageable, findProduct(color, match, pageable, total));
 
         return ResponseEntity.ok(mapCarToCarListDto(pageNumber, pageSize, cars));
     }
@@ -204,15 +369,44 @@ public class CarResource implements IStaff {
         return carService.findProduct(price, pageable);
     }
 
+    @Override
+    public Page<Product> findProduct(BigDecimal price, Pageable pageable, CountStrategy countStrategy) {
+
+        return carService.findProduct(price, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> findProduct(BigDecimal price, Cursor cursor, int limit) {
+
+        return carService.findProduct(price, cursor, limit);
+    }
+
     // Get cars by price
     @GetMapping("/price/{price}")
     public ResponseEntity<CarListDto> getCarByPriceRest(@PathVariable @Positive Double price,
                                                         @RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                        @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                        @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                        @RequestParam(required = false) String cursor,
+                                                        @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> cars = findProduct(BigDecimal.valueOf(price), Cursor.decodeKeyedOnPrice(cursor), pageSize);
+
+                return ResponseEntity.ok(mapCarToCarListDto(pageSize, cars, car -> Cursor.of(car.getPrice(), car.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<Car> cars = pageProductToPageCar(pageable, findProduct(BigDecimal.valueOf(price), pageable));
+        final Page<Car> cars = pageProductToPageCar(pageable, findProduct(BigDecimal.valueOf(price), pageable, total));
 
         return ResponseEntity.ok(mapCarToCarListDto(pageNumber, pageSize, cars));
     }
@@ -245,9 +439,10 @@ public class CarResource implements IStaff {
         return carService.update(product);
     }
 
-    // Update car by id
+    // Update car by id, with If-Match only if not changed since the ETag was read
     @PutMapping("/update/{id}")
-    public ResponseEntity<String> updateRest(@PathVariable @Min(1) Long id,
+    public ResponseEntity<String> updateRest(@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                             @PathVariable @Min(1) Long id,
                                              @RequestParam @Size(min = 1) String brand_name,
                                              @RequestParam @Size(min = 1) String color,
                                              @RequestParam @Positive BigDecimal price,
@@ -255,27 +450,62 @@ public class CarResource implements IStaff {
                                              @RequestParam @Min(1) Long length,
                                              @RequestParam @Min(1) Long quantity) {
 
-        // Find car by id
-        final Car car = (Car) findProduct(id);
-        if (car == null) {
-            return ResponseEntity.badRequest().body("Car not updated!");
+        // Version the update is based on, null to update whatever the version
+        Long version = null;
+        if (ifMatch != null) {
+            try {
+                version = VersionTags.parse(ifMatch);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("Car not updated! Invalid If-Match.");
+            }
         }
 
-        // Update car properties
-        car.setBrand_name(brand_name);
-        car.setColor(color);
-        car.setPrice(price);
-        car.setWeight(weight);
-        car.setLength(length);
-        car.setQuantity(quantity);
-
-        if (update(car)) {
-            return ResponseEntity.ok("Car successfully updated!");
+        // Updated only if still at version, in a single statement
+        final Car car = new Car(brand_name, color, price, weight, length, quantity);
+        car.setId(id);
+        car.setVersion(version);
+
+        try {
+            if (update(car)) {
+                return version == null
+                        ? ResponseEntity.ok("Car successfully updated!")
+                        : ResponseEntity.ok().eTag(VersionTags.of(version + 1)).body("Car successfully updated!");
+            }
+        } catch (StaleVersionException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .eTag(VersionTags.of(e.getCurrentVersion()))
+                    .body("Car not updated! It was changed meanwhile.");
         }
 
         return ResponseEntity.badRequest().body("Car not updated!");
     }
 
+    @Override
+    public List<BulkResult> createAll(List<Product> products) {
+
+        return carService.createAll(products);
+    }
+
+    // Create cars from a JSON array, with a result and the generated id for every car
+    @PostMapping("/bulk")
+    public ResponseEntity<List<BulkResult>> createBulkRest(@RequestBody List<Car> cars) {
+
+        return ResponseEntity.ok(bulkRest(cars, false));
+    }
+
+    @Override
+    public List<BulkResult> updateAll(List<Product> products) {
+
+        return carService.updateAll(products);
+    }
+
+    // Update cars by id from a JSON array, with a result for every car
+    @PutMapping("/bulk")
+    public ResponseEntity<List<BulkResult>> updateBulkRest(@RequestBody List<Car> cars) {
+
+        return ResponseEntity.ok(bulkRest(cars, true));
+    }
+
     @Override
     public boolean delete(Long id) {
 
@@ -293,13 +523,65 @@ public class CarResource implements IStaff {
         return ResponseEntity.badRequest().body("Car not deleted!");
     }
 
+    private List<BulkResult> bulkRest(List<Car> cars, boolean update) {
+
+        List<BulkResult> results = new ArrayList<>(Collections.nCopies(cars.size(), null));
+
+        // Only valid cars are written, the invalid ones get their result right away
+        List<Product> validCars = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+
+        for (int i = 0; i < cars.size(); i++) {
+            final Car car = cars.get(i);
+            final String error = validate(car, update);
+
+            if (error == null) {
+                validCars.add(car);
+                validIndexes.add(i);
+            } else {
+                results.set(i, new BulkResult(i, car.getId(), false, error));
+            }
+        }
+
+        final List<BulkResult> written = update ? updateAll(validCars) : createAll(validCars);
+
+        for (int i = 0; i < written.size(); i++) {
+            final BulkResult result = written.get(i);
+            result.setIndex(validIndexes.get(i));
+            results.set(validIndexes.get(i), result);
+        }
+
+        return results;
+    }
+
+    private String validate(Car car, boolean update) {
+
+        if (update && (car.getId() == null || car.getId() < 1)) {
+            return "Car id is required!";
+        }
+        if (car.getBrand_name() == null || car.getBrand_name().isEmpty()
+                || car.getColor() == null || car.getColor().isEmpty()) {
+            return "Brand name and color are required!";
+        }
+        if (car.getPrice() == null || car.getPrice().compareTo(BigDecimal.ZERO) <= 0) {
+            return "Price must be positive!";
+        }
+        if (car.getWeight() == null || car.getWeight() < 1
+                || car.getLength() == null || car.getLength() < 1
+                || car.getQuantity() == null || car.getQuantity() < 1) {
+            return "Weight, length and quantity must be positive!";
+        }
+
+        return null;
+    }
+
     private Page<Car> pageProductToPageCar(Pageable pageable, Page<Product> pageOfProduct) {
 
         List<Car> carList = new ArrayList<>();
 
         pageOfProduct.forEach(entity -> carList.add((Car) entity));
 
-        return new PageImpl<>(carList, pageable, carList.size());
+        return new PageImpl<>(carList, pageable, pageOfProduct.getTotalElements());
     }
 
     private CarListDto mapCarToCarListDto(Integer pageNumber, Integer pageSize, Page<Car> pageOfCar) {
@@ -313,14 +595,43 @@ public class CarResource implements IStaff {
                 // Map the car list to content list of car DTO.
                 pageOfCar.getContent()
                         .stream()
-                        .map(car -> new CarDto(
-                                car.getId(),
-                                car.getBrand_name(),
-                                car.getColor(),
-                                car.getPrice(),
-                                car.getWeight(),
-                                car.getLength(),
-                                car.getQuantity()
-                        )).collect(Collectors.toList()));
+                        .map(this::mapCarToCarDto)
+                        .collect(Collectors.toList()));
+    }
+
+    private CarListDto mapCarToCarListDto(Integer pageSize, Slice<Product> sliceOfProduct, Function<Car, Cursor> cursorOf) {
+
+        List<Car> carList = new ArrayList<>();
+
+        sliceOfProduct.forEach(entity -> carList.add((Car) entity));
+
+        // Page number and total are not known when paging by cursor
+        CarListDto carListDto = new CarListDto(
+                null,
+                pageSize,
+                carList.size(),
+                null,
+                carList.stream()
+                        .map(this::mapCarToCarDto)
+                        .collect(Collectors.toList()));
+
+        // The next page starts after the last car of this one
+        if (sliceOfProduct.hasNext()) {
+            carListDto.setNextCursor(cursorOf.apply(carList.get(carList.size() - 1)).encode());
+        }
+
+        return carListDto;
+    }
+
+    private CarDto mapCarToCarDto(Car car) {
+
+        return new CarDto(
+                car.getId(),
+                car.getBrand_name(),
+                car.getColor(),
+                car.getPrice(),
+                car.getWeight(),
+                car.getLength(),
+                car.getQuantity());
     }
 }
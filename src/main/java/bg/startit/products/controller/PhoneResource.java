@@ -1,24 +1,43 @@
 package bg.startit.products.controller;
 
 import bg.startit.products.IStaff;
+import bg.startit.products.dao.StaleVersionException;
 import bg.startit.products.dto.phone.PhoneDto;
 import bg.startit.products.dto.phone.PhoneListDto;
+import bg.startit.products.export.ExportFormat;
+import bg.startit.products.export.ProductExportWriter;
+import bg.startit.products.mappers.ProductColumns;
+import bg.startit.products.model.BulkResult;
+import bg.startit.products.model.ColorMatch;
 import bg.startit.products.model.Phone;
 import bg.startit.products.model.Product;
+import bg.startit.products.pagination.CountStrategy;
+import bg.startit.products.pagination.Cursor;
 import bg.startit.products.service.PhoneService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.Positive;
 import javax.validation.constraints.Size;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -28,6 +47,16 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/v1/phones")
 public class PhoneResource implements IStaff {
 
+    /**
+     * Maximum number of ids of one multi-get request.
+     */
+    private static final int MAX_IDS = 10000;
+
+    /**
+     * Maximum page size, a keyset page reads one row more.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private final PhoneService phoneService;
 
     public PhoneResource(PhoneService phoneService) {
@@ -41,14 +70,43 @@ public class PhoneResource implements IStaff {
         return phoneService.getAll(pageable);
     }
 
-    // Get all phones
+    @Override
+    public Page<Product> getAll(Pageable pageable, CountStrategy countStrategy) {
+
+        return phoneService.getAll(pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> getAll(Cursor cursor, int limit) {
+
+        return phoneService.getAll(cursor, limit);
+    }
+
+    // Get all phones, by page number or by cursor (empty cursor for the first page)
     @GetMapping("/all")
     public ResponseEntity<PhoneListDto> getAllRest(@RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                   @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                   @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                   @RequestParam(required = false) String cursor,
+                                                   @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> phones = getAll(Cursor.decode(cursor), pageSize);
+
+                return ResponseEntity.ok(mapPhoneToPhoneListDto(pageSize, phones, phone -> Cursor.of(phone.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<Phone> phones = pageProductToPagePhone(pageable, getAll(pageable));
+        final Page<Phone> phones = pageProductToPagePhone(pageable, getAll(pageable, total));
 
         return ResponseEntity.ok(mapPhoneToPhoneListDto(pageNumber, pageSize, phones));
     }
@@ -59,29 +117,72 @@ public class PhoneResource implements IStaff {
         return phoneService.findProduct(id);
     }
 
-    // Get phone by id
+    @Override
+    public Product findProduct(Long id, Collection<String> fields) {
+
+        return phoneService.findProduct(id, fields);
+    }
+
+    // Get phone by id, optionally only the given fields e.g. ?fields=color,price
     @GetMapping("/{id}")
-    public ResponseEntity<PhoneDto> getPhoneByIdRest(@PathVariable @Min(1) Long id) {
+    public ResponseEntity<PhoneDto> getPhoneByIdRest(@PathVariable @Min(1) Long id,
+                                                     @RequestParam(required = false) List<String> fields) {
+
+        PhoneDto phoneDto = new PhoneDto();
+
+        // Check the fields here, exceptions thrown by the DAO are translated to DataAccessException
+        if (fields != null) {
+            try {
+                ProductColumns.toColumns(fields);
+            } catch (IllegalArgumentException e) {
+                phoneDto.setBrand_name(e.getMessage());
+                return ResponseEntity.badRequest().body(phoneDto);
+            }
+        }
 
         // Find phone by id
-        final Phone phone = (Phone) findProduct(id);
+        final Phone phone = (Phone) (fields == null ? findProduct(id) : findProduct(id, fields));
 
-        PhoneDto phoneDto = new PhoneDto();
         if (phone == null) {
             phoneDto.setBrand_name("Phone not found!");
             return ResponseEntity.badRequest().body(phoneDto);
         }
 
-        phoneDto = new PhoneDto(
-                phone.getId(),
-                phone.getBrand_name(),
-                phone.getColor(),
-                phone.getPrice(),
-                phone.getWeight(),
-                phone.getLength(),
-                phone.getQuantity());
+        // The version to send back in If-Match when updating the phone
+        if (phone.getVersion() != null) {
+            return ResponseEntity.ok().eTag(VersionTags.of(phone.getVersion())).body(mapPhoneToPhoneDto(phone));
+        }
+
+        return ResponseEntity.ok(mapPhoneToPhoneDto(phone));
+    }
 
-        return ResponseEntity.ok(phoneDto);
+    @Override
+    public void exportAll(Consumer<Product> consumer) {
+
+        phoneService.exportAll(consumer);
+    }
+
+    // Export all phones as NDJSON or CSV, streamed row by row while they are read
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportRest(@RequestParam(defaultValue = "NDJSON") ExportFormat format) {
+
+        final StreamingResponseBody body = outputStream -> {
+            ProductExportWriter writer = new ProductExportWriter(outputStream, format);
+
+            try {
+                exportAll(writer::write);
+            } catch (UncheckedIOException e) {
+                // The client disconnected, the rows are no longer read
+                throw e.getCause();
+            }
+
+            writer.finish();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"phones." + format.getExtension() + "\"")
+                .body(body);
     }
 
     @Override
@@ -179,21 +280,85 @@ public class PhoneResource implements IStaff {
         return ResponseEntity.ok(String.format("%d cm.", length));
     }
 
+    @Override
+    public Map<Long, Product> findProducts(List<Long> ids) {
+
+        return phoneService.findProducts(ids);
+    }
+
+    // Get phones by ids e.g. /batch?ids=1,2,3 in the same order, ids not found are returned as missing
+    @GetMapping("/batch")
+    public ResponseEntity<PhoneListDto> getPhonesByIdsRest(@RequestParam List<Long> ids) {
+
+        if (ids.size() > MAX_IDS) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        final Map<Long, Product> phones = findProducts(ids);
+
+        PhoneListDto phoneListDto = new PhoneListDto(
+                null,
+                null,
+                phones.size(),
+                null,
+                phones.values()
+                        .stream()
+                        .map(phone -> mapPhoneToPhoneDto((Phone) phone))
+                        .collect(Collectors.toList()));
+
+        phoneListDto.setMissing(ids.stream()
+                .filter(id -> !phones.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList()));
+
+        return ResponseEntity.ok(phoneListDto);
+    }
+
     @Override
     public Page<Product> findProduct(String color, Pageable pageable) {
 
         return phoneService.findProduct(color, pageable);
     }
 
-    // Get phones by color
+    @Override
+    public Page<Product> findProduct(String color, ColorMatch match, Pageable pageable, CountStrategy countStrategy) {
+
+        return phoneService.findProduct(color, match, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> findProduct(String color, ColorMatch match, Cursor cursor, int limit) {
+
+        return phoneService.findProduct(color, match, cursor, limit);
+    }
+
+    // Get phones by color, match EXACT and PREFIX are cheaper than the default SUBSTRING
     @GetMapping("/colors/{color}")
     public ResponseEntity<PhoneListDto> getPhoneByColorRest(@PathVariable @Size(min = 1) String color,
+                                                            @RequestParam(defaultValue = "SUBSTRING") ColorMatch match,
                                                             @RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                            @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                            @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                            @RequestParam(required = false) String cursor,
+                                                            @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> phones = findProduct(color, match, Cursor.decodeKeyedOnPrice(cursor), pageSize);
+
+                return ResponseEntity.ok(mapPhoneToPhoneListDto(pageSize, phones, phone -> Cursor.of(phone.getPrice(), phone.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<Phone> phones = pageProductToPagePhone(pageable, findProduct(color, pageable));
+        final Page<Phone> phones = pageProductToPagePhone(pageable, findProduct(color, match, pageable, total));
 
         return ResponseEntity.ok(mapPhoneToPhoneListDto(pageNumber, pageSize, phones));
     }
@@ -204,15 +369,44 @@ public class PhoneResource implements IStaff {
         return phoneService.findProduct(price, pageable);
     }
 
+    @Override
+    public Page<Product> findProduct(BigDecimal price, Pageable pageable, CountStrategy countStrategy) {
+
+        return phoneService.findProduct(price, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> findProduct(BigDecimal price, Cursor cursor, int limit) {
+
+        return phoneService.findProduct(price, cursor, limit);
+    }
+
     // Get phones by price
     @GetMapping("/price/{price}")
     public ResponseEntity<PhoneListDto> getPhoneByPriceRest(@PathVariable @Positive Double price,
                                                             @RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                            @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                            @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                            @RequestParam(required = false) String cursor,
+                                                            @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> phones = findProduct(BigDecimal.valueOf(price), Cursor.decodeKeyedOnPrice(cursor), pageSize);
+
+                return ResponseEntity.ok(mapPhoneToPhoneListDto(pageSize, phones, phone -> Cursor.of(phone.getPrice(), phone.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<Phone> phones = pageProductToPagePhone(pageable, findProduct(BigDecimal.valueOf(price), pageable));
+        final Page<Phone> phones = pageProductToPagePhone(pageable, findProduct(BigDecimal.valueOf(price), pageable, total));
 
         return ResponseEntity.ok(mapPhoneToPhoneListDto(pageNumber, pageSize, phones));
     }
@@ -245,9 +439,10 @@ public class PhoneResource implements IStaff {
         return phoneService.update(product);
     }
 
-    // Update phone by id
+    // Update phone by id, with If-Match only if not changed since the ETag was read
     @PutMapping("/update/{id}")
-    public ResponseEntity<String> updateRest(@PathVariable @Min(1) Long id,
+    public ResponseEntity<String> updateRest(@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                             @PathVariable @Min(1) Long id,
                                              @RequestParam @Size(min = 1) String brand_name,
                                              @RequestParam @Size(min = 1) String color,
                                              @RequestParam @Positive BigDecimal price,
@@ -255,27 +450,62 @@ public class PhoneResource implements IStaff {
                                              @RequestParam @Min(1) Long length,
                                              @RequestParam @Min(1) Long quantity) {
 
-        // Find phone by id
-        final Phone phone = (Phone) findProduct(id);
-        if (phone == null) {
-            return ResponseEntity.badRequest().body("Phone not updated!");
+        // Version the update is based on, null to update whatever the version
+        Long version = null;
+        if (ifMatch != null) {
+            try {
+                version = VersionTags.parse(ifMatch);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("Phone not updated! Invalid If-Match.");
+            }
         }
 
-        // Update phone properties
-        phone.setBrand_name(brand_name);
-        phone.setColor(color);
-        phone.setPrice(price);
-        phone.setWeight(weight);
-        phone.setLength(length);
-        phone.setQuantity(quantity);
-
-        if (update(phone)) {
-            return ResponseEntity.ok("Phone successfully updated!");
+        // Updated only if still at version, in a single statement
+        final Phone phone = new Phone(brand_name, color, price, weight, length, quantity);
+        phone.setId(id);
+        phone.setVersion(version);
+
+        try {
+            if (update(phone)) {
+                return version == null
+                        ? ResponseEntity.ok("Phone successfully updated!")
+                        : ResponseEntity.ok().eTag(VersionTags.of(version + 1)).body("Phone successfully updated!");
+            }
+        } catch (StaleVersionException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .eTag(VersionTags.of(e.getCurrentVersion()))
+                    .body("Phone not updated! It was changed meanwhile.");
         }
 
         return ResponseEntity.badRequest().body("Phone not updated!");
     }
 
+    @Override
+    public List<BulkResult> createAll(List<Product> products) {
+
+        return phoneService.createAll(products);
+    }
+
+    // Create phones from a JSON array, with a result and the generated id for every phone
+    @PostMapping("/bulk")
+    public ResponseEntity<List<BulkResult>> createBulkRest(@RequestBody List<Phone> phones) {
+
+        return ResponseEntity.ok(bulkRest(phones, false));
+    }
+
+    @Override
+    public List<BulkResult> updateAll(List<Product> products) {
+
+        return phoneService.updateAll(products);
+    }
+
+    // Update phones by id from a JSON array, with a result for every phone
+    @PutMapping("/bulk")
+    public ResponseEntity<List<BulkResult>> updateBulkRest(@RequestBody List<Phone> phones) {
+
+        return ResponseEntity.ok(bulkRest(phones, true));
+    }
+
     @Override
     public boolean delete(Long id) {
 
@@ -293,13 +523,65 @@ public class PhoneResource implements IStaff {
         return ResponseEntity.badRequest().body("Phone not deleted!");
     }
 
+    private List<BulkResult> bulkRest(List<Phone> phones, boolean update) {
+
+        List<BulkResult> results = new ArrayList<>(Collections.nCopies(phones.size(), null));
+
+        // Only valid phones are written, the invalid ones get their result right away
+        List<Product> validPhones = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+
+        for (int i = 0; i < phones.size(); i++) {
+            final Phone phone = phones.get(i);
+            final String error = validate(phone, update);
+
+            if (error == null) {
+                validPhones.add(phone);
+                validIndexes.add(i);
+            } else {
+                results.set(i, new BulkResult(i, phone.getId(), false, error));
+            }
+        }
+
+        final List<BulkResult> written = update ? updateAll(validPhones) : createAll(validPhones);
+
+        for (int i = 0; i < written.size(); i++) {
+            final BulkResult result = written.get(i);
+            result.setIndex(validIndexes.get(i));
+            results.set(validIndexes.get(i), result);
+        }
+
+        return results;
+    }
+
+    private String validate(Phone phone, boolean update) {
+
+        if (update && (phone.getId() == null || phone.getId() < 1)) {
+            return "Phone id is required!";
+        }
+        if (phone.getBrand_name() == null || phone.getBrand_name().isEmpty()
+                || phone.getColor() == null || phone.getColor().isEmpty()) {
+            return "Brand name and color are required!";
+        }
+        if (phone.getPrice() == null || phone.getPrice().compareTo(BigDecimal.ZERO) <= 0) {
+            return "Price must be positive!";
+        }
+        if (phone.getWeight() == null || phone.getWeight() < 1
+                || phone.getLength() == null || phone.getLength() < 1
+                || phone.getQuantity() == null || phone.getQuantity() < 1) {
+            return "Weight, length and quantity must be positive!";
+        }
+
+        return null;
+    }
+
     private Page<Phone> pageProductToPagePhone(Pageable pageable, Page<Product> pageOfProduct) {
 
         List<Phone> phoneList = new ArrayList<>();
 
         pageOfProduct.forEach(entity -> phoneList.add((Phone) entity));
 
-        return new PageImpl<>(phoneList, pageable, phoneList.size());
+        return new PageImpl<>(phoneList, pageable, pageOfProduct.getTotalElements());
     }
 
     private PhoneListDto mapPhoneToPhoneListDto(Integer pageNumber, Integer pageSize, Page<Phone> pageOfPhone) {
@@ -313,14 +595,43 @@ public class PhoneResource implements IStaff {
                 // Map the phone list to content list of phone DTO.
                 pageOfPhone.getContent()
                         .stream()
-                        .map(phone -> new PhoneDto(
-                                phone.getId(),
-                                phone.getBrand_name(),
-                                phone.getColor(),
-                                phone.getPrice(),
-                                phone.getWeight(),
-                                phone.getLength(),
-                                phone.getQuantity()
-                        )).collect(Collectors.toList()));
+                        .map(this::mapPhoneToPhoneDto)
+                        .collect(Collectors.toList()));
+    }
+
+    private PhoneListDto mapPhoneToPhoneListDto(Integer pageSize, Slice<Product> sliceOfProduct, Function<Phone, Cursor> cursorOf) {
+
+        List<Phone> phoneList = new ArrayList<>();
+
+        sliceOfProduct.forEach(entity -> phoneList.add((Phone) entity));
+
+        // Page number and total are not known when paging by cursor
+        PhoneListDto phoneListDto = new PhoneListDto(
+                null,
+                pageSize,
+                phoneList.size(),
+                null,
+                phoneList.stream()
+                        .map(this::mapPhoneToPhoneDto)
+                        .collect(Collectors.toList()));
+
+        // The next page starts after the last phone of this one
+        if (sliceOfProduct.hasNext()) {
+            phoneListDto.setNextCursor(cursorOf.apply(phoneList.get(phoneList.size() - 1)).encode());
+        }
+
+        return phoneListDto;
+    }
+
+    private PhoneDto mapPhoneToPhoneDto(Phone phone) {
+
+        return new PhoneDto(
+                phone.getId(),
+                phone.getBrand_name(),
+                phone.getColor(),
+                phone.getPrice(),
+                phone.getWeight(),
+                phone.getLength(),
+                phone.getQuantity());
     }
 }
@@ -1,21 +1,47 @@
 package bg.startit.products.controller;
 
-import bg.startit.products.model.Car;
-import bg.startit.products.model.Phone;
+import bg.startit.products.dao.InsufficientStockException;
+import bg.startit.products.dao.SaleQueueFullException;
+import bg.startit.products.dto.sale.OrderDto;
+import bg.startit.products.dto.sale.SalesReportDto;
+import bg.startit.products.dto.sale.TopSalesDto;
+import bg.startit.products.export.SaleExportWriter;
+import bg.startit.products.model.IdempotentResponse;
+import bg.startit.products.model.LiveWindow;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.ReportGrouping;
+import bg.startit.products.model.ReportJob;
+import bg.startit.products.model.Reservation;
 import bg.startit.products.model.Sale;
-import bg.startit.products.model.TV;
-import bg.startit.products.service.CarService;
-import bg.startit.products.service.PhoneService;
+import bg.startit.products.service.IdempotencyService;
+import bg.startit.products.service.ReportJobService;
+import bg.startit.products.service.ReportQueueFullException;
+import bg.startit.products.service.ReservationService;
 import bg.startit.products.service.SaleService;
-import bg.startit.products.service.TVService;
+import bg.startit.products.service.TopSalesService;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.io.UncheckedIOException;
+import java.net.URI;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
 
 /**
  * REST controller for Sale operations.
@@ -24,82 +50,248 @@ import java.time.LocalDateTime;
 @RequestMapping("/api/v1/sales")
 public class SaleResource {
 
-    private final CarService carService;
+    /**
+     * Maximum number of lines of one order.
+     */
+    private static final int MAX_ORDER_LINES = 1000;
 
-    private final PhoneService phoneService;
+    /**
+     * Seconds to wait before retrying a sale refused because too many sales are waiting to be stored.
+     */
+    private static final String RETRY_AFTER_SECONDS = "1";
 
-    private final TVService tvService;
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 200;
 
     private final SaleService saleService;
 
-    public SaleResource(CarService carService, PhoneService phoneService, TVService tvService, SaleService saleService) {
-        this.carService = carService;
-        this.phoneService = phoneService;
-        this.tvService = tvService;
+    private final IdempotencyService idempotencyService;
+
+    private final ReservationService reservationService;
+
+    private final ReportJobService reportJobService;
+
+    public SaleResource(SaleService saleService, IdempotencyService idempotencyService,
+                        ReservationService reservationService, ReportJobService reportJobService) {
         this.saleService = saleService;
+        this.idempotencyService = idempotencyService;
+        this.reservationService = reservationService;
+        this.reportJobService = reportJobService;
     }
 
-    // Create a car
+    // Sell a product, at most the quantity left in stock.
+    // Retries with the same Idempotency-Key header get the response of the first request and sell nothing.
     @PostMapping("/create")
-    public ResponseEntity<String> createRest(@RequestParam @NotNull Long product_id,
+    public ResponseEntity<String> createRest(@RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey,
+                                             @RequestParam @NotNull Long product_id,
                                              @RequestParam @NotNull Integer product_type,
                                              @RequestParam @NotNull Long quantity) {
 
-        Sale sale;
+        if (idempotencyKey == null) {
+            return create(product_id, product_type, quantity);
+        }
 
-        if (product_type == 1) {
+        if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+            return ResponseEntity.badRequest().body("Sale not created! Invalid Idempotency-Key.");
+        }
 
-            Car car = (Car) carService.findProduct(product_id);
+        final String request = "product_id=" + product_id + "&product_type=" + product_type + "&quantity=" + quantity;
 
-            if (car.getQuantity() <= 0) {
-                return ResponseEntity.badRequest().body("Sale not created! Not such products are left.");
-            }
-            if (car.getQuantity() < quantity) {
-                quantity = car.getQuantity();
-            }
-            car.setQuantity(car.getQuantity() - quantity);
+        final IdempotentResponse response = idempotencyService.execute(idempotencyKey, request, () -> {
+            final ResponseEntity<String> created = create(product_id, product_type, quantity);
+            return new IdempotentResponse(null, null, created.getStatusCodeValue(), created.getBody(), null);
+        });
 
-            carService.update(car);
+        if (response == null) {
+            return ResponseEntity.unprocessableEntity().body("Sale not created! Idempotency-Key used for another sale.");
+        }
 
-            sale = new Sale(product_id, quantity, LocalDateTime.now(), product_type, car.getPrice().multiply(BigDecimal.valueOf(quantity)));
-        } else if (product_type == 2) {
+        if (response.isPending()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body("Sale not created! A sale with this Idempotency-Key is in progress, retry later.");
+        }
 
-            Phone phone = (Phone) phoneService.findProduct(product_id);
+        if (response.getStatus() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+            return ResponseEntity.status(response.getStatus())
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body(response.getBody() == null ? "Sale not created! Retry later." : response.getBody());
+        }
 
-            if (phone.getQuantity() <= 0) {
-                return ResponseEntity.badRequest().body("Sale not created! Not such products are left.");
-            }
-            if (phone.getQuantity() < quantity) {
-                quantity = phone.getQuantity();
-            }
-            phone.setQuantity(phone.getQuantity() - quantity);
+        return ResponseEntity.status(response.getStatus()).body(response.getBody());
+    }
+
+    private ResponseEntity<String> create(Long product_id, Integer product_type, Long quantity) {
+
+        if (ProductType.of(product_type) == null) {
+            return ResponseEntity.badRequest().body("Sale not created! No such product type exists.");
+        }
+        if (quantity <= 0) {
+            return ResponseEntity.badRequest().body("Sale not created! Quantity must be positive.");
+        }
 
-            phoneService.update(phone);
+        final Sale sale;
 
-            sale = new Sale(product_id, quantity, LocalDateTime.now(), product_type, phone.getPrice().multiply(BigDecimal.valueOf(quantity)));
-        } else if (product_type == 3) {
+        // Stock decrement and sale insert in one transaction, or the insert written behind
+        try {
+            sale = saleService.sell(new Sale(product_id, quantity, LocalDateTime.now(), product_type, null));
+        } catch (SaleQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body("Sale not created! Too many sales at the moment, retry later.");
+        }
 
-            TV tv = (TV) tvService.findProduct(product_id);
+        if (sale == null) {
+            return ResponseEntity.badRequest().body("Sale not created! Not such products are left.");
+        }
 
-            if (tv.getQuantity() <= 0) {
-                return ResponseEntity.badRequest().body("Sale not created! Not such products are left.");
+        return ResponseEntity.ok("Sale successfully created!");
+    }
+
+    // Sell many products of any type in one transaction, either all lines are sold or none
+    @PostMapping("/orders")
+    public ResponseEntity<OrderDto> orderRest(@RequestBody List<Sale> lines) {
+
+        if (lines.isEmpty() || lines.size() > MAX_ORDER_LINES) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        for (Sale line : lines) {
+            if (line.getProduct_id() == null || ProductType.of(line.getProduct_type()) == null
+                    || line.getNb_sold() == null || line.getNb_sold() <= 0) {
+                return ResponseEntity.badRequest().build();
             }
-            if (tv.getQuantity() < quantity) {
-                quantity = tv.getQuantity();
+        }
+
+        try {
+            final List<Sale> sales = saleService.sellAll(lines, LocalDateTime.now());
+
+            if (sales == null) {
+                return ResponseEntity.badRequest().build();
             }
-            tv.setQuantity(tv.getQuantity() - quantity);
 
-            tvService.update(tv);
+            final BigDecimal total = sales.stream()
+                    .map(Sale::getPrice)
+                    .reduce(BigDecimal.ZERO, BigDecimal::add);
 
-            sale = new Sale(product_id, quantity, LocalDateTime.now(), product_type, tv.getPrice().multiply(BigDecimal.valueOf(quantity)));
-        } else {
+            return ResponseEntity.ok(new OrderDto(sales, total));
+        } catch (InsufficientStockException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new OrderDto(e.getLines()));
+        }
+    }
 
-            return ResponseEntity.badRequest().body("Sale not created! No such product type exists.");
+    // Hold up to quantity items of a product, e.g. while the customer pays, until confirmed, released or expired
+    @PostMapping("/reservations/reserve")
+    public ResponseEntity<Reservation> reserveRest(@RequestParam @NotNull Long product_id,
+                                                   @RequestParam @NotNull Integer product_type,
+                                                   @RequestParam @NotNull Long quantity) {
+
+        if (ProductType.of(product_type) == null || quantity <= 0) {
+            return ResponseEntity.badRequest().build();
         }
 
-        saleService.create(sale);
+        final Reservation reservation = reservationService.reserve(product_id, product_type, quantity);
 
-        return ResponseEntity.ok("Sale successfully created!");
+        if (reservation == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+
+        return ResponseEntity.ok(reservation);
+    }
+
+    // Sell the items of a reservation, in one transaction with deleting it
+    @PostMapping("/reservations/confirm/{id}")
+    public ResponseEntity<Sale> confirmRest(@PathVariable @Min(1) Long id) {
+
+        final Sale sale = reservationService.confirm(id);
+
+        if (sale == null) {
+            return ResponseEntity.notFound().build();
+        }
+
+        return ResponseEntity.ok(sale);
+    }
+
+    // Put the items of a reservation back in stock
+    @PostMapping("/reservations/release/{id}")
+    public ResponseEntity<String> releaseRest(@PathVariable @Min(1) Long id) {
+
+        if (reservationService.release(id)) {
+            return ResponseEntity.ok("Reservation successfully released!");
+        }
+
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Reservation not released! No such reservation.");
+    }
+
+    // Compute the daily totals of the reports again, after sales of these days were inserted or deleted in the database
+    @PostMapping("/rollup/rebuild")
+    public ResponseEntity<String> rebuildRollupRest(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                    @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+
+        if (start.isAfter(end)) {
+            return ResponseEntity.badRequest().body("Sale totals not rebuilt! Start is after end.");
+        }
+
+        final int totals = saleService.rebuildRollup(start, end);
+
+        return ResponseEntity.ok(String.format("Sale totals successfully rebuilt! Totals by day and product: %d", totals));
+    }
+
+    // Move the sales of a closed month, as yyyy-MM, out of table SALE into table SALE_DETACHED_yyyyMM
+    @PostMapping("/partitions/detach")
+    public ResponseEntity<String> detachPartitionRest(@RequestParam String month) {
+
+        final YearMonth yearMonth;
+
+        try {
+            yearMonth = YearMonth.parse(month);
+        } catch (DateTimeParseException e) {
+            return ResponseEntity.badRequest().body("Partition not detached! Month is not yyyy-MM.");
+        }
+
+        if (!yearMonth.isBefore(YearMonth.now())) {
+            return ResponseEntity.badRequest().body("Partition not detached! Month is not closed yet.");
+        }
+
+        if (saleService.detachPartition(yearMonth)) {
+            return ResponseEntity.ok("Partition successfully detached!");
+        }
+
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Partition not detached! No such partition.");
+    }
+
+    // Export the sales of the days from start to end as blocks of columns, streamed while they are read,
+    // see SaleExportWriter for the format and SaleExportReader to read it
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportRest(@RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate start,
+                                                            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate end) {
+
+        if (start.isAfter(end)) {
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(outputStream -> outputStream.write(
+                            "Sales not exported! Start is after end.".getBytes(StandardCharsets.UTF_8)));
+        }
+
+        final StreamingResponseBody body = outputStream -> {
+            SaleExportWriter writer = new SaleExportWriter(outputStream);
+
+            try {
+                saleService.exportSales(start, end, writer::write);
+            } catch (UncheckedIOException e) {
+                // The client disconnected, the rows are no longer read
+                throw e.getCause();
+            }
+
+            writer.finish();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .header(HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"sales-" + start + "-" + end + "." + SaleExportWriter.EXTENSION + "\"")
+                .body(body);
     }
 
     // Report sales
@@ -109,6 +301,160 @@ public class SaleResource {
                                              @Min(1) @Max(12) @RequestParam(defaultValue = "12") Integer end_month,
                                              @RequestParam Integer end_year) {
 
+        final SalesReportDto report = inRange(start_month, start_year, end_month, end_year,
+                (start, end) -> saleService.getReport(start, end, EnumSet.noneOf(ReportGrouping.class)));
+
+        if (report == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        return ResponseEntity.ok(String.format("Products sold: %d; Final profit: %.2f lv.",
+                report.getTotal().getNb_sold(), report.getTotal().getRevenue()));
+    }
+
+    // Report the sales of the last 5m, 1h or 24h from memory, overall and by product type
+    @GetMapping("/live")
+    public ResponseEntity<?> liveRest(@RequestParam(defaultValue = "5m") String window) {
+
+        final LiveWindow liveWindow = LiveWindow.of(window);
+
+        if (liveWindow == null) {
+            return ResponseEntity.badRequest().body("Live sales not reported! Window is one of 5m, 1h or 24h.");
+        }
+
+        return ResponseEntity.ok(saleService.getLive(liveWindow));
+    }
+
+    // Report the products of a type with the most units sold in the last 5m, 1h or 24h,
+    // estimated from memory with the maximum error of the estimates, or exact from the database
+    @GetMapping("/top")
+    public ResponseEntity<?> topRest(@RequestParam Integer type,
+                                     @RequestParam(defaultValue = "10") Integer n,
+                                     @RequestParam(defaultValue = "1h") String window,
+                                     @RequestParam(defaultValue = "false") boolean exact) {
+
+        final ProductType productType = ProductType.of(type);
+        final LiveWindow liveWindow = LiveWindow.of(window);
+
+        if (productType == null) {
+            return ResponseEntity.badRequest().body("Top sales not reported! No such product type.");
+        }
+        if (n < 1 || n > TopSalesService.MAX_TOP) {
+            return ResponseEntity.badRequest()
+                    .body("Top sales not reported! N is from 1 to " + TopSalesService.MAX_TOP + ".");
+        }
+        if (liveWindow == null) {
+            return ResponseEntity.badRequest().body("Top sales not reported! Window is one of 5m, 1h or 24h.");
+        }
+
+        final TopSalesDto top = saleService.getTop(productType, n, liveWindow, exact);
+
+        if (top == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        return ResponseEntity.ok(top);
+    }
+
+    // Report the number of sales, items sold, revenue and average, min and max ticket of the sales,
+    // overall and by any of product_type, product_id and one of day, week or month
+    @GetMapping("/report/totals")
+    public ResponseEntity<?> reportTotalsRest(@Min(1) @Max(12) @RequestParam(defaultValue = "1") Integer start_month,
+                                              @RequestParam Integer start_year,
+                                              @Min(1) @Max(12) @RequestParam(defaultValue = "12") Integer end_month,
+                                              @RequestParam Integer end_year,
+                                              @RequestParam(defaultValue = "") List<String> group_by) {
+
+        Set<ReportGrouping> groupBy = EnumSet.noneOf(ReportGrouping.class);
+        final String invalidGrouping = parseGroupBy(group_by, groupBy);
+
+        if (invalidGrouping != null) {
+            return ResponseEntity.badRequest().body("Report not created! " + invalidGrouping);
+        }
+
+        final SalesReportDto report = inRange(start_month, start_year, end_month, end_year,
+                (start, end) -> saleService.getReport(start, end, groupBy));
+
+        if (report == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+
+        return ResponseEntity.ok(report);
+    }
+
+    // Submit the report of /report/totals to be computed in background, poll the returned location for its result.
+    // The same report submitted while it is still computed returns the same job.
+    @PostMapping("/reports")
+    public ResponseEntity<?> submitReportRest(@Min(1) @Max(12) @RequestParam(defaultValue = "1") Integer start_month,
+                                              @RequestParam Integer start_year,
+                                              @Min(1) @Max(12) @RequestParam(defaultValue = "12") Integer end_month,
+                                              @RequestParam Integer end_year,
+                                              @RequestParam(defaultValue = "") List<String> group_by) {
+
+        Set<ReportGrouping> groupBy = EnumSet.noneOf(ReportGrouping.class);
+        final String invalidGrouping = parseGroupBy(group_by, groupBy);
+
+        if (invalidGrouping != null) {
+            return ResponseEntity.badRequest().body("Report not submitted! " + invalidGrouping);
+        }
+
+        final ReportJob job;
+        try {
+            job = inRange(start_month, start_year, end_month, end_year,
+                    (start, end) -> reportJobService.submit(start, end, groupBy));
+        } catch (ReportQueueFullException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, RETRY_AFTER_SECONDS)
+                    .body("Report not submitted! Too many reports waiting, retry later.");
+        }
+
+        return ResponseEntity.accepted()
+                .location(URI.create("/api/v1/sales/reports/" + job.getId()))
+                .body(job);
+    }
+
+    // Status of a submitted report, with the report once done. Finished reports are kept for a limited time.
+    @GetMapping("/reports/{id}")
+    public ResponseEntity<?> reportJobRest(@PathVariable String id) {
+
+        final ReportJob job = reportJobService.find(id);
+
+        if (job == null) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Report not found! No such report or it expired.");
+        }
+
+        return ResponseEntity.ok(job);
+    }
+
+    /**
+     * Add the groupings named in group_by to groupBy.
+     *
+     * @return why group_by is not valid, null if valid
+     */
+    private static String parseGroupBy(List<String> group_by, Set<ReportGrouping> groupBy) {
+
+        for (String grouping : group_by) {
+            try {
+                groupBy.add(ReportGrouping.valueOf(grouping.trim().toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                return "No such grouping: " + grouping;
+            }
+        }
+
+        if (groupBy.stream().filter(ReportGrouping::isPeriod).count() > 1) {
+            return "Group by one of day, week or month only.";
+        }
+
+        return null;
+    }
+
+    /**
+     * Report the sales from the first day of start_month until the first day of end_month,
+     * years not in the past are reported until this year.
+     */
+    private static <T> T inRange(Integer start_month, Integer start_year, Integer end_month, Integer end_year,
+                                 BiFunction<LocalDateTime, LocalDateTime, T> report) {
+
         LocalDateTime localDateTimeNow = LocalDateTime.now();
 
         LocalDateTime start, end;
@@ -131,11 +477,6 @@ public class SaleResource {
             end = temp;
         }
 
-        Long countAllSalesInDateRange = saleService.getCountAllInDateRange(start, end);
-
-        BigDecimal sumAllMoneyInDateRange = saleService.getSumAllMoneyInDateRange(start, end);
-
-        return ResponseEntity.ok(String.format("Products sold: %d; Final profit: %.2f lv.",
-                countAllSalesInDateRange, sumAllMoneyInDateRange));
+        return report.apply(start, end);
     }
 }
\ No newline at end of file
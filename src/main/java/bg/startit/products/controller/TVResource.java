@@ -1,24 +1,43 @@
 package bg.startit.products.controller;
 
 import bg.startit.products.IStaff;
+import bg.startit.products.dao.StaleVersionException;
 import bg.startit.products.dto.tv.TVDto;
 import bg.startit.products.dto.tv.TVListDto;
+import bg.startit.products.export.ExportFormat;
+import bg.startit.products.export.ProductExportWriter;
+import bg.startit.products.mappers.ProductColumns;
+import bg.startit.products.model.BulkResult;
+import bg.startit.products.model.ColorMatch;
 import bg.startit.products.model.TV;
 import bg.startit.products.model.Product;
+import bg.startit.products.pagination.CountStrategy;
+import bg.startit.products.pagination.Cursor;
 import bg.startit.products.service.TVService;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.Positive;
 import javax.validation.constraints.Size;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
@@ -28,6 +47,16 @@ import java.util.stream.Collectors;
 @RequestMapping("/api/v1/tvs")
 public class TVResource implements IStaff {
 
+    /**
+     * Maximum number of ids of one multi-get request.
+     */
+    private static final int MAX_IDS = 10000;
+
+    /**
+     * Maximum page size, a keyset page reads one row more.
+     */
+    private static final int MAX_PAGE_SIZE = 1000;
+
     private final TVService tvService;
 
     public TVResource(TVService tvService) {
@@ -41,14 +70,43 @@ public class TVResource implements IStaff {
         return tvService.getAll(pageable);
     }
 
-    // Get all tvs
+    @Override
+    public Page<Product> getAll(Pageable pageable, CountStrategy countStrategy) {
+
+        return tvService.getAll(pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> getAll(Cursor cursor, int limit) {
+
+        return tvService.getAll(cursor, limit);
+    }
+
+    // Get all tvs, by page number or by cursor (empty cursor for the first page)
     @GetMapping("/all")
     public ResponseEntity<TVListDto> getAllRest(@RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> tvs = getAll(Cursor.decode(cursor), pageSize);
+
+                return ResponseEntity.ok(mapTVToTVListDto(pageSize, tvs, tv -> Cursor.of(tv.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<TV> tvs = pageProductToPageTV(pageable, getAll(pageable));
+        final Page<TV> tvs = pageProductToPageTV(pageable, getAll(pageable, total));
 
         return ResponseEntity.ok(mapTVToTVListDto(pageNumber, pageSize, tvs));
     }
@@ -59,29 +117,72 @@ public class TVResource implements IStaff {
         return tvService.findProduct(id);
     }
 
-    // Get tv by id
+    @Override
+    public Product findProduct(Long id, Collection<String> fields) {
+
+        return tvService.findProduct(id, fields);
+    }
+
+    // Get tv by id, optionally only the given fields e.g. ?fields=color,price
     @GetMapping("/{id}")
-    public ResponseEntity<TVDto> getTVByIdRest(@PathVariable @Min(1) Long id) {
+    public ResponseEntity<TVDto> getTVByIdRest(@PathVariable @Min(1) Long id,
+                                               @RequestParam(required = false) List<String> fields) {
+
+        TVDto tvDto = new TVDto();
+
+        // Check the fields here, exceptions thrown by the DAO are translated to DataAccessException
+        if (fields != null) {
+            try {
+                ProductColumns.toColumns(fields);
+            } catch (IllegalArgumentException e) {
+                tvDto.setBrand_name(e.getMessage());
+                return ResponseEntity.badRequest().body(tvDto);
+            }
+        }
 
         // Find tv by id
-        final TV tv = (TV) findProduct(id);
+        final TV tv = (TV) (fields == null ? findProduct(id) : findProduct(id, fields));
 
-        TVDto tvDto = new TVDto();
         if (tv == null) {
             tvDto.setBrand_name("TV not found!");
             return ResponseEntity.badRequest().body(tvDto);
         }
 
-        tvDto = new TVDto(
-                tv.getId(),
-                tv.getBrand_name(),
-                tv.getColor(),
-                tv.getPrice(),
-                tv.getWeight(),
-                tv.getLength(),
-                tv.getQuantity());
+        // The version to send back in If-Match when updating the tv
+        if (tv.getVersion() != null) {
+            return ResponseEntity.ok().eTag(VersionTags.of(tv.getVersion())).body(mapTVToTVDto(tv));
+        }
+
+        return ResponseEntity.ok(mapTVToTVDto(tv));
+    }
 
-        return ResponseEntity.ok(tvDto);
+    @Override
+    public void exportAll(Consumer<Product> consumer) {
+
+        tvService.exportAll(consumer);
+    }
+
+    // Export all tvs as NDJSON or CSV, streamed row by row while they are read
+    @GetMapping("/export")
+    public ResponseEntity<StreamingResponseBody> exportRest(@RequestParam(defaultValue = "NDJSON") ExportFormat format) {
+
+        final StreamingResponseBody body = outputStream -> {
+            ProductExportWriter writer = new ProductExportWriter(outputStream, format);
+
+            try {
+                exportAll(writer::write);
+            } catch (UncheckedIOException e) {
+                // The client disconnected, the rows are no longer read
+                throw e.getCause();
+            }
+
+            writer.finish();
+        };
+
+        return ResponseEntity.ok()
+                .contentType(format.getMediaType())
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"tvs." + format.getExtension() + "\"")
+                .body(body);
     }
 
     @Override
@@ -178,21 +279,85 @@ public class TVResource implements IStaff {
         return ResponseEntity.ok(String.format("%d cm.", length));
     }
 
+    @Override
+    public Map<Long, Product> findProducts(List<Long> ids) {
+
+        return tvService.findProducts(ids);
+    }
+
+    // Get tvs by ids e.g. /batch?ids=1,2,3 in the same order, ids not found are returned as missing
+    @GetMapping("/batch")
+    public ResponseEntity<TVListDto> getTVsByIdsRest(@RequestParam List<Long> ids) {
+
+        if (ids.size() > MAX_IDS) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        final Map<Long, Product> tvs = findProducts(ids);
+
+        TVListDto tvListDto = new TVListDto(
+                null,
+                null,
+                tvs.size(),
+                null,
+                tvs.values()
+                        .stream()
+                        .map(tv -> mapTVToTVDto((TV) tv))
+                        .collect(Collectors.toList()));
+
+        tvListDto.setMissing(ids.stream()
+                .filter(id -> !tvs.containsKey(id))
+                .distinct()
+                .collect(Collectors.toList()));
+
+        return ResponseEntity.ok(tvListDto);
+    }
+
     @Override
     public Page<Product> findProduct(String color, Pageable pageable) {
 
         return tvService.findProduct(color, pageable);
     }
 
-    // Get tvs by color
+    @Override
+    public Page<Product> findProduct(String color, ColorMatch match, Pageable pageable, CountStrategy countStrategy) {
+
+        return tvService.findProduct(color, match, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> findProduct(String color, ColorMatch match, Cursor cursor, int limit) {
+
+        return tvService.findProduct(color, match, cursor, limit);
+    }
+
+    // Get tvs by color, match EXACT and PREFIX are cheaper than the default SUBSTRING
     @GetMapping("/colors/{color}")
     public ResponseEntity<TVListDto> getTVByColorRest(@PathVariable @Size(min = 1) String color,
+                                                      @RequestParam(defaultValue = "SUBSTRING") ColorMatch match,
                                                       @RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                      @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                      @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                      @RequestParam(required = false) String cursor,
+                                                      @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> tvs = findProduct(color, match, Cursor.decodeKeyedOnPrice(cursor), pageSize);
+
+                return ResponseEntity.ok(mapTVToTVListDto(pageSize, tvs, tv -> Cursor.of(tv.getPrice(), tv.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<TV> tvs = pageProductToPageTV(pageable, findProduct(color, pageable));
+        final Page<TV> tvs = pageProductToPageTV(pageable, findProduct(color, match, pageable, total));
 
         return ResponseEntity.ok(mapTVToTVListDto(pageNumber, pageSize, tvs));
     }
@@ -203,15 +368,44 @@ public class TVResource implements IStaff {
         return tvService.findProduct(price, pageable);
     }
 
+    @Override
+    public Page<Product> findProduct(BigDecimal price, Pageable pageable, CountStrategy countStrategy) {
+
+        return tvService.findProduct(price, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> findProduct(BigDecimal price, Cursor cursor, int limit) {
+
+        return tvService.findProduct(price, cursor, limit);
+    }
+
     // Get tvs by price
     @GetMapping("/price/{price}")
     public ResponseEntity<TVListDto> getTVByPriceRest(@PathVariable @Positive Double price,
                                                       @RequestParam(defaultValue = "0") @Min(0) Integer pageNumber,
-                                                      @RequestParam(defaultValue = "20") @Min(1) Integer pageSize) {
+                                                      @RequestParam(defaultValue = "20") @Min(1) @Max(MAX_PAGE_SIZE) Integer pageSize,
+                                                      @RequestParam(required = false) String cursor,
+                                                      @RequestParam(defaultValue = "NONE") CountStrategy total) {
+
+        // Bound the rows read, the constraints of the parameters are not validated
+        if (pageSize > MAX_PAGE_SIZE) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        if (cursor != null) {
+            try {
+                final Slice<Product> tvs = findProduct(BigDecimal.valueOf(price), Cursor.decodeKeyedOnPrice(cursor), pageSize);
+
+                return ResponseEntity.ok(mapTVToTVListDto(pageSize, tvs, tv -> Cursor.of(tv.getPrice(), tv.getId())));
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().build();
+            }
+        }
 
         Pageable pageable = PageRequest.of(pageNumber, pageSize);
 
-        final Page<TV> tvs = pageProductToPageTV(pageable, findProduct(BigDecimal.valueOf(price), pageable));
+        final Page<TV> tvs = pageProductToPageTV(pageable, findProduct(BigDecimal.valueOf(price), pageable, total));
 
         return ResponseEntity.ok(mapTVToTVListDto(pageNumber, pageSize, tvs));
     }
@@ -244,9 +438,10 @@ public class TVResource implements IStaff {
         return tvService.update(product);
     }
 
-    // Update tv by id
+    // Update tv by id, with If-Match only if not changed since the ETag was read
     @PutMapping("/update/{id}")
-    public ResponseEntity<String> updateRest(@PathVariable @Min(1) Long id,
+    public ResponseEntity<String> updateRest(@RequestHeader(value = HttpHeaders.IF_MATCH, required = false) String ifMatch,
+                                             @PathVariable @Min(1) Long id,
                                              @RequestParam @Size(min = 1) String brand_name,
                                              @RequestParam @Size(min = 1) String color,
                                              @RequestParam @Positive BigDecimal price,
@@ -254,27 +449,62 @@ public class TVResource implements IStaff {
                                              @RequestParam @Min(1) Long length,
                                              @RequestParam @Min(1) Long quantity) {
 
-        // Find tv by id
-        final TV tv = (TV) findProduct(id);
-        if (tv == null) {
-            return ResponseEntity.badRequest().body("TV not updated!");
+        // Version the update is based on, null to update whatever the version
+        Long version = null;
+        if (ifMatch != null) {
+            try {
+                version = VersionTags.parse(ifMatch);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("TV not updated! Invalid If-Match.");
+            }
         }
 
-        // Update tv properties
-        tv.setBrand_name(brand_name);
-        tv.setColor(color);
-        tv.setPrice(price);
-        tv.setWeight(weight);
-        tv.setLength(length);
-        tv.setQuantity(quantity);
-
-        if (update(tv)) {
-            return ResponseEntity.ok("TV successfully updated!");
+        // Updated only if still at version, in a single statement
+        final TV tv = new TV(brand_name, color, price, weight, length, quantity);
+        tv.setId(id);
+        tv.setVersion(version);
+
+        try {
+            if (update(tv)) {
+                return version == null
+                        ? ResponseEntity.ok("TV successfully updated!")
+                        : ResponseEntity.ok().eTag(VersionTags.of(version + 1)).body("TV successfully updated!");
+            }
+        } catch (StaleVersionException e) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED)
+                    .eTag(VersionTags.of(e.getCurrentVersion()))
+                    .body("TV not updated! It was changed meanwhile.");
         }
 
         return ResponseEntity.badRequest().body("TV not updated!");
     }
 
+    @Override
+    public List<BulkResult> createAll(List<Product> products) {
+
+        return tvService.createAll(products);
+    }
+
+    // Create tvs from a JSON array, with a result and the generated id for every tv
+    @PostMapping("/bulk")
+    public ResponseEntity<List<BulkResult>> createBulkRest(@RequestBody List<TV> tvs) {
+
+        return ResponseEntity.ok(bulkRest(tvs, false));
+    }
+
+    @Override
+    public List<BulkResult> updateAll(List<Product> products) {
+
+        return tvService.updateAll(products);
+    }
+
+    // Update tvs by id from a JSON array, with a result for every tv
+    @PutMapping("/bulk")
+    public ResponseEntity<List<BulkResult>> updateBulkRest(@RequestBody List<TV> tvs) {
+
+        return ResponseEntity.ok(bulkRest(tvs, true));
+    }
+
     @Override
     public boolean delete(Long id) {
 
@@ -292,13 +522,65 @@ public class TVResource implements IStaff {
         return ResponseEntity.badRequest().body("TV not deleted!");
     }
 
+    private List<BulkResult> bulkRest(List<TV> tvs, boolean update) {
+
+        List<BulkResult> results = new ArrayList<>(Collections.nCopies(tvs.size(), null));
+
+        // Only valid tvs are written, the invalid ones get their result right away
+        List<Product> validTVs = new ArrayList<>();
+        List<Integer> validIndexes = new ArrayList<>();
+
+        for (int i = 0; i < tvs.size(); i++) {
+            final TV tv = tvs.get(i);
+            final String error = validate(tv, update);
+
+            if (error == null) {
+                validTVs.add(tv);
+                validIndexes.add(i);
+            } else {
+                results.set(i, new BulkResult(i, tv.getId(), false, error));
+            }
+        }
+
+        final List<BulkResult> written = update ? updateAll(validTVs) : createAll(validTVs);
+
+        for (int i = 0; i < written.size(); i++) {
+            final BulkResult result = written.get(i);
+            result.setIndex(validIndexes.get(i));
+            results.set(validIndexes.get(i), result);
+        }
+
+        return results;
+    }
+
+    private String validate(TV tv, boolean update) {
+
+        if (update && (tv.getId() == null || tv.getId() < 1)) {
+            return "TV id is required!";
+        }
+        if (tv.getBrand_name() == null || tv.getBrand_name().isEmpty()
+                || tv.getColor() == null || tv.getColor().isEmpty()) {
+            return "Brand name and color are required!";
+        }
+        if (tv.getPrice() == null || tv.getPrice().compareTo(BigDecimal.ZERO) <= 0) {
+            return "Price must be positive!";
+        }
+        if (tv.getWeight() == null || tv.getWeight() < 1
+                || tv.getLength() == null || tv.getLength() < 1
+                || tv.getQuantity() == null || tv.getQuantity() < 1) {
+            return "Weight, length and quantity must be positive!";
+        }
+
+        return null;
+    }
+
     private Page<TV> pageProductToPageTV(Pageable pageable, Page<Product> pageOfProduct) {
 
         List<TV> tvList = new ArrayList<>();
 
         pageOfProduct.forEach(entity -> tvList.add((TV) entity));
 
-        return new PageImpl<>(tvList, pageable, tvList.size());
+        return new PageImpl<>(tvList, pageable, pageOfProduct.getTotalElements());
     }
 
     private TVListDto mapTVToTVListDto(Integer pageNumber, Integer pageSize, Page<TV> pageOfTV) {
@@ -312,14 +594,43 @@ public class TVResource implements IStaff {
                 // Map the tv list to content list of tv DTO.
                 pageOfTV.getContent()
                         .stream()
-                        .map(tv -> new TVDto(
-                                tv.getId(),
-                                tv.getBrand_name(),
-                                tv.getColor(),
-                                tv.getPrice(),
-                                tv.getWeight(),
-                                tv.getLength(),
-                                tv.getQuantity()
-                        )).collect(Collectors.toList()));
+                        .map(this::mapTVToTVDto)
+                        .collect(Collectors.toList()));
+    }
+
+    private TVListDto mapTVToTVListDto(Integer pageSize, Slice<Product> sliceOfProduct, Function<TV, Cursor> cursorOf) {
+
+        List<TV> tvList = new ArrayList<>();
+
+        sliceOfProduct.forEach(entity -> tvList.add((TV) entity));
+
+        // Page number and total are not known when paging by cursor
+        TVListDto tvListDto = new TVListDto(
+                null,
+                pageSize,
+                tvList.size(),
+                null,
+                tvList.stream()
+                        .map(this::mapTVToTVDto)
+                        .collect(Collectors.toList()));
+
+        // The next page starts after the last tv of this one
+        if (sliceOfProduct.hasNext()) {
+            tvListDto.setNextCursor(cursorOf.apply(tvList.get(tvList.size() - 1)).encode());
+        }
+
+        return tvListDto;
+    }
+
+    private TVDto mapTVToTVDto(TV tv) {
+
+        return new TVDto(
+                tv.getId(),
+                tv.getBrand_name(),
+                tv.getColor(),
+                tv.getPrice(),
+                tv.getWeight(),
+                tv.getLength(),
+                tv.getQuantity());
     }
 }
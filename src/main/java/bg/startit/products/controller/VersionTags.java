@@ -0,0 +1,45 @@
+package bg.startit.products.controller;
+
+/**
+ * Row versions as entity tags, for the ETag and If-Match headers of the product endpoints.
+ */
+final class VersionTags {
+
+    private VersionTags() {
+    }
+
+    static String of(Long version) {
+
+        return "\"" + version + "\"";
+    }
+
+    /**
+     * Version of an If-Match header with a single entity tag.
+     *
+     * @return null for "*", any version matches
+     * @throws IllegalArgumentException if the header is not a version created by {@link #of(Long)}
+     */
+    static Long parse(String ifMatch) {
+
+        String tag = ifMatch.trim();
+
+        if (tag.equals("*")) {
+            return null;
+        }
+
+        // Weak tags are compared as strong ones, the version is the same for every representation
+        if (tag.startsWith("W/")) {
+            tag = tag.substring(2);
+        }
+
+        if (tag.length() < 3 || !tag.startsWith("\"") || !tag.endsWith("\"")) {
+            throw new IllegalArgumentException("Invalid entity tag: " + ifMatch);
+        }
+
+        try {
+            return Long.valueOf(tag.substring(1, tag.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid entity tag: " + ifMatch, e);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.BulkResult;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Execute one statement for many rows with JDBC batching.
+ */
+@Repository
+public class BulkDao {
+
+    /**
+     * Rows per JDBC batch and per transaction.
+     */
+    @Value("${products.bulk.batch-size:500}")
+    private int batchSize;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Autowired
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Execute query with named parameters once per row, batchSize rows per batch and transaction.
+     * When a batch fails it is rolled back and all of its rows are reported as failed, the other batches are kept.
+     *
+     * @param keyColumn generated column to return as id of the created rows, null to return the "id" parameter
+     * @return result for every row in the order of rows
+     */
+    public List<BulkResult> batchUpdate(String query, List<SqlParameterSource> rows, String keyColumn) {
+
+        final ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(query);
+
+        List<BulkResult> results = new ArrayList<>(rows.size());
+
+        for (List<SqlParameterSource> chunk : Chunks.of(rows, batchSize)) {
+            final int offset = results.size();
+
+            try {
+                results.addAll(transactionTemplate.execute(status -> jdbcTemplate.execute(
+                        (ConnectionCallback<List<BulkResult>>) connection ->
+                                executeBatch(connection, parsedSql, chunk, offset, keyColumn))));
+            } catch (Exception e) {
+                e.printStackTrace();
+
+                for (int i = 0; i < chunk.size(); i++) {
+                    results.add(new BulkResult(offset + i, idOf(chunk.get(i)), false, e.getMessage()));
+                }
+            }
+        }
+
+        return results;
+    }
+
+    private List<BulkResult> executeBatch(Connection connection, ParsedSql parsedSql, List<SqlParameterSource> chunk,
+                                          int offset, String keyColumn) throws SQLException {
+
+        final String sql = NamedParameterUtils.substituteNamedParameters(parsedSql, null);
+
+        try (PreparedStatement preparedStatement = keyColumn == null
+                ? connection.prepareStatement(sql)
+                : connection.prepareStatement(sql, new String[]{keyColumn})) {
+
+            for (SqlParameterSource row : chunk) {
+                new ArgumentPreparedStatementSetter(NamedParameterUtils.buildValueArray(parsedSql, row, null))
+                        .setValues(preparedStatement);
+                preparedStatement.addBatch();
+            }
+
+            final int[] updateCounts = preparedStatement.executeBatch();
+
+            final List<Long> keys = keyColumn == null ? new ArrayList<>() : generatedKeys(preparedStatement);
+
+            List<BulkResult> results = new ArrayList<>(chunk.size());
+
+            for (int i = 0; i < chunk.size(); i++) {
+                // Some drivers do not report the count of every row of a batch
+                final boolean success = updateCounts[i] == 1 || updateCounts[i] == Statement.SUCCESS_NO_INFO;
+
+                // Ids of created rows are known only if the driver returned a key for every row
+                final Long id = keyColumn == null ? idOf(chunk.get(i))
+                        : keys.size() == chunk.size() ? keys.get(i) : null;
+
+                results.add(new BulkResult(offset + i, id, success, success ? null : "Not found!"));
+            }
+
+            return results;
+        }
+    }
+
+    private List<Long> generatedKeys(PreparedStatement preparedStatement) {
+
+        List<Long> keys = new ArrayList<>();
+
+        try (ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+            while (resultSet.next()) {
+                keys.add(resultSet.getLong(1));
+            }
+        } catch (SQLException e) {
+            // The rows are written, only their ids are not available
+            e.printStackTrace();
+        }
+
+        return keys;
+    }
+
+    private Long idOf(SqlParameterSource row) {
+
+        return row.hasValue("id") ? (Long) row.getValue("id") : null;
+    }
+}
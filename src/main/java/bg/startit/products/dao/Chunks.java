@@ -0,0 +1,58 @@
+package bg.startit.products.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Split large lists into chunks that can be bound to one statement.
+ */
+public final class Chunks {
+
+    /**
+     * Oracle allows at most 1000 expressions in an IN list.
+     */
+    public static final int IN_LIST_SIZE = 1000;
+
+    private Chunks() {
+    }
+
+    /**
+     * Split list into consecutive chunks of at most size elements.
+     */
+    public static <T> List<List<T>> of(List<T> list, int size) {
+
+        List<List<T>> chunks = new ArrayList<>();
+
+        for (int from = 0; from < list.size(); from += size) {
+            chunks.add(list.subList(from, Math.min(from + size, list.size())));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Pad an IN list chunk to the next power of two (at most {@link #IN_LIST_SIZE}) by repeating its last element.
+     * The result of the query does not change, but the database sees only a few distinct statements
+     * and can reuse their parsed plans instead of hard parsing every list length.
+     */
+    public static <T> List<T> padded(List<T> chunk) {
+
+        if (chunk.size() <= 1) {
+            return chunk;
+        }
+
+        final int size = Math.min(Integer.highestOneBit(chunk.size() - 1) << 1, IN_LIST_SIZE);
+
+        if (size <= chunk.size()) {
+            return chunk;
+        }
+
+        List<T> padded = new ArrayList<>(size);
+        padded.addAll(chunk);
+        while (padded.size() < size) {
+            padded.add(chunk.get(chunk.size() - 1));
+        }
+
+        return padded;
+    }
+}
@@ -0,0 +1,91 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.ColorMatch;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the colors of the products.
+ * Products reference their color by COLOR_ID, so searching by color is a lookup in this small table
+ * followed by a range scan of the (COLOR_ID, PRICE DESC, ID DESC) index of the product table.
+ */
+@Repository
+public class ColorDao {
+
+    /**
+     * Colors already in the dictionary, they are never deleted.
+     */
+    private final Set<String> known = ConcurrentHashMap.newKeySet();
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    /**
+     * Add color to the dictionary if it is not there yet, before a product with this color is written.
+     */
+    public void ensureExists(String color) {
+
+        if (color == null || known.contains(color)) {
+            return;
+        }
+
+        final String query = "MERGE INTO COLOR USING (SELECT CAST(:color AS VARCHAR(40)) AS NAME FROM DUAL) NEW_COLOR" +
+                " ON (COLOR.NAME = NEW_COLOR.NAME) WHEN NOT MATCHED THEN INSERT (NAME) VALUES (NEW_COLOR.NAME)";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("color", color);
+
+        try {
+            namedParameterJdbcTemplate.update(query, mapSqlParameterSource);
+        } catch (DuplicateKeyException e) {
+            // Inserted by a concurrent request
+        }
+
+        known.add(color);
+    }
+
+    public void ensureExists(Collection<String> colors) {
+
+        colors.forEach(this::ensureExists);
+    }
+
+    /**
+     * Condition on the COLOR_ID of a product table with the :color parameter from {@link #parameter}.
+     */
+    public String condition(ColorMatch match) {
+
+        if (match == ColorMatch.EXACT) {
+            return "COLOR_ID = (SELECT ID FROM COLOR WHERE NAME = :color)";
+        }
+
+        // Only the dictionary is scanned by LIKE, the products are still found by the index
+        return "COLOR_ID IN (SELECT ID FROM COLOR WHERE NAME LIKE :color ESCAPE '\\')";
+    }
+
+    /**
+     * Value of the :color parameter of {@link #condition}, wildcards in color are matched literally.
+     */
+    public String parameter(ColorMatch match, String color) {
+
+        if (match == ColorMatch.EXACT) {
+            return color;
+        }
+
+        final String escaped = color.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+
+        return match == ColorMatch.PREFIX ? escaped + "%" : "%" + escaped + "%";
+    }
+}
@@ -0,0 +1,149 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.pagination.CountStrategy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Count rows of product tables for paged queries.
+ */
+@Repository
+public class CountDao {
+
+    /**
+     * Maximum number of cached counts per table, the cache of a table is cleared when it is reached.
+     */
+    private static final int MAX_CACHED_FILTERS = 1000;
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private volatile Boolean oracle;
+
+    /**
+     * Cached counts by table and filter.
+     */
+    private final Map<String, Map<String, Long>> cachedCounts = new ConcurrentHashMap<>();
+
+    /**
+     * Incremented on every modification of a table, so a count started before it is not cached.
+     */
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    /**
+     * Count the rows of table matching the where clause.
+     *
+     * @param where    filter of the query, empty for all rows
+     * @param fallback total to return when counting is not requested
+     */
+    public long count(CountStrategy countStrategy, String table, String where,
+                      MapSqlParameterSource mapSqlParameterSource, long fallback) {
+
+        switch (countStrategy) {
+            case EXACT:
+                return countExact(table, where, mapSqlParameterSource);
+            case CACHED:
+                return countCached(table, where, mapSqlParameterSource);
+            case ESTIMATED:
+                return estimate(table);
+            default:
+                return fallback;
+        }
+    }
+
+    /**
+     * Drop the cached counts of table. Called after create, update and delete.
+     */
+    public void invalidate(String table) {
+
+        version(table).incrementAndGet();
+        cachedCounts.remove(table);
+    }
+
+    private long countExact(String table, String where, MapSqlParameterSource mapSqlParameterSource) {
+
+        final String query = "SELECT COUNT(*) FROM " + table + (where.isEmpty() ? "" : " WHERE " + where);
+
+        final Long count = namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, Long.class);
+
+        return count == null ? 0L : count;
+    }
+
+    private long countCached(String table, String where, MapSqlParameterSource mapSqlParameterSource) {
+
+        // Key on the filter and the values bound to it
+        final String key = where + Arrays.toString(
+                NamedParameterUtils.buildValueArray(where, mapSqlParameterSource.getValues()));
+
+        final Map<String, Long> tableCounts = cachedCounts.computeIfAbsent(table, t -> new ConcurrentHashMap<>());
+        final Long cached = tableCounts.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        final long version = version(table).get();
+        final long count = countExact(table, where, mapSqlParameterSource);
+
+        // Keep the count only if the table was not modified meanwhile
+        if (version == version(table).get()) {
+            if (tableCounts.size() >= MAX_CACHED_FILTERS) {
+                tableCounts.clear();
+            }
+            tableCounts.put(key, count);
+        }
+
+        return count;
+    }
+
+    private long estimate(String table) {
+
+        final String query = isOracle()
+                ? "SELECT NUM_ROWS FROM USER_TABLES WHERE TABLE_NAME = :table"
+                : "SELECT ROW_COUNT_ESTIMATE FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_NAME = :table";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("table", table);
+
+        try {
+            final Long estimate = namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, Long.class);
+            // Tables never analyzed have no statistics
+            if (estimate != null) {
+                return estimate;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return countCached(table, "", new MapSqlParameterSource());
+    }
+
+    private AtomicLong version(String table) {
+
+        return versions.computeIfAbsent(table, t -> new AtomicLong());
+    }
+
+    private boolean isOracle() {
+
+        if (oracle == null) {
+            oracle = namedParameterJdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Boolean>) connection ->
+                    connection.getMetaData().getDatabaseProductName().toLowerCase().contains("oracle"));
+        }
+
+        return oracle;
+    }
+}
@@ -0,0 +1,73 @@
+package bg.startit.products.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.EmptySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.function.Consumer;
+
+/**
+ * Read whole tables row by row, without collecting the rows in a list.
+ */
+@Repository
+public class ExportDao {
+
+    /**
+     * Rows per round trip to the database, the Oracle driver fetches only 10 by default.
+     */
+    @Value("${products.export.fetch-size:1000}")
+    private int fetchSize;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Map every row of query with rowMapper and pass it to consumer, reading a forward-only result set.
+     * An exception thrown by consumer stops reading and closes the result set.
+     */
+    public <T> void forEach(String query, RowMapper<T> rowMapper, Consumer<? super T> consumer) {
+
+        forEach(query, EmptySqlParameterSource.INSTANCE, rowMapper, consumer);
+    }
+
+    /**
+     * Same as {@link #forEach(String, RowMapper, Consumer)} for a query with named parameters.
+     */
+    public <T> void forEach(String query, SqlParameterSource sqlParameterSource, RowMapper<T> rowMapper,
+                            Consumer<? super T> consumer) {
+
+        final ParsedSql parsedSql = NamedParameterUtils.parseSqlStatement(query);
+        final String sql = NamedParameterUtils.substituteNamedParameters(parsedSql, sqlParameterSource);
+        final Object[] args = NamedParameterUtils.buildValueArray(parsedSql, sqlParameterSource, null);
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement preparedStatement = connection.prepareStatement(sql,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            preparedStatement.setFetchSize(fetchSize);
+            new ArgumentPreparedStatementSetter(args).setValues(preparedStatement);
+            return preparedStatement;
+        }, (ResultSetExtractor<Void>) resultSet -> {
+            int rowNum = 0;
+            while (resultSet.next()) {
+                consumer.accept(rowMapper.mapRow(resultSet, rowNum++));
+            }
+            return null;
+        });
+    }
+}
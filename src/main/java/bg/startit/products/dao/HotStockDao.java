@@ -0,0 +1,237 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.Sale;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory stock of hot products, e.g. of a flash sale, so their buyers do not queue on the lock of the product row.
+ * Units are leased from QUANTITY in blocks of leaseSize and sold from a {@link StripedStock}.
+ * Units not sold are put back in QUANTITY once the product had no sale for a reconcile interval, and on shutdown.
+ * <p>
+ * Leased units are not in QUANTITY, so the other sales and orders never sell them. After a crash of the process
+ * the leased units are missing from QUANTITY until corrected by hand, the stock is never oversold.
+ * The price of a sale is the one of its product when the last block was leased.
+ * Hot products require products.sales.write-behind.enabled, so their sales are inserted in batches and do not queue
+ * on the lock of the daily totals of the product instead.
+ */
+@Repository
+public class HotStockDao {
+
+    /**
+     * Hot products as PRODUCT_TYPE:ID, e.g. CAR:1,PHONE:7.
+     */
+    @Value("${products.sales.hot-stock.products:}")
+    private List<String> hotProducts;
+
+    @Value("${products.sales.hot-stock.lease-size:100}")
+    private long leaseSize;
+
+    @Value("${products.sales.hot-stock.reconcile-interval-ms:5000}")
+    private long reconcileIntervalMillis;
+
+    private SaleDao saleDao;
+
+    private SaleWriter saleWriter;
+
+    private final Map<ProductType, Map<Long, HotProduct>> products = new EnumMap<>(ProductType.class);
+
+    private ScheduledExecutorService reconciler;
+
+    @Autowired
+    public void setSaleDao(final SaleDao saleDao) {
+
+        this.saleDao = saleDao;
+    }
+
+    @Autowired
+    public void setSaleWriter(final SaleWriter saleWriter) {
+
+        this.saleWriter = saleWriter;
+    }
+
+    @PostConstruct
+    public void start() {
+
+        for (String hotProduct : hotProducts) {
+            if (hotProduct.trim().isEmpty()) {
+                continue;
+            }
+
+            final String[] key = hotProduct.trim().split(":");
+            if (key.length != 2) {
+                throw new IllegalArgumentException("Hot product is not PRODUCT_TYPE:ID: " + hotProduct);
+            }
+
+            products.computeIfAbsent(ProductType.valueOf(key[0].trim()), type -> new HashMap<>())
+                    .put(Long.valueOf(key[1].trim()), new HotProduct());
+        }
+
+        if (products.isEmpty()) {
+            return;
+        }
+
+        if (!saleWriter.isEnabled()) {
+            throw new IllegalArgumentException("Hot products require products.sales.write-behind.enabled: " + hotProducts);
+        }
+
+        reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hot-stock-reconcile");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcile,
+                reconcileIntervalMillis, reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Put every leased unit back in QUANTITY.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException {
+
+        if (reconciler == null) {
+            return;
+        }
+
+        reconciler.shutdown();
+        reconciler.awaitTermination(reconcileIntervalMillis, TimeUnit.MILLISECONDS);
+
+        forEach((type, id, product) -> giveBack(type, id, product));
+    }
+
+    public boolean isHot(Integer productType, Long productId) {
+
+        return get(ProductType.of(productType), productId) != null;
+    }
+
+    /**
+     * Take up to nb_sold items of a hot product out of the leased stock, leasing more units when needed.
+     *
+     * @return the sale to record with the quantity taken and its price, null if sold out
+     */
+    public Sale takeStock(Sale sale) {
+
+        final HotProduct product = get(ProductType.of(sale.getProduct_type()), sale.getProduct_id());
+        final long quantity = sale.getNb_sold();
+
+        long taken = product.stock.take(quantity);
+        if (taken < quantity) {
+            taken += lease(product, sale, quantity - taken);
+        }
+
+        if (taken == 0) {
+            return null;
+        }
+
+        product.lastSaleNanos = System.nanoTime();
+
+        return new Sale(sale.getProduct_id(), taken, sale.getSale_date(), sale.getProduct_type(),
+                product.unitPrice.multiply(BigDecimal.valueOf(taken)));
+    }
+
+    /**
+     * Put the items of a sale taken by {@link #takeStock} back, when the sale could not be recorded.
+     */
+    public void putBack(Sale sale) {
+
+        get(ProductType.of(sale.getProduct_type()), sale.getProduct_id()).stock.add(sale.getNb_sold());
+    }
+
+    /**
+     * Lease a block of at least needed units and take needed units of it, one lease of a product at a time.
+     *
+     * @return the units taken, less than needed if the product is sold out
+     */
+    private long lease(HotProduct product, Sale sale, long needed) {
+
+        synchronized (product) {
+            // Another buyer may have leased while this one waited
+            final long taken = product.stock.take(needed);
+            if (taken == needed) {
+                return taken;
+            }
+
+            final Sale leased = saleDao.takeStock(new Sale(sale.getProduct_id(), Math.max(leaseSize, needed - taken),
+                    null, sale.getProduct_type(), null));
+            if (leased == null) {
+                return taken;
+            }
+
+            // Set before the units are added, so whoever takes them has their price
+            product.unitPrice = leased.getPrice().divide(BigDecimal.valueOf(leased.getNb_sold()));
+
+            final long own = Math.min(needed - taken, leased.getNb_sold());
+            product.stock.add(leased.getNb_sold() - own);
+
+            return taken + own;
+        }
+    }
+
+    /**
+     * Put the leased units of products without recent sales back in QUANTITY.
+     */
+    private void reconcile() {
+
+        final long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(reconcileIntervalMillis);
+
+        forEach((type, id, product) -> {
+            if (product.lastSaleNanos - idleSince < 0) {
+                giveBack(type, id, product);
+            }
+        });
+    }
+
+    private void giveBack(ProductType type, Long id, HotProduct product) {
+
+        synchronized (product) {
+            final long units = product.stock.drain();
+
+            if (units > 0 && !saleDao.restock(type, id, units)) {
+                // Keep selling them, retried by the next reconcile
+                product.stock.add(units);
+            }
+        }
+    }
+
+    private HotProduct get(ProductType type, Long id) {
+
+        return type == null ? null : products.getOrDefault(type, Collections.emptyMap()).get(id);
+    }
+
+    private void forEach(HotProductConsumer consumer) {
+
+        products.forEach((type, byId) -> byId.forEach((id, product) -> consumer.accept(type, id, product)));
+    }
+
+    private interface HotProductConsumer {
+
+        void accept(ProductType type, Long id, HotProduct product);
+    }
+
+    /**
+     * Leased stock of one hot product.
+     */
+    private static final class HotProduct {
+
+        private final StripedStock stock = new StripedStock();
+
+        private volatile BigDecimal unitPrice;
+
+        private volatile long lastSaleNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,248 @@
+package bg.startit.products.dao;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter of the IDs of one table.
+ * About 1% of the missing IDs are reported as possibly existing, an existing ID is never reported as missing.
+ * Until the filter is built every ID is reported as possibly existing.
+ */
+class IdBloomFilter {
+
+    private static final int BITS_PER_ID = 10;
+
+    /**
+     * Optimal number of hash functions for 10 bits per ID, false positive rate about 0.8%.
+     */
+    private static final int HASHES = 7;
+
+    private static final long MIN_CAPACITY = 1 << 16;
+
+    private static final ExecutorService REBUILD_EXECUTOR = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "id-filter-rebuild");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String table;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Filter in use, null while not built.
+     */
+    private volatile Bits current;
+
+    /**
+     * Filter being rebuilt, receives the added IDs too so none is lost while the table is scanned.
+     */
+    private volatile Bits building;
+
+    /**
+     * Guards adding an ID against publishing a rebuilt filter, so an ID added meanwhile is in the published one.
+     */
+    private final Object swapLock = new Object();
+
+    private final AtomicBoolean rebuildRequested = new AtomicBoolean();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /**
+     * Incremented when an ID may be missing from the filter, a rebuild started before is not published.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Deleted IDs still set in the filter.
+     */
+    private final AtomicLong deleted = new AtomicLong();
+
+    IdBloomFilter(String table, JdbcTemplate jdbcTemplate) {
+        this.table = table;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    boolean mightContain(long id) {
+
+        final Bits bits = current;
+
+        return bits == null || bits.mightContain(id);
+    }
+
+    /**
+     * Add the ID of a created row, after its transaction is committed.
+     */
+    void add(long id) {
+
+        final Bits bits;
+
+        synchronized (swapLock) {
+            bits = current;
+            if (bits != null) {
+                bits.add(id);
+            }
+
+            final Bits next = building;
+            if (next != null) {
+                next.add(id);
+            }
+        }
+
+        // Over capacity the false positive rate grows, so size the filter again
+        if (bits != null && bits.isFull()) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * Bloom filter bits can not be cleared, deleted IDs are dropped by rebuilding the filter once they are many.
+     */
+    void remove(long id) {
+
+        final Bits bits = current;
+        if (bits != null && deleted.incrementAndGet() > bits.capacity / 10) {
+            rebuildAsync();
+        }
+    }
+
+    /**
+     * Disable the filter until rebuilt, e.g. when a row was created but its ID is not known.
+     */
+    void invalidate() {
+
+        invalidations.incrementAndGet();
+        current = null;
+        rebuildAsync();
+    }
+
+    void rebuildAsync() {
+
+        rebuildRequested.set(true);
+
+        if (rebuilding.compareAndSet(false, true)) {
+            REBUILD_EXECUTOR.execute(this::rebuild);
+        }
+    }
+
+    private void rebuild() {
+
+        try {
+            while (rebuildRequested.getAndSet(false)) {
+                final long invalidationsBefore = invalidations.get();
+
+                final Long count = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM " + table, Long.class);
+                final Bits bits = new Bits(Math.max(count == null ? 0 : count * 2, MIN_CAPACITY));
+
+                // Publish before the scan, so IDs committed after it started are added too
+                synchronized (swapLock) {
+                    building = bits;
+                }
+                deleted.set(0);
+
+                jdbcTemplate.query("SELECT ID FROM " + table, resultSet -> {
+                    bits.add(resultSet.getLong(1));
+                });
+
+                synchronized (swapLock) {
+                    if (invalidations.get() == invalidationsBefore) {
+                        current = bits;
+                    } else {
+                        rebuildRequested.set(true);
+                    }
+                    building = null;
+                }
+            }
+        } catch (Exception e) {
+            // Keep answering from the previous filter, or from the database if there is none
+            e.printStackTrace();
+            synchronized (swapLock) {
+                building = null;
+            }
+        } finally {
+            rebuilding.set(false);
+        }
+
+        // A request made after the loop ended, but before the flag was cleared
+        if (rebuildRequested.get() && rebuilding.compareAndSet(false, true)) {
+            REBUILD_EXECUTOR.execute(this::rebuild);
+        }
+    }
+
+    /**
+     * Lock-free bit array with double hashing.
+     */
+    private static final class Bits {
+
+        private final long capacity;
+        private final long numBits;
+        private final AtomicLongArray words;
+        private final AtomicLong added = new AtomicLong();
+
+        private Bits(long capacity) {
+            this.capacity = capacity;
+            this.numBits = capacity * BITS_PER_ID;
+            this.words = new AtomicLongArray((int) ((numBits + 63) >>> 6));
+        }
+
+        private void add(long id) {
+
+            final long hash = mix(id);
+            final long hash1 = (int) hash;
+            final long hash2 = (int) (hash >>> 32);
+
+            for (int i = 1; i <= HASHES; i++) {
+                final long bit = Math.floorMod(hash1 + i * hash2, numBits);
+                final int index = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+
+                long word = words.get(index);
+                while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                    word = words.get(index);
+                }
+            }
+
+            added.incrementAndGet();
+        }
+
+        private boolean mightContain(long id) {
+
+            final long hash = mix(id);
+            final long hash1 = (int) hash;
+            final long hash2 = (int) (hash >>> 32);
+
+            for (int i = 1; i <= HASHES; i++) {
+                final long bit = Math.floorMod(hash1 + i * hash2, numBits);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean isFull() {
+
+            return added.get() > capacity;
+        }
+
+        /**
+         * Finalizer of MurmurHash3, spreads consecutive IDs over all bits.
+         */
+        private static long mix(long value) {
+
+            value ^= value >>> 33;
+            value *= 0xff51afd7ed558ccdL;
+            value ^= value >>> 33;
+            value *= 0xc4ceb9fe1a85ec53L;
+            value ^= value >>> 33;
+
+            return value;
+        }
+    }
+}
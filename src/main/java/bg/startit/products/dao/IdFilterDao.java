@@ -0,0 +1,98 @@
+package bg.startit.products.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory Bloom filters of the existing IDs of the product tables.
+ * Most lookups of missing IDs are answered without querying the database.
+ * The filters know only the rows created through the DAOs of this instance of the application. Rows inserted
+ * by other instances or directly in the database are found only after the next rebuild, so the filters are
+ * disabled unless products.id-filter.enabled=true, for a single instance owning its tables.
+ */
+@Repository
+public class IdFilterDao {
+
+    @Value("${products.id-filter.enabled:false}")
+    private boolean enabled;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private final Map<String, IdBloomFilter> filters = new ConcurrentHashMap<>();
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * Create the filter of table and build it in background. Until built every ID might exist.
+     */
+    public void register(String table) {
+
+        if (enabled) {
+            filters.computeIfAbsent(table, t -> new IdBloomFilter(t, jdbcTemplate)).rebuildAsync();
+        }
+    }
+
+    /**
+     * False if there is certainly no row with this id in table.
+     */
+    public boolean mightExist(String table, Long id) {
+
+        final IdBloomFilter filter = filters.get(table);
+
+        return filter == null || id == null || filter.mightContain(id);
+    }
+
+    /**
+     * Record a created row, id null if the generated id is not known.
+     */
+    public void created(String table, Long id) {
+
+        final IdBloomFilter filter = filters.get(table);
+        if (filter == null) {
+            return;
+        }
+
+        if (id == null) {
+            filter.invalidate();
+        } else {
+            filter.add(id);
+        }
+    }
+
+    /**
+     * The id generated for a created row, null if the driver returned no or more than one key.
+     */
+    static Long generatedId(KeyHolder keyHolder) {
+
+        try {
+            final Number key = keyHolder.getKey();
+            if (key != null) {
+                return key.longValue();
+            }
+        } catch (DataAccessException e) {
+            // The id is not known
+        }
+
+        return null;
+    }
+
+    public void deleted(String table, Long id) {
+
+        final IdBloomFilter filter = filters.get(table);
+        if (filter != null) {
+            filter.remove(id);
+        }
+    }
+}
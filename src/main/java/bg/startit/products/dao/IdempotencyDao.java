@@ -0,0 +1,137 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.mappers.IdempotentResponseRowMapper;
+import bg.startit.products.model.IdempotentResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+
+/**
+ * Access the stored responses of requests with an Idempotency-Key header via JDBC.
+ */
+@Repository
+public class IdempotencyDao {
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    /**
+     * Find the response stored for key since the given time.
+     *
+     * @return null if there is none or the database is not available
+     */
+    public IdempotentResponse find(String key, LocalDateTime since) {
+
+        final String query = "SELECT * FROM IDEMPOTENCY_KEY WHERE IDEMPOTENCY_KEY = :key AND CREATED >= :since";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("key", key);
+        mapSqlParameterSource.addValue("since", since);
+
+        try {
+            return DataAccessUtils.singleResult(namedParameterJdbcTemplate.query(
+                    query, mapSqlParameterSource, new IdempotentResponseRowMapper()));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Claim the key of a request before executing it, by storing a {@link IdempotentResponse#PENDING} response.
+     * An expired response of the same key is replaced. Only one instance of the application claims a key.
+     *
+     * @return true if claimed, false if the key is claimed already, null if the database is not available
+     */
+    public Boolean claim(IdempotentResponse pending, LocalDateTime expiredBefore) {
+
+        final String deleteQuery = "DELETE FROM IDEMPOTENCY_KEY WHERE IDEMPOTENCY_KEY = :key AND CREATED < :since";
+        final String insertQuery = "INSERT INTO IDEMPOTENCY_KEY (IDEMPOTENCY_KEY, REQUEST, STATUS, BODY, CREATED)" +
+                " VALUES (:idempotency_key, :request, :status, :body, :created)";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("key", pending.getIdempotency_key());
+        mapSqlParameterSource.addValue("since", expiredBefore);
+
+        try {
+            namedParameterJdbcTemplate.update(deleteQuery, mapSqlParameterSource);
+            namedParameterJdbcTemplate.update(insertQuery, new BeanPropertySqlParameterSource(pending));
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Store the response of a request in the row of its claimed key.
+     *
+     * @return false if the database is not available, retries find the key pending until it expires then
+     */
+    public boolean complete(IdempotentResponse response) {
+
+        final String query = "UPDATE IDEMPOTENCY_KEY SET STATUS = :status, BODY = :body" +
+                " WHERE IDEMPOTENCY_KEY = :idempotency_key";
+
+        try {
+            return namedParameterJdbcTemplate.update(query, new BeanPropertySqlParameterSource(response)) == 1;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    /**
+     * Give up the claim of a key whose request had no effect, so a retry executes it again.
+     */
+    public void release(String key) {
+
+        final String query = "DELETE FROM IDEMPOTENCY_KEY WHERE IDEMPOTENCY_KEY = :key AND STATUS = :pending";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("key", key);
+        mapSqlParameterSource.addValue("pending", IdempotentResponse.PENDING);
+
+        try {
+            namedParameterJdbcTemplate.update(query, mapSqlParameterSource);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Delete the responses stored before the given time.
+     */
+    public int deleteExpired(LocalDateTime expiredBefore) {
+
+        final String query = "DELETE FROM IDEMPOTENCY_KEY WHERE CREATED < :since";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("since", expiredBefore);
+
+        try {
+            return namedParameterJdbcTemplate.update(query, mapSqlParameterSource);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return 0;
+    }
+}
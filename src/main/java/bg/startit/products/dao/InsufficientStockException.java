@@ -0,0 +1,25 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.Sale;
+
+import java.util.List;
+
+/**
+ * Not enough stock for some lines of an order, the whole order is rolled back.
+ */
+public class InsufficientStockException extends RuntimeException {
+
+    private final List<Sale> lines;
+
+    public InsufficientStockException(List<Sale> lines) {
+        super("Not enough stock for " + lines.size() + " order lines");
+        this.lines = lines;
+    }
+
+    /**
+     * Lines with the requested quantities that could not be sold.
+     */
+    public List<Sale> getLines() {
+        return lines;
+    }
+}
@@ -0,0 +1,195 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.mappers.ReservationRowMapper;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.Reservation;
+import bg.startit.products.model.Sale;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Access Reservation data via JDBC. Every change of a reservation and of the stock it holds is one transaction.
+ */
+@Repository
+public class ReservationDao {
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private SaleDao saleDao;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Autowired
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Autowired
+    public void setSaleDao(final SaleDao saleDao) {
+
+        this.saleDao = saleDao;
+    }
+
+    /**
+     * Take up to quantity items of a product out of stock and hold them until expires, at their current price.
+     *
+     * @return the reservation with the quantity actually held, null if the product does not exist or is sold out
+     */
+    public Reservation reserve(Long productId, Integer productType, Long quantity, LocalDateTime expires) {
+
+        final String query = "INSERT INTO RESERVATION (PRODUCT_ID, PRODUCT_TYPE, QUANTITY, PRICE, EXPIRES)" +
+                " VALUES (:product_id, :product_type, :quantity, :price, :expires)";
+
+        try {
+            return transactionTemplate.execute(status -> {
+                final Sale taken = saleDao.takeStock(new Sale(productId, quantity, null, productType, null));
+                if (taken == null) {
+                    return null;
+                }
+
+                Reservation reservation = new Reservation(productId, productType, taken.getNb_sold(),
+                        taken.getPrice(), expires);
+
+                KeyHolder keyHolder = new GeneratedKeyHolder();
+                namedParameterJdbcTemplate.update(query, new BeanPropertySqlParameterSource(reservation),
+                        keyHolder, new String[]{"ID"});
+                reservation.setId(keyHolder.getKey().longValue());
+
+                return reservation;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Sell the units of a reservation not expired yet, recording the sale and deleting the reservation.
+     *
+     * @return the created sale, null if there is no such reservation or it expired
+     */
+    public Sale confirm(Long id, LocalDateTime saleDate) {
+
+        final String query = "DELETE FROM RESERVATION WHERE ID = :id AND EXPIRES > :now";
+
+        try {
+            return transactionTemplate.execute(status -> {
+                final Reservation reservation = findById(id);
+                if (reservation == null) {
+                    return null;
+                }
+
+                MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+                mapSqlParameterSource.addValue("id", id);
+                mapSqlParameterSource.addValue("now", saleDate);
+
+                // Whoever deletes the reservation first, confirm or release, owns its units
+                if (namedParameterJdbcTemplate.update(query, mapSqlParameterSource) != 1) {
+                    return null;
+                }
+
+                Sale sale = new Sale(reservation.getProduct_id(), reservation.getQuantity(), saleDate,
+                        reservation.getProduct_type(), reservation.getPrice());
+
+                saleDao.insert(Collections.singletonList(sale));
+
+                return sale;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Put the units of a reservation back in stock and delete it, whether it expired or not.
+     *
+     * @return false if there is no such reservation or the database is not available
+     */
+    public boolean release(Long id) {
+
+        final String query = "DELETE FROM RESERVATION WHERE ID = :id";
+
+        try {
+            return transactionTemplate.execute(status -> {
+                final Reservation reservation = findById(id);
+                if (reservation == null) {
+                    return false;
+                }
+
+                MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+                mapSqlParameterSource.addValue("id", id);
+
+                if (namedParameterJdbcTemplate.update(query, mapSqlParameterSource) != 1) {
+                    return false;
+                }
+
+                // Nothing to put back if the product was deleted meanwhile
+                final String restockQuery = "UPDATE " + ProductType.of(reservation.getProduct_type()).getTable() +
+                        " SET QUANTITY = QUANTITY + :quantity, VERSION = VERSION + 1 WHERE ID = :id";
+
+                MapSqlParameterSource restockParameters = new MapSqlParameterSource();
+                restockParameters.addValue("id", reservation.getProduct_id());
+                restockParameters.addValue("quantity", reservation.getQuantity());
+
+                namedParameterJdbcTemplate.update(restockQuery, restockParameters);
+
+                return true;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    public Reservation findById(Long id) {
+
+        final String query = "SELECT * FROM RESERVATION WHERE ID = :id";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("id", id);
+
+        return DataAccessUtils.singleResult(
+                namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new ReservationRowMapper()));
+    }
+
+    /**
+     * All reservations, read once on startup to schedule their expiry.
+     */
+    public List<Reservation> findAll() {
+
+        final String query = "SELECT * FROM RESERVATION";
+
+        try {
+            return namedParameterJdbcTemplate.query(query, new ReservationRowMapper());
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return new ArrayList<>();
+    }
+}
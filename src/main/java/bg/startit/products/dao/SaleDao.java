@@ -2,46 +2,183 @@ package bg.startit.products.dao;
 
 import bg.startit.products.mappers.CarRowMapper;
 import bg.startit.products.mappers.SaleRowMapper;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.ReportGrouping;
 import bg.startit.products.model.Sale;
+import bg.startit.products.model.SalesTotals;
+import bg.startit.products.model.TopProduct;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSourceUtils;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
 
 /**
  * Access Sale data via JDBC.
  */
 @Repository
 public class SaleDao {
+
+    private static final String DECREMENT_STOCK_QUERY = " SET QUANTITY = QUANTITY - :quantity, VERSION = VERSION + 1" +
+            " WHERE ID = :id AND QUANTITY >= :quantity";
+
+    private static final String INSERT_QUERY = "INSERT INTO " + SalePartitionDao.SALE + " (PRODUCT_ID, NB_SOLD, SALE_DATE, PRODUCT_TYPE, PRICE)" +
+            " VALUES (:product_id, :nb_sold, :sale_date, :product_type, :price)";
+
     /*
      *  Use basic JDBC operations using named parameters instead of '?' placeholders
      */
     private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
+    private TransactionTemplate transactionTemplate;
+
+    private SaleRollupDao saleRollupDao;
+
+    private SalePartitionDao salePartitionDao;
+
+    private ExportDao exportDao;
+
     @Autowired
     public void setDataSource(final DataSource dataSource) {
 
         namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
     }
 
+    @Autowired
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Autowired
+    public void setSaleRollupDao(final SaleRollupDao saleRollupDao) {
+
+        this.saleRollupDao = saleRollupDao;
+    }
+
+    @Autowired
+    public void setSalePartitionDao(final SalePartitionDao salePartitionDao) {
+
+        this.salePartitionDao = salePartitionDao;
+    }
+
+    @Autowired
+    public void setExportDao(final ExportDao exportDao) {
+
+        this.exportDao = exportDao;
+    }
+
     public boolean create(Sale sale) {
 
-        final String query = "INSERT INTO SALE (PRODUCT_ID, NB_SOLD, SALE_DATE, PRODUCT_TYPE, PRICE)" +
-                " VALUES (:product_id, :nb_sold, :sale_date, :product_type, :price)";
+        try {
+            transactionTemplate.execute(status -> {
+                insert(Collections.singletonList(sale));
+                return null;
+            });
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    /**
+     * Insert sales in the partitions of their months and add them to the daily totals of SALE_ROLLUP,
+     * in the transaction of the caller.
+     */
+    void insert(List<Sale> sales) {
+
+        SortedMap<String, List<Sale>> partitions = new TreeMap<>();
+        for (Sale sale : sales) {
+            partitions.computeIfAbsent(salePartitionDao.table(sale.getSale_date()), table -> new ArrayList<>()).add(sale);
+        }
+
+        for (Map.Entry<String, List<Sale>> partition : partitions.entrySet()) {
+            namedParameterJdbcTemplate.batchUpdate(INSERT_QUERY.replace(SalePartitionDao.SALE, partition.getKey()),
+                    SqlParameterSourceUtils.createBatch(partition.getValue()));
+        }
+
+        saleRollupDao.add(sales);
+    }
+
+    /**
+     * Take up to nb_sold items of the product out of stock and record the sale, in one transaction.
+     * Concurrent sales of the same product never sell more than the stock.
+     *
+     * @return the created sale with the quantity actually sold and the price charged for it,
+     * null if the product does not exist or is sold out
+     */
+    public Sale sell(Sale sale) {
 
         try {
-            // If query has updated one row, return true
-            if (namedParameterJdbcTemplate.update(
-                    query,
-                    new BeanPropertySqlParameterSource(sale)) == 1) {
-                return true;
-            }
+            return transactionTemplate.execute(status -> {
+                final Sale sold = takeStockInTransaction(sale);
+
+                if (sold != null) {
+                    insert(Collections.singletonList(sold));
+                }
+
+                return sold;
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Take up to nb_sold items of the product out of stock like {@link #sell}, without recording the sale.
+     *
+     * @return the sale to record with the quantity taken and its price, null if the product does not exist or is sold out
+     */
+    public Sale takeStock(Sale sale) {
+
+        try {
+            return transactionTemplate.execute(status -> takeStockInTransaction(sale));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    /**
+     * Put quantity items of a product back in stock, e.g. items taken by {@link #takeStock} and not sold.
+     *
+     * @return false if the product does not exist any more or the database is not available
+     */
+    public boolean restock(ProductType productType, Long productId, long quantity) {
+
+        final String query = "UPDATE " + productType.getTable() +
+                " SET QUANTITY = QUANTITY + :quantity, VERSION = VERSION + 1 WHERE ID = :id";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("id", productId);
+        mapSqlParameterSource.addValue("quantity", quantity);
+
+        try {
+            return namedParameterJdbcTemplate.update(query, mapSqlParameterSource) == 1;
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -49,49 +186,251 @@ public class SaleDao {
         return false;
     }
 
-    public Long getCountInDateRange(LocalDateTime start, LocalDateTime end) {
+    private Sale takeStockInTransaction(Sale sale) {
+
+        final String table = ProductType.of(sale.getProduct_type()).getTable();
+
+        long quantity = sale.getNb_sold();
+
+        // Only take what is left, when less than requested sell the rest of the stock
+        while (!decrementStock(table, sale.getProduct_id(), quantity)) {
+            final Long left = getStock(table, sale.getProduct_id());
+            if (left == null || left <= 0) {
+                return null;
+            }
+            quantity = Math.min(quantity, left);
+        }
+
+        // The row is locked by the update until commit, so the price is the one of the sold items
+        final BigDecimal price = getUnitPrice(table, sale.getProduct_id());
+
+        return new Sale(sale.getProduct_id(), quantity, sale.getSale_date(), sale.getProduct_type(),
+                price.multiply(BigDecimal.valueOf(quantity)));
+    }
+
+    /**
+     * Sell all lines of an order in one transaction, with one batch of stock decrements per product table
+     * and one batch of sale inserts. Lines of the same product are summed.
+     *
+     * @param lines product_id, product_type and nb_sold of every line
+     * @return the created sales with the price charged, one per product, null on database errors
+     * @throws InsufficientStockException if a product does not exist or has less stock than ordered,
+     *                                    nothing is sold then
+     */
+    public List<Sale> sellAll(List<Sale> lines, LocalDateTime saleDate) {
+
+        // Quantity by id for every table, iterated by type and id so that concurrent orders lock rows in the same order
+        Map<ProductType, SortedMap<Long, Long>> quantities = new EnumMap<>(ProductType.class);
+        for (Sale line : lines) {
+            quantities.computeIfAbsent(ProductType.of(line.getProduct_type()), productType -> new TreeMap<>())
+                    .merge(line.getProduct_id(), line.getNb_sold(), Long::sum);
+        }
+
+        try {
+            return transactionTemplate.execute(status -> {
+                List<Sale> sales = new ArrayList<>();
+                List<Sale> unavailable = new ArrayList<>();
+
+                for (Map.Entry<ProductType, SortedMap<Long, Long>> entry : quantities.entrySet()) {
+                    final ProductType productType = entry.getKey();
+                    final List<Long> ids = new ArrayList<>(entry.getValue().keySet());
+
+                    SqlParameterSource[] decrements = entry.getValue().entrySet().stream()
+                            .map(quantity -> new MapSqlParameterSource()
+                                    .addValue("id", quantity.getKey())
+                                    .addValue("quantity", quantity.getValue()))
+                            .toArray(SqlParameterSource[]::new);
+
+                    // Every row is locked by its update, in the order of the batch
+                    final int[] updateCounts = namedParameterJdbcTemplate.batchUpdate(
+                            "UPDATE " + productType.getTable() + DECREMENT_STOCK_QUERY, decrements);
+
+                    final Map<Long, BigDecimal> prices = getUnitPrices(productType.getTable(), ids);
+
+                    for (int i = 0; i < ids.size(); i++) {
+                        final Long id = ids.get(i);
+                        final Long quantity = entry.getValue().get(id);
+
+                        // A driver not reporting the count of every row can not prove the stock was enough
+                        if (updateCounts[i] != 1) {
+                            unavailable.add(new Sale(id, quantity, saleDate, productType.getCode(), null));
+                        } else {
+                            sales.add(new Sale(id, quantity, saleDate, productType.getCode(),
+                                    prices.get(id).multiply(BigDecimal.valueOf(quantity))));
+                        }
+                    }
+                }
+
+                if (!unavailable.isEmpty()) {
+                    // Roll back the decrements already made
+                    throw new InsufficientStockException(unavailable);
+                }
+
+                insert(sales);
+
+                return sales;
+            });
+        } catch (InsufficientStockException e) {
+            throw e;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    private Map<Long, BigDecimal> getUnitPrices(String table, List<Long> ids) {
+
+        final String query = "SELECT ID, PRICE FROM " + table + " WHERE ID IN (:ids)";
+
+        Map<Long, BigDecimal> prices = new HashMap<>();
+
+        for (List<Long> chunk : Chunks.of(ids, Chunks.IN_LIST_SIZE)) {
+            MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+            mapSqlParameterSource.addValue("ids", Chunks.padded(chunk));
+
+            namedParameterJdbcTemplate.query(query, mapSqlParameterSource,
+                    resultSet -> {
+                        prices.put(resultSet.getLong(1), resultSet.getBigDecimal(2));
+                    });
+        }
+
+        return prices;
+    }
+
+    /**
+     * Decrease the stock only if there is enough of it, as one atomic statement.
+     */
+    private boolean decrementStock(String table, Long productId, long quantity) {
+
+        final String query = "UPDATE " + table + DECREMENT_STOCK_QUERY;
 
-        final String query = "SELECT SUM(NB_SOLD) FROM SALE WHERE SALE.SALE_DATE BETWEEN :start AND :end";
-        // Use map to store query parameters
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
-        mapSqlParameterSource.addValue("start", start);
-        mapSqlParameterSource.addValue("end", end);
+        mapSqlParameterSource.addValue("id", productId);
+        mapSqlParameterSource.addValue("quantity", quantity);
+
+        return namedParameterJdbcTemplate.update(query, mapSqlParameterSource) == 1;
+    }
+
+    private Long getStock(String table, Long productId) {
 
-        Long countAllInDateRange = 0L;
+        final String query = "SELECT QUANTITY FROM " + table + " WHERE ID = :id";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("id", productId);
+
+        return DataAccessUtils.singleResult(
+                namedParameterJdbcTemplate.queryForList(query, mapSqlParameterSource, Long.class));
+    }
+
+    private BigDecimal getUnitPrice(String table, Long productId) {
+
+        final String query = "SELECT PRICE FROM " + table + " WHERE ID = :id";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("id", productId);
+
+        return namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, BigDecimal.class);
+    }
+
+    /**
+     * Totals of the sales from start to end, both included, see {@link SaleRollupDao#getTotalsInDateRange}.
+     */
+    public List<SalesTotals> getTotalsInDateRange(LocalDateTime start, LocalDateTime end, Set<ReportGrouping> groupBy) {
+
+        return saleRollupDao.getTotalsInDateRange(start, end, groupBy);
+    }
+
+    /**
+     * Totals of the sales from start to end, end included only if endIncluded.
+     */
+    public List<SalesTotals> getTotalsInDateRange(LocalDateTime start, LocalDateTime end, boolean endIncluded,
+                                                  Set<ReportGrouping> groupBy) {
+
+        return saleRollupDao.getTotalsInDateRange(start, end, endIncluded, groupBy);
+    }
+
+    /**
+     * Top n products of productType by units sold since start.
+     *
+     * @return null if the database is not available
+     */
+    public List<TopProduct> findTopSellers(ProductType productType, LocalDateTime start, int n) {
+
+        final String query = "SELECT PRODUCT_ID, SUM(NB_SOLD) FROM (" + salePartitionDao.union(
+                "SELECT PRODUCT_ID, NB_SOLD FROM " + SalePartitionDao.SALE +
+                        " WHERE PRODUCT_TYPE = :product_type AND SALE_DATE >= :start", start, null) + ") ALL_SALES" +
+                " GROUP BY PRODUCT_ID ORDER BY SUM(NB_SOLD) DESC, PRODUCT_ID FETCH FIRST :n ROWS ONLY";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("product_type", productType.getCode());
+        mapSqlParameterSource.addValue("start", start);
+        mapSqlParameterSource.addValue("n", n);
 
         try {
-            // https://docs.spring.io/spring-framework/docs/current/javadoc-api/org/springframework/jdbc/core/namedparam/NamedParameterJdbcTemplate.html#queryForObject-java.lang.String-java.util.Map-java.lang.Class-
-            countAllInDateRange = namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, Long.class);
+            return namedParameterJdbcTemplate.query(query, mapSqlParameterSource,
+                    (resultSet, i) -> new TopProduct(resultSet.getLong(1), resultSet.getLong(2)));
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        return countAllInDateRange;
+        return null;
     }
 
-    public BigDecimal getSumAllMoneyInDateRange(LocalDateTime start, LocalDateTime end) {
+    /**
+     * Pass every sale since start to consumer, one row at a time.
+     *
+     * @return false if the database is not available
+     */
+    public boolean forEachSince(LocalDateTime start, Consumer<Sale> consumer) {
 
-        final String query = "SELECT SUM(PRICE) FROM SALE WHERE SALE.SALE_DATE BETWEEN :start AND :end";
+        final String query = salePartitionDao.union(
+                "SELECT * FROM " + SalePartitionDao.SALE + " WHERE SALE_DATE >= :start", start, null);
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("start", start);
-        mapSqlParameterSource.addValue("end", end);
 
-        BigDecimal sumAllMoneyInDateRange = BigDecimal.ZERO;
+        final SaleRowMapper saleRowMapper = new SaleRowMapper();
 
         try {
-            sumAllMoneyInDateRange = namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, BigDecimal.class);
+            namedParameterJdbcTemplate.query(query, mapSqlParameterSource,
+                    (RowCallbackHandler) resultSet -> consumer.accept(saleRowMapper.mapRow(resultSet, 0)));
+            return true;
         } catch (Exception e) {
             e.printStackTrace();
         }
 
-        return sumAllMoneyInDateRange;
+        return false;
+    }
+
+    /**
+     * Pass every sale from start to end, end excluded, to consumer in SALE_DATE order, one row at a time.
+     * The sales are read one day at a time, so the database sorts only the sales of a day.
+     * An exception thrown by consumer stops reading.
+     */
+    public void exportInRange(LocalDateTime start, LocalDateTime end, Consumer<Sale> consumer) {
+
+        LocalDateTime to;
+        for (LocalDateTime from = start; from.isBefore(end); from = to) {
+            final LocalDateTime nextDay = from.toLocalDate().plusDays(1).atStartOfDay();
+            to = nextDay.isBefore(end) ? nextDay : end;
+
+            final String query = salePartitionDao.union("SELECT * FROM " + SalePartitionDao.SALE +
+                    " WHERE SALE_DATE >= :start AND SALE_DATE < :end", from, to) + " ORDER BY SALE_DATE, SALE_ID";
+
+            MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+            mapSqlParameterSource.addValue("start", from);
+            mapSqlParameterSource.addValue("end", to);
+
+            exportDao.forEach(query, mapSqlParameterSource, new SaleRowMapper(), consumer);
+        }
     }
 
     // Required for testing
     public Sale findByDate(LocalDateTime sale_date) {
 
-        final String query = "SELECT * FROM SALE WHERE SALE_DATE = :sale_date";
+        final String query = salePartitionDao.union(
+                "SELECT * FROM " + SalePartitionDao.SALE + " WHERE SALE_DATE = :sale_date", sale_date, sale_date);
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("sale_date", sale_date);
@@ -0,0 +1,240 @@
+package bg.startit.products.dao;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Monthly partitions of table SALE.
+ * <p>
+ * On Oracle SALE is interval partitioned by month, see import_oracle.sql, and the database prunes the partitions
+ * of the queries itself. H2 has no partitions, so there the sales of every month are stored in a table SALE_yyyyMM
+ * and the queries of the DAOs are routed by {@link #union} to the tables of the months of their range.
+ * The tables of this month and the next are created ahead, outside of the transactions of the sales since H2 commits
+ * on every DDL statement. Sales of months without a table stay in SALE, which is queried always.
+ * <p>
+ * {@link #detach} moves a month out of SALE into table SALE_DETACHED_yyyyMM without copying its rows.
+ * Its totals in SALE_ROLLUP are rolled up again by the caller, see SaleService#detachPartition.
+ */
+@Repository
+public class SalePartitionDao {
+
+    /**
+     * Placeholder for the sales table in the queries passed to {@link #union}.
+     */
+    public static final String SALE = "{SALE}";
+
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+
+    private static final long MAINTENANCE_INTERVAL_HOURS = 1;
+
+    @Value("${products.sales.partitions.enabled:true}")
+    private boolean enabled;
+
+    private JdbcTemplate jdbcTemplate;
+
+    /**
+     * Months with their own table, only on H2.
+     */
+    private final NavigableSet<YearMonth> months = new ConcurrentSkipListSet<>();
+
+    private volatile boolean tables;
+
+    private volatile boolean loaded;
+
+    private ScheduledExecutorService maintainer;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @PostConstruct
+    public void start() {
+
+        if (!enabled) {
+            return;
+        }
+
+        maintainer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sale-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        maintainer.scheduleWithFixedDelay(this::createAhead, 0, MAINTENANCE_INTERVAL_HOURS, TimeUnit.HOURS);
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        if (maintainer != null) {
+            maintainer.shutdownNow();
+        }
+    }
+
+    /**
+     * Table to insert a sale of saleDate in.
+     */
+    public String table(LocalDateTime saleDate) {
+
+        load();
+
+        return tables && saleDate != null && months.contains(YearMonth.from(saleDate))
+                ? table(YearMonth.from(saleDate)) : "SALE";
+    }
+
+    /**
+     * Query over the sales from start to end, both included, null for no limit: query with {@link #SALE} replaced
+     * by every table with sales of these months, joined by UNION ALL. Every table is filtered by the conditions
+     * of query, so the rows of the union are usually grouped or aggregated by the caller.
+     */
+    public String union(String query, LocalDateTime start, LocalDateTime end) {
+
+        load();
+
+        List<String> queries = new ArrayList<>();
+        queries.add(query.replace(SALE, "SALE"));
+
+        if (tables && !months.isEmpty()) {
+            final YearMonth first = start == null ? months.first() : YearMonth.from(start);
+            final YearMonth last = end == null ? months.last() : YearMonth.from(end);
+
+            if (!first.isAfter(last)) {
+                for (YearMonth month : months.subSet(first, true, last, true)) {
+                    queries.add(query.replace(SALE, table(month)));
+                }
+            }
+        }
+
+        return String.join(" UNION ALL ", queries);
+    }
+
+    /**
+     * Move the sales of month out of SALE into table SALE_DETACHED_yyyyMM, by renaming the table of the month on H2
+     * and by exchanging the partition of the month with the new table on Oracle.
+     *
+     * @return false if month has no partition or the database is not available
+     */
+    public boolean detach(YearMonth month) {
+
+        if (!enabled) {
+            return false;
+        }
+
+        load();
+
+        final String detached = "SALE_DETACHED_" + month.format(SUFFIX);
+
+        try {
+            if (tables) {
+                // Route no more queries to the table before renaming it, queries already routed fail
+                if (!months.remove(month)) {
+                    return false;
+                }
+                jdbcTemplate.execute("ALTER TABLE " + table(month) + " RENAME TO " + detached);
+            } else {
+                final String partition = "DATE '" + month.atDay(1) + "'";
+                jdbcTemplate.execute("CREATE TABLE " + detached + " FOR EXCHANGE WITH TABLE SALE");
+                jdbcTemplate.execute("ALTER TABLE SALE EXCHANGE PARTITION FOR (" + partition + ")" +
+                        " WITH TABLE " + detached + " WITHOUT VALIDATION");
+                jdbcTemplate.execute("ALTER TABLE SALE DROP PARTITION FOR (" + partition + ")");
+            }
+            return true;
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    /**
+     * Find the monthly tables on H2 once the database is available.
+     */
+    private void load() {
+
+        if (loaded || !enabled) {
+            return;
+        }
+
+        synchronized (months) {
+            if (loaded) {
+                return;
+            }
+
+            try {
+                tables = "H2".equals(jdbcTemplate.execute(
+                        (ConnectionCallback<String>) connection -> connection.getMetaData().getDatabaseProductName()));
+
+                if (tables) {
+                    for (String table : jdbcTemplate.queryForList("SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES" +
+                            " WHERE TABLE_SCHEMA = SCHEMA() AND TABLE_NAME LIKE 'SALE\\_______'", String.class)) {
+                        final String suffix = table.substring("SALE_".length());
+                        if (suffix.chars().allMatch(Character::isDigit)) {
+                            months.add(YearMonth.parse(suffix, SUFFIX));
+                        }
+                    }
+                }
+
+                loaded = true;
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Create the tables of this month and the next on H2, so sales never wait for a table, with the indexes of SALE.
+     * Tables created before their indexes get them too.
+     */
+    private void createAhead() {
+
+        load();
+
+        if (!loaded || !tables) {
+            return;
+        }
+
+        final YearMonth now = YearMonth.now();
+
+        for (YearMonth month : new YearMonth[]{now, now.plusMonths(1)}) {
+            final String table = table(month);
+
+            try {
+                jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + table +
+                        " (SALE_ID BIGINT DEFAULT NEXT VALUE FOR SALE_ID_SEQ PRIMARY KEY," +
+                        " PRODUCT_ID BIGINT, NB_SOLD BIGINT, SALE_DATE DATETIME, PRODUCT_TYPE INT, PRICE DECIMAL," +
+                        " CHECK (SALE_DATE >= TIMESTAMP '" + month.atDay(1) + " 00:00:00'" +
+                        " AND SALE_DATE < TIMESTAMP '" + month.plusMonths(1).atDay(1) + " 00:00:00'))");
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_DATE_IDX ON " + table +
+                        " (SALE_DATE, PRODUCT_TYPE, PRODUCT_ID, NB_SOLD, PRICE)");
+                jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS " + table + "_PRODUCT_IDX ON " + table +
+                        " (PRODUCT_ID, PRODUCT_TYPE)");
+                months.add(month);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static String table(YearMonth month) {
+
+        return "SALE_" + month.format(SUFFIX);
+    }
+}
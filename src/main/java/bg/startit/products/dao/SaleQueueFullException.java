@@ -0,0 +1,11 @@
+package bg.startit.products.dao;
+
+/**
+ * Too many sales are waiting to be written by {@link SaleWriter}, the sale is not accepted.
+ */
+public class SaleQueueFullException extends RuntimeException {
+
+    public SaleQueueFullException() {
+        super("Too many sales waiting to be stored");
+    }
+}
@@ -0,0 +1,282 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.ReportGrouping;
+import bg.startit.products.model.Sale;
+import bg.startit.products.model.SalesTotals;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Daily totals of the sales by product in table SALE_ROLLUP, so reports read one row per day and product
+ * instead of every sale. Updated in the transaction of every sale insert, use {@link #rebuild} after sales
+ * are inserted or deleted directly in the database.
+ */
+@Repository
+public class SaleRollupDao {
+
+    private static final String UPDATE_QUERY = "UPDATE SALE_ROLLUP" +
+            " SET SALES = SALES + :sales, NB_SOLD = NB_SOLD + :nb_sold, PRICE = PRICE + :price," +
+            " MIN_PRICE = LEAST(MIN_PRICE, :min_price), MAX_PRICE = GREATEST(MAX_PRICE, :max_price)" +
+            " WHERE SALE_DAY = :sale_day AND PRODUCT_TYPE = :product_type AND PRODUCT_ID = :product_id";
+
+    private static final String INSERT_QUERY = "INSERT INTO SALE_ROLLUP" +
+            " (SALE_DAY, PRODUCT_TYPE, PRODUCT_ID, SALES, NB_SOLD, PRICE, MIN_PRICE, MAX_PRICE)" +
+            " VALUES (:sale_day, :product_type, :product_id, :sales, :nb_sold, :price, :min_price, :max_price)";
+
+    /**
+     * Keys in the order their rows are locked, the same for every transaction so none waits for another in a cycle.
+     */
+    private static final Comparator<Sale> KEY_ORDER = Comparator
+            .comparing((Sale sale) -> sale.getSale_date().toLocalDate())
+            .thenComparing(Sale::getProduct_type)
+            .thenComparing(Sale::getProduct_id);
+
+    /**
+     * Sales as totals of one sale each, the columns of SALE_ROLLUP.
+     */
+    private static final String SALES = "SELECT TRUNC(SALE_DATE) AS SALE_DAY, PRODUCT_TYPE, PRODUCT_ID," +
+            " 1 AS SALES, NB_SOLD, PRICE, PRICE AS MIN_PRICE, PRICE AS MAX_PRICE FROM " + SalePartitionDao.SALE;
+
+    /**
+     * Order of the groups of a report, by period, product type and product id.
+     */
+    public static final Comparator<SalesTotals> GROUP_ORDER = Comparator
+            .comparing(SalesTotals::getPeriod, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(SalesTotals::getProduct_type, Comparator.nullsFirst(Comparator.naturalOrder()))
+            .thenComparing(SalesTotals::getProduct_id, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private SalePartitionDao salePartitionDao;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Autowired
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Autowired
+    public void setSalePartitionDao(final SalePartitionDao salePartitionDao) {
+
+        this.salePartitionDao = salePartitionDao;
+    }
+
+    /**
+     * Add inserted sales to the totals of their days, in the transaction that inserts them.
+     * Sales of the same day and product are added with one statement.
+     */
+    public void add(Collection<Sale> sales) {
+
+        Map<Sale, MapSqlParameterSource> totals = new TreeMap<>(KEY_ORDER);
+
+        for (Sale sale : sales) {
+            final MapSqlParameterSource total = totals.computeIfAbsent(sale, key -> {
+                MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+                mapSqlParameterSource.addValue("sale_day", key.getSale_date().toLocalDate());
+                mapSqlParameterSource.addValue("product_type", key.getProduct_type());
+                mapSqlParameterSource.addValue("product_id", key.getProduct_id());
+                mapSqlParameterSource.addValue("sales", 0L);
+                mapSqlParameterSource.addValue("nb_sold", 0L);
+                mapSqlParameterSource.addValue("price", BigDecimal.ZERO);
+                mapSqlParameterSource.addValue("min_price", key.getPrice());
+                mapSqlParameterSource.addValue("max_price", key.getPrice());
+                return mapSqlParameterSource;
+            });
+
+            total.addValue("sales", (Long) total.getValue("sales") + 1);
+            total.addValue("nb_sold", (Long) total.getValue("nb_sold") + sale.getNb_sold());
+            total.addValue("price", ((BigDecimal) total.getValue("price")).add(sale.getPrice()));
+            total.addValue("min_price", sale.getPrice().min((BigDecimal) total.getValue("min_price")));
+            total.addValue("max_price", sale.getPrice().max((BigDecimal) total.getValue("max_price")));
+        }
+
+        for (MapSqlParameterSource total : totals.values()) {
+            if (namedParameterJdbcTemplate.update(UPDATE_QUERY, total) == 1) {
+                continue;
+            }
+
+            try {
+                namedParameterJdbcTemplate.update(INSERT_QUERY, total);
+            } catch (DuplicateKeyException e) {
+                // The first sale of the day was inserted concurrently, only the failed statement is rolled back
+                namedParameterJdbcTemplate.update(UPDATE_QUERY, total);
+            }
+        }
+    }
+
+    /**
+     * Compute the totals of the days from start to end, both included, again from table SALE.
+     *
+     * @return the number of totals by day and product written
+     */
+    public int rebuild(LocalDate start, LocalDate end) {
+
+        final String deleteQuery = "DELETE FROM SALE_ROLLUP WHERE SALE_DAY >= :start AND SALE_DAY < :end";
+        final String insertQuery = "INSERT INTO SALE_ROLLUP" +
+                " (SALE_DAY, PRODUCT_TYPE, PRODUCT_ID, SALES, NB_SOLD, PRICE, MIN_PRICE, MAX_PRICE)" +
+                " SELECT TRUNC(SALE_DATE), PRODUCT_TYPE, PRODUCT_ID, COUNT(*), SUM(NB_SOLD), SUM(PRICE), MIN(PRICE), MAX(PRICE)" +
+                " FROM (" + salePartitionDao.union("SELECT SALE_DATE, PRODUCT_TYPE, PRODUCT_ID, NB_SOLD, PRICE" +
+                        " FROM " + SalePartitionDao.SALE + " WHERE SALE_DATE >= :start AND SALE_DATE < :end",
+                start.atStartOfDay(), end.atStartOfDay()) + ") ALL_SALES" +
+                " GROUP BY TRUNC(SALE_DATE), PRODUCT_TYPE, PRODUCT_ID";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("start", start.atStartOfDay());
+        mapSqlParameterSource.addValue("end", end.plusDays(1).atStartOfDay());
+
+        return transactionTemplate.execute(status -> {
+            namedParameterJdbcTemplate.update(deleteQuery, mapSqlParameterSource);
+            return namedParameterJdbcTemplate.update(insertQuery, mapSqlParameterSource);
+        });
+    }
+
+    /**
+     * Totals of the sales from start to end, both included, by the groups of groupBy, in one aggregation.
+     * The whole days in between are read from the daily totals, only the sales of the days partly in the range
+     * from SALE. Days are summed to weeks and months here, which keeps the query the same on every database.
+     *
+     * @return the totals of every group ordered by period, product type and product id, one without groupBy,
+     * null if the database is not available
+     */
+    public List<SalesTotals> getTotalsInDateRange(LocalDateTime start, LocalDateTime end, Set<ReportGrouping> groupBy) {
+
+        return getTotalsInDateRange(start, end, true, groupBy);
+    }
+
+    /**
+     * Totals of the sales from start to end, end included only if endIncluded,
+     * see {@link #getTotalsInDateRange(LocalDateTime, LocalDateTime, Set)}.
+     */
+    public List<SalesTotals> getTotalsInDateRange(LocalDateTime start, LocalDateTime end, boolean endIncluded,
+                                                  Set<ReportGrouping> groupBy) {
+
+        final boolean byPeriod = groupBy.stream().anyMatch(ReportGrouping::isPeriod);
+        // A product id is unique only within its type
+        final boolean byProduct = groupBy.contains(ReportGrouping.PRODUCT_ID);
+        final boolean byType = byProduct || groupBy.contains(ReportGrouping.PRODUCT_TYPE);
+
+        List<String> columns = new ArrayList<>();
+        if (byPeriod) {
+            columns.add("SALE_DAY");
+        }
+        if (byType) {
+            columns.add("PRODUCT_TYPE");
+        }
+        if (byProduct) {
+            columns.add("PRODUCT_ID");
+        }
+
+        final LocalDate firstDay = start.toLocalTime().equals(LocalTime.MIDNIGHT)
+                ? start.toLocalDate() : start.toLocalDate().plusDays(1);
+        final LocalDate lastDay = end.toLocalDate();
+
+        final String endCondition = endIncluded ? "SALE_DATE <= :end" : "SALE_DATE < :end";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("start", start);
+        mapSqlParameterSource.addValue("end", end);
+
+        String sales;
+
+        if (firstDay.isBefore(lastDay)) {
+            // Whole days firstDay until lastDay excluded, the rest of the day of start and the day of end until end
+            sales = "SELECT SALE_DAY, PRODUCT_TYPE, PRODUCT_ID, SALES, NB_SOLD, PRICE, MIN_PRICE, MAX_PRICE" +
+                    " FROM SALE_ROLLUP WHERE SALE_DAY >= :first_day AND SALE_DAY < :last_day" +
+                    " UNION ALL " +
+                    salePartitionDao.union(SALES + " WHERE SALE_DATE >= :start AND SALE_DATE < :first_day_start",
+                            start, firstDay.atStartOfDay()) +
+                    " UNION ALL " +
+                    salePartitionDao.union(SALES + " WHERE SALE_DATE >= :last_day_start AND " + endCondition,
+                            lastDay.atStartOfDay(), end);
+
+            mapSqlParameterSource.addValue("first_day", firstDay);
+            mapSqlParameterSource.addValue("last_day", lastDay);
+            mapSqlParameterSource.addValue("first_day_start", firstDay.atStartOfDay());
+            mapSqlParameterSource.addValue("last_day_start", lastDay.atStartOfDay());
+        } else {
+            sales = salePartitionDao.union(SALES + " WHERE SALE_DATE >= :start AND " + endCondition, start, end);
+        }
+
+        final String groupColumns = String.join(", ", columns);
+
+        final String query = "SELECT " + (columns.isEmpty() ? "" : groupColumns + ", ") +
+                "SUM(SALES), SUM(NB_SOLD), SUM(PRICE), MIN(MIN_PRICE), MAX(MAX_PRICE) FROM (" + sales + ") ALL_SALES" +
+                (columns.isEmpty() ? "" : " GROUP BY " + groupColumns + " ORDER BY " + groupColumns);
+
+        Map<SalesTotals, SalesTotals> totals = new TreeMap<>(GROUP_ORDER);
+
+        try {
+            namedParameterJdbcTemplate.query(query, mapSqlParameterSource, resultSet -> {
+                int column = 1;
+
+                final LocalDate day = byPeriod ? resultSet.getTimestamp(column++).toLocalDateTime().toLocalDate() : null;
+                final Integer productType = byType ? resultSet.getInt(column++) : null;
+                final Long productId = byProduct ? resultSet.getLong(column++) : null;
+
+                final long count = resultSet.getLong(column++);
+                if (count == 0) {
+                    // No sales at all, the only row of an aggregation without groups
+                    return;
+                }
+
+                final SalesTotals group = new SalesTotals(period(day, groupBy), productType, productId);
+
+                totals.computeIfAbsent(group, key -> group).add(count, resultSet.getLong(column++),
+                        resultSet.getBigDecimal(column++), resultSet.getBigDecimal(column++),
+                        resultSet.getBigDecimal(column));
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+
+        if (columns.isEmpty() && totals.isEmpty()) {
+            return Collections.singletonList(new SalesTotals());
+        }
+
+        return new ArrayList<>(totals.values());
+    }
+
+    /**
+     * Start of the period of groupBy that day is in, null if not grouped by period.
+     */
+    private static LocalDate period(LocalDate day, Set<ReportGrouping> groupBy) {
+
+        if (groupBy.contains(ReportGrouping.MONTH)) {
+            return day.withDayOfMonth(1);
+        }
+        if (groupBy.contains(ReportGrouping.WEEK)) {
+            return day.with(DayOfWeek.MONDAY);
+        }
+
+        return day;
+    }
+}
@@ -0,0 +1,508 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.Sale;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.NonTransientDataAccessException;
+import org.springframework.dao.support.DataAccessUtils;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind of sales. A sale is appended to a local journal file and queued, and the caller continues at once.
+ * A background writer inserts the queued sales into SALE in batches, committing every batchSize sales
+ * or maxDelayMs after the first sale of a batch.
+ * <p>
+ * The sequence number of the last journaled sale of a batch is stored in SALE_JOURNAL in the same transaction,
+ * so after a crash of the process the journal is replayed on startup from the first sale not stored yet.
+ * Sales that can never be stored, e.g. violating a constraint, are set aside in the file journal.failed.
+ */
+@Repository
+public class SaleWriter {
+
+    private static final String CHECKPOINT_QUERY = "MERGE INTO SALE_JOURNAL" +
+            " USING (SELECT CAST(:name AS VARCHAR(200)) AS NAME FROM DUAL) JOURNAL ON (SALE_JOURNAL.NAME = JOURNAL.NAME)" +
+            " WHEN MATCHED THEN UPDATE SET LAST_SEQ = :seq" +
+            " WHEN NOT MATCHED THEN INSERT (NAME, LAST_SEQ) VALUES (JOURNAL.NAME, :seq)";
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    /**
+     * Attempts to store a batch failing with an error of its data, before its sales are stored one by one.
+     */
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Value("${products.sales.write-behind.enabled:false}")
+    private boolean enabled;
+
+    @Value("${products.sales.write-behind.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${products.sales.write-behind.batch-size:500}")
+    private int batchSize;
+
+    @Value("${products.sales.write-behind.max-delay-ms:50}")
+    private long maxDelayMillis;
+
+    @Value("${products.sales.write-behind.journal:./sales-journal.log}")
+    private String journalPath;
+
+    private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private TransactionTemplate transactionTemplate;
+
+    private SaleDao saleDao;
+
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+    /**
+     * Permits for the sales accepted but not stored yet.
+     */
+    private Semaphore capacity;
+
+    /**
+     * Name of the journal in SALE_JOURNAL, its absolute path.
+     */
+    private String journalName;
+
+    /**
+     * Sales that can never be stored, as journal lines, next to the journal.
+     */
+    private Path failedPath;
+
+    /**
+     * Guards the journal file and the sequence numbers, notified when a batch is stored.
+     */
+    private final Object journalLock = new Object();
+
+    private FileChannel journal;
+
+    private long lastAppendedSeq;
+
+    private long committedSeq;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    @Autowired
+    public void setDataSource(final DataSource dataSource) {
+
+        namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
+    }
+
+    @Autowired
+    public void setTransactionManager(final PlatformTransactionManager transactionManager) {
+
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Autowired
+    public void setSaleDao(final SaleDao saleDao) {
+
+        this.saleDao = saleDao;
+    }
+
+    public boolean isEnabled() {
+
+        return enabled;
+    }
+
+    /**
+     * Replay the sales of the journal not stored before the last shutdown or crash and start the writer.
+     */
+    @PostConstruct
+    public void start() throws IOException {
+
+        if (!enabled) {
+            return;
+        }
+
+        final Path path = Paths.get(journalPath).toAbsolutePath().normalize();
+        journalName = path.toString();
+        failedPath = Paths.get(journalName + ".failed");
+        Files.createDirectories(path.getParent());
+        capacity = new Semaphore(queueCapacity);
+
+        committedSeq = getCheckpoint();
+        lastAppendedSeq = committedSeq;
+
+        for (Entry entry : readJournal(path)) {
+            lastAppendedSeq = Math.max(lastAppendedSeq, entry.seq);
+            if (entry.seq > committedSeq) {
+                // Accepted before the crash, so not limited by the capacity
+                queue.add(entry);
+            }
+        }
+
+        journal = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (queue.isEmpty()) {
+            journal.truncate(0);
+        }
+
+        running = true;
+        writer = new Thread(this::run, "sale-writer");
+        writer.start();
+    }
+
+    /**
+     * Store the queued sales and stop the writer. Sales that can not be stored stay in the journal.
+     */
+    @PreDestroy
+    public void stop() throws InterruptedException, IOException {
+
+        if (writer == null) {
+            return;
+        }
+
+        running = false;
+        writer.join();
+
+        synchronized (journalLock) {
+            journal.close();
+        }
+    }
+
+    /**
+     * Reserve room for one sale, before taking its product out of stock.
+     *
+     * @return false if queueCapacity sales are waiting to be stored
+     */
+    public boolean reserve() {
+
+        return capacity.tryAcquire();
+    }
+
+    /**
+     * Give back room reserved for a sale that is not submitted.
+     */
+    public void release() {
+
+        capacity.release();
+    }
+
+    /**
+     * Journal and queue a sale.
+     *
+     * @return false if the journal could not be written, the sale is not accepted then
+     * @throws SaleQueueFullException if queueCapacity sales are waiting to be stored
+     */
+    public boolean submit(Sale sale) {
+
+        if (!reserve()) {
+            throw new SaleQueueFullException();
+        }
+
+        return submitReserved(sale);
+    }
+
+    /**
+     * Journal and queue a sale with room reserved by {@link #reserve()}.
+     *
+     * @return false if the journal could not be written, the sale is not accepted and the room is released then
+     */
+    public boolean submitReserved(Sale sale) {
+
+        synchronized (journalLock) {
+            final Entry entry = new Entry(lastAppendedSeq + 1, sale, true);
+
+            try {
+                // Written to the operating system before the sale is acknowledged, survives a crash of the process
+                journal.write(ByteBuffer.wrap(entry.toLine().getBytes(StandardCharsets.UTF_8)));
+            } catch (IOException e) {
+                e.printStackTrace();
+                capacity.release();
+                return false;
+            }
+
+            lastAppendedSeq = entry.seq;
+            queue.add(entry);
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait until every sale submitted so far is stored in SALE.
+     */
+    public void flush() throws InterruptedException {
+
+        synchronized (journalLock) {
+            final long seq = lastAppendedSeq;
+            while (running && committedSeq < seq) {
+                journalLock.wait();
+            }
+        }
+    }
+
+    private void run() {
+
+        List<Entry> batch = new ArrayList<>(batchSize);
+
+        try {
+            while (running || !queue.isEmpty()) {
+                final Entry first = queue.poll(maxDelayMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+
+                // Fill the batch until it is full or the first sale waited maxDelayMillis
+                final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+                while (batch.size() < batchSize) {
+                    final Entry next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                if (!write(batch)) {
+                    // Stopping while the database is not available, the rest is replayed from the journal
+                    return;
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (journalLock) {
+                journalLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Store batch with the checkpoint in one transaction, retrying until it succeeds.
+     * A batch failing MAX_ATTEMPTS times with an error of its data is stored sale by sale, see {@link #writeEach}.
+     *
+     * @return false if stopping before batch could be stored
+     */
+    private boolean write(List<Entry> batch) throws InterruptedException {
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                store(batch, batch);
+                committed(batch);
+                return true;
+            } catch (Exception e) {
+                // The sales are kept in the queue and in the journal
+                e.printStackTrace();
+                if (isPermanent(e) && attempt >= MAX_ATTEMPTS) {
+                    return writeEach(batch);
+                }
+            }
+
+            if (!running) {
+                return false;
+            }
+            Thread.sleep(RETRY_DELAY_MILLIS);
+        }
+    }
+
+    /**
+     * Store the sales of batch one by one, so a sale that can never be stored does not hold up the others.
+     * Such a sale is appended to the failed file and only the checkpoint is stored for it.
+     * Its stock was taken and its buyer was answered, so it is to be recorded by hand.
+     *
+     * @return false if stopping before batch could be stored
+     */
+    private boolean writeEach(List<Entry> batch) throws InterruptedException {
+
+        for (Entry entry : batch) {
+            final List<Entry> single = Collections.singletonList(entry);
+            List<Entry> sales = single;
+
+            while (true) {
+                try {
+                    store(sales, single);
+                    break;
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    if (isPermanent(e) && !sales.isEmpty() && fail(entry)) {
+                        sales = Collections.emptyList();
+                        continue;
+                    }
+                }
+
+                if (!running) {
+                    return false;
+                }
+                Thread.sleep(RETRY_DELAY_MILLIS);
+            }
+
+            committed(single);
+        }
+
+        return true;
+    }
+
+    /**
+     * Insert sales and store the sequence number of the last entry of batch as checkpoint, in one transaction.
+     */
+    private void store(List<Entry> sales, List<Entry> batch) {
+
+        MapSqlParameterSource checkpoint = new MapSqlParameterSource();
+        checkpoint.addValue("name", journalName);
+        checkpoint.addValue("seq", batch.get(batch.size() - 1).seq);
+
+        transactionTemplate.execute(status -> {
+            if (!sales.isEmpty()) {
+                saleDao.insert(sales.stream()
+                        .map(entry -> entry.sale)
+                        .collect(Collectors.toList()));
+            }
+            namedParameterJdbcTemplate.update(CHECKPOINT_QUERY, checkpoint);
+            return null;
+        });
+    }
+
+    /**
+     * Release the capacity of stored entries and wake up the callers of {@link #flush()}.
+     */
+    private void committed(List<Entry> entries) {
+
+        synchronized (journalLock) {
+            committedSeq = entries.get(entries.size() - 1).seq;
+
+            // Everything journaled is stored, start the journal over
+            if (committedSeq == lastAppendedSeq) {
+                try {
+                    journal.truncate(0);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+
+            // Before waking up flush, so room is free again when it returns
+            capacity.release((int) entries.stream().filter(entry -> entry.reserved).count());
+
+            journalLock.notifyAll();
+        }
+    }
+
+    /**
+     * Append entry to the failed file.
+     *
+     * @return false if the file could not be written, the entry is retried then
+     */
+    private boolean fail(Entry entry) {
+
+        try {
+            Files.write(failedPath, entry.toLine().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return false;
+    }
+
+    /**
+     * An error of the data of the sales, retrying does not fix it. A database that is not available is retried.
+     */
+    private static boolean isPermanent(Exception e) {
+
+        return e instanceof NonTransientDataAccessException && !(e instanceof DataAccessResourceFailureException);
+    }
+
+    private long getCheckpoint() {
+
+        final String query = "SELECT LAST_SEQ FROM SALE_JOURNAL WHERE NAME = :name";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("name", journalName);
+
+        final Long seq = DataAccessUtils.singleResult(
+                namedParameterJdbcTemplate.queryForList(query, mapSqlParameterSource, Long.class));
+
+        return seq == null ? 0 : seq;
+    }
+
+    private List<Entry> readJournal(Path path) throws IOException {
+
+        List<Entry> entries = new ArrayList<>();
+
+        if (!Files.exists(path)) {
+            return entries;
+        }
+
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            final Entry entry = Entry.parse(line);
+            // A line cut by the crash was never acknowledged
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+
+        return entries;
+    }
+
+    /**
+     * Journaled sale with its sequence number.
+     */
+    private static final class Entry {
+
+        private final long seq;
+        private final Sale sale;
+
+        /**
+         * Holds a permit of the capacity, false for sales replayed from the journal.
+         */
+        private final boolean reserved;
+
+        private Entry(long seq, Sale sale, boolean reserved) {
+            this.seq = seq;
+            this.sale = sale;
+            this.reserved = reserved;
+        }
+
+        private String toLine() {
+
+            return seq + "," + sale.getProduct_id() + "," + sale.getNb_sold() + "," + sale.getSale_date() + "," +
+                    sale.getProduct_type() + "," + sale.getPrice().toPlainString() + "\n";
+        }
+
+        private static Entry parse(String line) {
+
+            final String[] values = line.split(",");
+            if (values.length != 6) {
+                return null;
+            }
+
+            try {
+                return new Entry(Long.parseLong(values[0]), new Sale(Long.valueOf(values[1]), Long.valueOf(values[2]),
+                        LocalDateTime.parse(values[3]), Integer.valueOf(values[4]), new BigDecimal(values[5])), false);
+            } catch (RuntimeException e) {
+                return null;
+            }
+        }
+    }
+}
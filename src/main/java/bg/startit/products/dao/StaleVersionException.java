@@ -0,0 +1,21 @@
+package bg.startit.products.dao;
+
+/**
+ * A row was changed by someone else since the version the update is based on was read.
+ */
+public class StaleVersionException extends RuntimeException {
+
+    private final Long currentVersion;
+
+    public StaleVersionException(String table, Long id, Long version, Long currentVersion) {
+        super("Row " + id + " of " + table + " is no longer at version " + version);
+        this.currentVersion = currentVersion;
+    }
+
+    /**
+     * Version of the row when the update was refused.
+     */
+    public Long getCurrentVersion() {
+        return currentVersion;
+    }
+}
@@ -0,0 +1,98 @@
+package bg.startit.products.dao;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free stock of one product split in stripes, so buyers on different cores update different counters.
+ * A buyer takes from the stripe of its thread first and from the other stripes when it has not enough.
+ * A stripe never goes below zero, so no more than the units added are ever taken.
+ */
+class StripedStock {
+
+    /**
+     * Longs between two stripes, keeps every stripe on its own cache line.
+     */
+    private static final int PADDING = 16;
+
+    private final int stripes;
+
+    private final AtomicLongArray units;
+
+    StripedStock() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    StripedStock(int parallelism) {
+        this.stripes = Integer.highestOneBit(Math.max(1, parallelism - 1)) << 1;
+        this.units = new AtomicLongArray(stripes * PADDING);
+    }
+
+    /**
+     * Take up to quantity units.
+     *
+     * @return the units taken, less than quantity if there are not enough
+     */
+    long take(long quantity) {
+
+        final int first = stripe();
+        long taken = 0;
+
+        for (int i = 0; i < stripes && taken < quantity; i++) {
+            final int index = ((first + i) & (stripes - 1)) * PADDING;
+
+            long left = units.get(index);
+            while (left > 0) {
+                final long part = Math.min(left, quantity - taken);
+                if (units.compareAndSet(index, left, left - part)) {
+                    taken += part;
+                    break;
+                }
+                left = units.get(index);
+            }
+        }
+
+        return taken;
+    }
+
+    /**
+     * Add units spread over all stripes.
+     */
+    void add(long quantity) {
+
+        final long part = quantity / stripes;
+        final int first = stripe();
+
+        for (int i = 0; i < stripes; i++) {
+            final long share = i == 0 ? quantity - part * (stripes - 1) : part;
+            if (share > 0) {
+                units.getAndAdd(((first + i) & (stripes - 1)) * PADDING, share);
+            }
+        }
+    }
+
+    /**
+     * Take all units.
+     *
+     * @return the units taken
+     */
+    long drain() {
+
+        long drained = 0;
+
+        for (int i = 0; i < stripes; i++) {
+            drained += units.getAndSet(i * PADDING, 0);
+        }
+
+        return drained;
+    }
+
+    private int stripe() {
+
+        long id = Thread.currentThread().getId();
+        id ^= id >>> 16;
+        id *= 0x45d9f3b;
+        id ^= id >>> 16;
+
+        return (int) id & (stripes - 1);
+    }
+}
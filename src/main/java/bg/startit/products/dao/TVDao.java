@@ -2,22 +2,41 @@ package bg.startit.products.dao;
 
 import bg.startit.products.IStaff;
 import bg.startit.products.mappers.TVRowMapper;
+import bg.startit.products.mappers.ProductColumns;
+import bg.startit.products.model.BulkResult;
+import bg.startit.products.model.ColorMatch;
 import bg.startit.products.model.TV;
 import bg.startit.products.model.Product;
+import bg.startit.products.pagination.CountStrategy;
+import bg.startit.products.pagination.Cursor;
+import bg.startit.products.pagination.Keyset;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.support.DataAccessUtils;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
 import org.springframework.stereotype.Repository;
 
+import javax.annotation.PostConstruct;
 import javax.sql.DataSource;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Access TV data via JDBC.
@@ -30,15 +49,67 @@ public class TVDao implements IStaff {
      */
     private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
 
+    private CountDao countDao;
+
+    private BulkDao bulkDao;
+
+    private IdFilterDao idFilterDao;
+
+    private ColorDao colorDao;
+
+    private ExportDao exportDao;
+
     @Autowired
     public void setDataSource(final DataSource dataSource) {
 
         namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
     }
 
+    @Autowired
+    public void setCountDao(final CountDao countDao) {
+
+        this.countDao = countDao;
+    }
+
+    @Autowired
+    public void setBulkDao(final BulkDao bulkDao) {
+
+        this.bulkDao = bulkDao;
+    }
+
+    @Autowired
+    public void setIdFilterDao(final IdFilterDao idFilterDao) {
+
+        this.idFilterDao = idFilterDao;
+    }
+
+    @Autowired
+    public void setColorDao(final ColorDao colorDao) {
+
+        this.colorDao = colorDao;
+    }
+
+    @Autowired
+    public void setExportDao(final ExportDao exportDao) {
+
+        this.exportDao = exportDao;
+    }
+
+    @PostConstruct
+    public void registerIdFilter() {
+
+        idFilterDao.register("TV");
+    }
+
     @Override
     public Page<Product> getAll(Pageable pageable) {
 
+        return getAll(pageable, CountStrategy.NONE);
+    }
+
+    @Override
+    public Page<Product> getAll(Pageable pageable, CountStrategy countStrategy) {
+
         final String query = "SELECT * FROM TV OFFSET :offset ROWS FETCH NEXT :limit ROWS ONLY";
         // Add values via MapSqlParameterSource
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
@@ -49,19 +120,52 @@ public class TVDao implements IStaff {
 
         List<Product> productList = new ArrayList<>(tvList);
 
-        return new PageImpl<>(productList, pageable, productList.size());
+        return new PageImpl<>(productList, pageable,
+                countDao.count(countStrategy, "TV", "", mapSqlParameterSource, productList.size()));
     }
 
     @Override
     public Product findProduct(Long id) {
 
+        // Most missing ids are answered without querying the database
+        if (!idFilterDao.mightExist("TV", id)) {
+            return null;
+        }
+
         final String query = "SELECT * FROM TV WHERE ID = :id";
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("id", id);
 
         try {
-            return namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, new TVRowMapper());
+            // Empty result for a missing id instead of EmptyResultDataAccessException
+            return DataAccessUtils.singleResult(
+                    namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new TVRowMapper()));
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        return null;
+    }
+
+    @Override
+    public Product findProduct(Long id, Collection<String> fields) {
+
+        final Set<String> columns = ProductColumns.toColumns(fields);
+
+        if (!idFilterDao.mightExist("TV", id)) {
+            return null;
+        }
+
+        // Column names come from the whitelist in ProductColumns
+        final String query = "SELECT " + String.join(", ", columns) + " FROM TV WHERE ID = :id";
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("id", id);
+
+        try {
+            return DataAccessUtils.singleResult(
+                    namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new TVRowMapper(columns)));
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -69,27 +173,74 @@ public class TVDao implements IStaff {
         return null;
     }
 
+    @Override
+    public Map<Long, Product> findProducts(List<Long> ids) {
+
+        final String query = "SELECT * FROM TV WHERE ID IN (:ids)";
+
+        Map<Long, Product> found = new HashMap<>();
+
+        // Query only the ids that might exist
+        final List<Long> mightExist = ids.stream()
+                .filter(id -> idFilterDao.mightExist("TV", id))
+                .collect(Collectors.toList());
+
+        // Bind at most IN_LIST_SIZE ids per query
+        for (List<Long> chunk : Chunks.of(mightExist, Chunks.IN_LIST_SIZE)) {
+            MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+            mapSqlParameterSource.addValue("ids", Chunks.padded(chunk));
+
+            namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new TVRowMapper())
+                    .forEach(tv -> found.put(tv.getId(), tv));
+        }
+
+        // Keep the order of the caller
+        Map<Long, Product> productsById = new LinkedHashMap<>();
+        for (Long id : ids) {
+            final Product product = found.get(id);
+            if (product != null) {
+                productsById.put(id, product);
+            }
+        }
+
+        return productsById;
+    }
+
     @Override
     public Page<Product> findProduct(String color, Pageable pageable) {
-        // TODO implement for large lists https://www.baeldung.com/spring-jdbctemplate-in-list#large
+
+        return findProduct(color, ColorMatch.SUBSTRING, pageable, CountStrategy.NONE);
+    }
+
+    @Override
+    public Page<Product> findProduct(String color, ColorMatch match, Pageable pageable, CountStrategy countStrategy) {
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
-        mapSqlParameterSource.addValue("color", "%" + color + "%");
+        mapSqlParameterSource.addValue("color", colorDao.parameter(match, color));
         mapSqlParameterSource.addValue("limit", pageable.getPageSize());
         mapSqlParameterSource.addValue("offset", pageable.getPageNumber());
 
-        final String query = "SELECT * FROM TV WHERE COLOR LIKE :color ORDER BY PRICE DESC OFFSET :offset ROWS FETCH NEXT :limit ROWS ONLY";
+        // Range scan of the (COLOR_ID, PRICE DESC, ID DESC) index, no sort
+        final String where = colorDao.condition(match);
+        final String query = "SELECT * FROM TV WHERE " + where +
+                " ORDER BY PRICE DESC, ID DESC OFFSET :offset ROWS FETCH NEXT :limit ROWS ONLY";
 
         List<TV> tvList = namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new TVRowMapper());
 
         final List<Product> productList = new ArrayList<>(tvList);
 
-        return new PageImpl<>(productList, pageable, productList.size());
+        return new PageImpl<>(productList, pageable,
+                countDao.count(countStrategy, "TV", where, mapSqlParameterSource, productList.size()));
     }
 
     @Override
     public Page<Product> findProduct(BigDecimal price, Pageable pageable) {
-        // TODO implement for large lists https://www.baeldung.com/spring-jdbctemplate-in-list#large
+
+        return findProduct(price, pageable, CountStrategy.NONE);
+    }
+
+    @Override
+    public Page<Product> findProduct(BigDecimal price, Pageable pageable, CountStrategy countStrategy) {
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("price", price);
@@ -102,19 +253,72 @@ public class TVDao implements IStaff {
 
         final List<Product> productList = new ArrayList<>(tvList);
 
-        return new PageImpl<>(productList, pageable, productList.size());
+        return new PageImpl<>(productList, pageable,
+                countDao.count(countStrategy, "TV", "PRICE <= :price", mapSqlParameterSource, productList.size()));
+    }
+
+    @Override
+    public Slice<Product> getAll(Cursor cursor, int limit) {
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+
+        // Seek after the last returned ID instead of scanning and skipping the previous pages
+        final String query = "SELECT * FROM TV WHERE " + Keyset.afterId(cursor, limit, mapSqlParameterSource) +
+                Keyset.ORDER_BY_ID;
+
+        return Keyset.toSlice(namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new TVRowMapper()), limit);
+    }
+
+    @Override
+    public Slice<Product> findProduct(String color, ColorMatch match, Cursor cursor, int limit) {
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("color", colorDao.parameter(match, color));
+
+        final String query = "SELECT * FROM TV WHERE " + colorDao.condition(match) +
+                Keyset.afterPrice(cursor, limit, mapSqlParameterSource) + Keyset.ORDER_BY_PRICE;
+
+        return Keyset.toSlice(namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new TVRowMapper()), limit);
+    }
+
+    @Override
+    public Slice<Product> findProduct(BigDecimal price, Cursor cursor, int limit) {
+
+        MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
+        mapSqlParameterSource.addValue("price", price);
+
+        final String query = "SELECT * FROM TV WHERE PRICE <= :price" +
+                Keyset.afterPrice(cursor, limit, mapSqlParameterSource) + Keyset.ORDER_BY_PRICE;
+
+        return Keyset.toSlice(namedParameterJdbcTemplate.query(query, mapSqlParameterSource, new TVRowMapper()), limit);
+    }
+
+    @Override
+    public void exportAll(Consumer<Product> consumer) {
+
+        final String query = "SELECT * FROM TV ORDER BY ID";
+
+        exportDao.forEach(query, new TVRowMapper(), consumer);
     }
 
     @Override
     public String getColor(Long id) {
 
+        if (!idFilterDao.mightExist("TV", id)) {
+            return "";
+        }
+
         final String query = "SELECT COLOR FROM TV WHERE ID = :id";
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("id", id);
 
         try {
-            return namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, String.class);
+            final String color = DataAccessUtils.singleResult(
+                    namedParameterJdbcTemplate.queryForList(query, mapSqlParameterSource, String.class));
+            if (color != null) {
+                return color;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -125,13 +329,21 @@ public class TVDao implements IStaff {
     @Override
     public String getBrandName(Long id) {
 
+        if (!idFilterDao.mightExist("TV", id)) {
+            return "";
+        }
+
         final String query = "SELECT BRAND_NAME FROM TV WHERE ID = :id";
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("id", id);
 
         try {
-            return namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, String.class);
+            final String brandName = DataAccessUtils.singleResult(
+                    namedParameterJdbcTemplate.queryForList(query, mapSqlParameterSource, String.class));
+            if (brandName != null) {
+                return brandName;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -142,13 +354,21 @@ public class TVDao implements IStaff {
     @Override
     public BigDecimal getPrice(Long id) {
 
+        if (!idFilterDao.mightExist("TV", id)) {
+            return BigDecimal.ZERO;
+        }
+
         final String query = "SELECT PRICE FROM TV WHERE ID = :id";
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("id", id);
 
         try {
-            return namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, BigDecimal.class);
+            final BigDecimal price = DataAccessUtils.singleResult(
+                    namedParameterJdbcTemplate.queryForList(query, mapSqlParameterSource, BigDecimal.class));
+            if (price != null) {
+                return price;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -159,13 +379,21 @@ public class TVDao implements IStaff {
     @Override
     public Long getWeight(Long id) {
 
+        if (!idFilterDao.mightExist("TV", id)) {
+            return 0L;
+        }
+
         final String query = "SELECT WEIGHT FROM TV WHERE ID = :id";
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("id", id);
 
         try {
-            return namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, Long.class);
+            final Long weight = DataAccessUtils.singleResult(
+                    namedParameterJdbcTemplate.queryForList(query, mapSqlParameterSource, Long.class));
+            if (weight != null) {
+                return weight;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -176,13 +404,21 @@ public class TVDao implements IStaff {
     @Override
     public Long getLength(Long id) {
 
+        if (!idFilterDao.mightExist("TV", id)) {
+            return 0L;
+        }
+
         final String query = "SELECT LENGTH FROM TV WHERE ID = :id";
 
         MapSqlParameterSource mapSqlParameterSource = new MapSqlParameterSource();
         mapSqlParameterSource.addValue("id", id);
 
         try {
-            return namedParameterJdbcTemplate.queryForObject(query, mapSqlParameterSource, Long.class);
+            final Long length = DataAccessUtils.singleResult(
+                    namedParameterJdbcTemplate.queryForList(query, mapSqlParameterSource, Long.class));
+            if (length != null) {
+                return length;
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -195,13 +431,23 @@ public class TVDao implements IStaff {
 
         final TV tv = (TV) product;
 
-        String query = "INSERT INTO TV (BRAND_NAME, COLOR, PRICE, WEIGHT, LENGTH, QUANTITY)" +
-                " VALUES (:brand_name, :color, :price, :weight, :length, :quantity)";
+        String query = "INSERT INTO TV (BRAND_NAME, COLOR, COLOR_ID, PRICE, WEIGHT, LENGTH, QUANTITY)" +
+                " VALUES (:brand_name, :color, (SELECT ID FROM COLOR WHERE NAME = :color)," +
+                " :price, :weight, :length, :quantity)";
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
 
         try {
+            colorDao.ensureExists(tv.getColor());
+
             if (namedParameterJdbcTemplate.update(
                     query,
-                    new BeanPropertySqlParameterSource(tv)) == 1) {
+                    new BeanPropertySqlParameterSource(tv),
+                    keyHolder,
+                    new String[]{"ID"}) == 1) {
+                countDao.invalidate("TV");
+                tv.setId(IdFilterDao.generatedId(keyHolder));
+                idFilterDao.created("TV", tv.getId());
                 return true;
             }
         } catch (Exception e) {
@@ -216,22 +462,73 @@ public class TVDao implements IStaff {
 
         final TV tv = (TV) product;
 
-        String query = "UPDATE TV SET BRAND_NAME = :brand_name, COLOR = :color, PRICE = :price, " +
-                "WEIGHT = :weight, LENGTH = :length, QUANTITY = :quantity WHERE ID = :id";
+        String query = "UPDATE TV SET BRAND_NAME = :brand_name, COLOR = :color, " +
+                "COLOR_ID = (SELECT ID FROM COLOR WHERE NAME = :color), PRICE = :price, " +
+                "WEIGHT = :weight, LENGTH = :length, QUANTITY = :quantity, VERSION = VERSION + 1 " +
+                "WHERE ID = :id AND VERSION = COALESCE(:version, VERSION)";
+
+        final int updated;
 
         try {
-            if (namedParameterJdbcTemplate.update(
-                    query,
-                    new BeanPropertySqlParameterSource(tv)) == 1) {
-                return true;
-            }
+            colorDao.ensureExists(tv.getColor());
+
+            updated = namedParameterJdbcTemplate.update(query, new BeanPropertySqlParameterSource(tv));
         } catch (Exception e) {
             e.printStackTrace();
+            return false;
+        }
+
+        if (updated == 1) {
+            countDao.invalidate("TV");
+            return true;
+        }
+
+        // No row matched, because the row is at another version unless it does not exist
+        final TV current = tv.getVersion() == null
+                ? null : (TV) findProduct(tv.getId(), Collections.singleton("version"));
+        if (current != null) {
+            throw new StaleVersionException("TV", tv.getId(), tv.getVersion(), current.getVersion());
         }
 
         return false;
     }
 
+    @Override
+    public List<BulkResult> createAll(List<Product> products) {
+
+        String query = "INSERT INTO TV (BRAND_NAME, COLOR, COLOR_ID, PRICE, WEIGHT, LENGTH, QUANTITY)" +
+                " VALUES (:brand_name, :color, (SELECT ID FROM COLOR WHERE NAME = :color)," +
+                " :price, :weight, :length, :quantity)";
+
+        ensureColorsExist(products);
+
+        final List<BulkResult> results = bulkDao.batchUpdate(query, toSqlParameterSources(products), "ID");
+
+        countDao.invalidate("TV");
+        results.stream()
+                .filter(BulkResult::isSuccess)
+                .forEach(result -> idFilterDao.created("TV", result.getId()));
+
+        return results;
+    }
+
+    @Override
+    public List<BulkResult> updateAll(List<Product> products) {
+
+        String query = "UPDATE TV SET BRAND_NAME = :brand_name, COLOR = :color, " +
+                "COLOR_ID = (SELECT ID FROM COLOR WHERE NAME = :color), PRICE = :price, " +
+                "WEIGHT = :weight, LENGTH = :length, QUANTITY = :quantity, VERSION = VERSION + 1 " +
+                "WHERE ID = :id AND VERSION = COALESCE(:version, VERSION)";
+
+        ensureColorsExist(products);
+
+        final List<BulkResult> results = bulkDao.batchUpdate(query, toSqlParameterSources(products), null);
+
+        countDao.invalidate("TV");
+
+        return results;
+    }
+
     @Override
     public boolean delete(Long id) {
 
@@ -244,6 +541,8 @@ public class TVDao implements IStaff {
             if (namedParameterJdbcTemplate.update(
                     query,
                     mapSqlParameterSource) == 1) {
+                countDao.invalidate("TV");
+                idFilterDao.deleted("TV", id);
                 return true;
             }
         } catch (Exception e) {
@@ -252,4 +551,18 @@ public class TVDao implements IStaff {
 
         return false;
     }
+
+    private List<SqlParameterSource> toSqlParameterSources(List<Product> products) {
+
+        return products.stream()
+                .map(tv -> new BeanPropertySqlParameterSource((TV) tv))
+                .collect(Collectors.toList());
+    }
+
+    private void ensureColorsExist(List<Product> products) {
+
+        colorDao.ensureExists(products.stream()
+                .map(tv -> ((TV) tv).getColor())
+                .collect(Collectors.toSet()));
+    }
 }
@@ -1,5 +1,7 @@
 package bg.startit.products.dto.car;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /**
@@ -13,6 +15,10 @@ public class CarListDto
   private Integer         count;
   private Integer         total;
   private List<CarDto> content;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String          nextCursor;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private List<Long>      missing;
 
   public CarListDto(Integer pageNumber, Integer pageSize, Integer count, Integer total,
                     List<CarDto> content)
@@ -73,4 +79,24 @@ public class CarListDto
   {
     this.content = content;
   }
+
+  public String getNextCursor()
+  {
+    return nextCursor;
+  }
+
+  public void setNextCursor(String nextCursor)
+  {
+    this.nextCursor = nextCursor;
+  }
+
+  public List<Long> getMissing()
+  {
+    return missing;
+  }
+
+  public void setMissing(List<Long> missing)
+  {
+    this.missing = missing;
+  }
 }
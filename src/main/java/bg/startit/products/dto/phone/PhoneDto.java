@@ -1,10 +1,13 @@
 package bg.startit.products.dto.phone;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.math.BigDecimal;
 
 /**
- * DTO for Phone
+ * DTO for Phone. Fields not selected by a projection are null and omitted.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class PhoneDto {
 
     private Long id;
@@ -54,7 +57,7 @@ public class PhoneDto {
     }
 
     public String getPrice() {
-        return price + " lv.";
+        return price == null ? null : price + " lv.";
     }
 
     public void setPrice(BigDecimal price) {
@@ -62,7 +65,7 @@ public class PhoneDto {
     }
 
     public String getWeight() {
-        return weight + " kg.";
+        return weight == null ? null : weight + " kg.";
     }
 
     public void setWeight(Long weight) {
@@ -70,7 +73,7 @@ public class PhoneDto {
     }
 
     public String getLength() {
-        return length + " cm.";
+        return length == null ? null : length + " cm.";
     }
 
     public void setLength(Long length) {
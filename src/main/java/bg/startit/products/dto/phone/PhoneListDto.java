@@ -1,5 +1,7 @@
 package bg.startit.products.dto.phone;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
 /**
@@ -13,6 +15,10 @@ public class PhoneListDto
   private Integer         count;
   private Integer         total;
   private List<PhoneDto> content;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private String          nextCursor;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private List<Long>      missing;
 
   public PhoneListDto(Integer pageNumber, Integer pageSize, Integer count, Integer total,
                       List<PhoneDto> content)
@@ -73,4 +79,24 @@ public class PhoneListDto
   {
     this.content = content;
   }
+
+  public String getNextCursor()
+  {
+    return nextCursor;
+  }
+
+  public void setNextCursor(String nextCursor)
+  {
+    this.nextCursor = nextCursor;
+  }
+
+  public List<Long> getMissing()
+  {
+    return missing;
+  }
+
+  public void setMissing(List<Long> missing)
+  {
+    this.missing = missing;
+  }
 }
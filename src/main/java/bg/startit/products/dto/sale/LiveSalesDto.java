@@ -0,0 +1,94 @@
+package bg.startit.products.dto.sale;
+
+import bg.startit.products.model.SalesTotals;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * DTO for the live sales metrics of a window, overall and by product type
+ */
+public class LiveSalesDto
+{
+
+  private String            window;
+  private LocalDateTime     start;
+  private LocalDateTime     end;
+  private boolean           complete;
+  private SalesTotals       total;
+  private List<SalesTotals> groups;
+
+  public LiveSalesDto(String window, LocalDateTime start, LocalDateTime end, boolean complete,
+                      SalesTotals total, List<SalesTotals> groups)
+  {
+    this.window = window;
+    this.start = start;
+    this.end = end;
+    this.complete = complete;
+    this.total = total;
+    this.groups = groups;
+  }
+
+  public String getWindow()
+  {
+    return window;
+  }
+
+  public void setWindow(String window)
+  {
+    this.window = window;
+  }
+
+  public LocalDateTime getStart()
+  {
+    return start;
+  }
+
+  public void setStart(LocalDateTime start)
+  {
+    this.start = start;
+  }
+
+  public LocalDateTime getEnd()
+  {
+    return end;
+  }
+
+  public void setEnd(LocalDateTime end)
+  {
+    this.end = end;
+  }
+
+  /**
+   * False if sales before the start of the application may be missing, when they could not be read on startup.
+   */
+  public boolean isComplete()
+  {
+    return complete;
+  }
+
+  public void setComplete(boolean complete)
+  {
+    this.complete = complete;
+  }
+
+  public SalesTotals getTotal()
+  {
+    return total;
+  }
+
+  public void setTotal(SalesTotals total)
+  {
+    this.total = total;
+  }
+
+  public List<SalesTotals> getGroups()
+  {
+    return groups;
+  }
+
+  public void setGroups(List<SalesTotals> groups)
+  {
+    this.groups = groups;
+  }
+}
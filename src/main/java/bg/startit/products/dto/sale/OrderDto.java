@@ -0,0 +1,62 @@
+package bg.startit.products.dto.sale;
+
+import bg.startit.products.model.Sale;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * DTO for the result of an order
+ */
+public class OrderDto
+{
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private List<Sale>      sales;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private BigDecimal      total;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private List<Sale>      unavailable;
+
+  public OrderDto(List<Sale> sales, BigDecimal total)
+  {
+    this.sales = sales;
+    this.total = total;
+  }
+
+  public OrderDto(List<Sale> unavailable)
+  {
+    this.unavailable = unavailable;
+  }
+
+  public List<Sale> getSales()
+  {
+    return sales;
+  }
+
+  public void setSales(List<Sale> sales)
+  {
+    this.sales = sales;
+  }
+
+  public BigDecimal getTotal()
+  {
+    return total;
+  }
+
+  public void setTotal(BigDecimal total)
+  {
+    this.total = total;
+  }
+
+  public List<Sale> getUnavailable()
+  {
+    return unavailable;
+  }
+
+  public void setUnavailable(List<Sale> unavailable)
+  {
+    this.unavailable = unavailable;
+  }
+}
@@ -0,0 +1,83 @@
+package bg.startit.products.dto.sale;
+
+import bg.startit.products.model.ReportGrouping;
+import bg.startit.products.model.SalesTotals;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * DTO for a sales report, the totals of all sales in the range and of every group
+ */
+public class SalesReportDto
+{
+
+  private LocalDateTime       start;
+  private LocalDateTime       end;
+  private Set<ReportGrouping> group_by;
+  private SalesTotals         total;
+  @JsonInclude(JsonInclude.Include.NON_EMPTY)
+  private List<SalesTotals>   groups;
+
+  public SalesReportDto(LocalDateTime start, LocalDateTime end, Set<ReportGrouping> group_by,
+                        SalesTotals total, List<SalesTotals> groups)
+  {
+    this.start = start;
+    this.end = end;
+    this.group_by = group_by;
+    this.total = total;
+    this.groups = groups;
+  }
+
+  public LocalDateTime getStart()
+  {
+    return start;
+  }
+
+  public void setStart(LocalDateTime start)
+  {
+    this.start = start;
+  }
+
+  public LocalDateTime getEnd()
+  {
+    return end;
+  }
+
+  public void setEnd(LocalDateTime end)
+  {
+    this.end = end;
+  }
+
+  public Set<ReportGrouping> getGroup_by()
+  {
+    return group_by;
+  }
+
+  public void setGroup_by(Set<ReportGrouping> group_by)
+  {
+    this.group_by = group_by;
+  }
+
+  public SalesTotals getTotal()
+  {
+    return total;
+  }
+
+  public void setTotal(SalesTotals total)
+  {
+    this.total = total;
+  }
+
+  public List<SalesTotals> getGroups()
+  {
+    return groups;
+  }
+
+  public void setGroups(List<SalesTotals> groups)
+  {
+    this.groups = groups;
+  }
+}
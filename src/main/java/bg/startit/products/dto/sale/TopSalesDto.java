@@ -0,0 +1,82 @@
+package bg.startit.products.dto.sale;
+
+import bg.startit.products.model.TopProduct;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * DTO for the best sellers of a product type in a window
+ */
+public class TopSalesDto
+{
+
+  private String           window;
+  private Integer          product_type;
+  private boolean          exact;
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private Long             max_error;
+  private List<TopProduct> products;
+
+  public TopSalesDto(String window, Integer product_type, boolean exact, Long max_error, List<TopProduct> products)
+  {
+    this.window = window;
+    this.product_type = product_type;
+    this.exact = exact;
+    this.max_error = max_error;
+    this.products = products;
+  }
+
+  public String getWindow()
+  {
+    return window;
+  }
+
+  public void setWindow(String window)
+  {
+    this.window = window;
+  }
+
+  public Integer getProduct_type()
+  {
+    return product_type;
+  }
+
+  public void setProduct_type(Integer product_type)
+  {
+    this.product_type = product_type;
+  }
+
+  public boolean isExact()
+  {
+    return exact;
+  }
+
+  public void setExact(boolean exact)
+  {
+    this.exact = exact;
+  }
+
+  /**
+   * Units by which nb_sold of an estimate may exceed the units actually sold, null if exact.
+   */
+  public Long getMax_error()
+  {
+    return max_error;
+  }
+
+  public void setMax_error(Long max_error)
+  {
+    this.max_error = max_error;
+  }
+
+  public List<TopProduct> getProducts()
+  {
+    return products;
+  }
+
+  public void setProducts(List<TopProduct> products)
+  {
+    this.products = products;
+  }
+}
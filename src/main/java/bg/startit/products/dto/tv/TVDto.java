@@ -2,11 +2,14 @@ package bg.startit.products.dto.tv;
 
 import bg.startit.products.dao.TVDao;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.math.BigDecimal;
 
 /**
- * DTO for TV
+ * DTO for TV. Fields not selected by a projection are null and omitted.
  */
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public class TVDto {
 
     private Long id;
@@ -56,7 +59,7 @@ public class TVDto {
     }
 
     public String getPrice() {
-        return price + " lv.";
+        return price == null ? null : price + " lv.";
     }
 
     public void setPrice(BigDecimal price) {
@@ -64,7 +67,7 @@ public class TVDto {
     }
 
     public String getWeight() {
-        return weight + " kg.";
+        return weight == null ? null : weight + " kg.";
     }
 
     public void setWeight(Long weight) {
@@ -72,7 +75,7 @@ public class TVDto {
     }
 
     public String getLength() {
-        return length + " cm.";
+        return length == null ? null : length + " cm.";
     }
 
     public void setLength(Long length) {
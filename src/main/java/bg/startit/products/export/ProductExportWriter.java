@@ -0,0 +1,114 @@
+package bg.startit.products.export;
+
+import bg.startit.products.mappers.ProductColumns;
+import bg.startit.products.model.Product;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Write products one at a time as NDJSON or CSV, only the current row is held in memory.
+ */
+public class ProductExportWriter {
+
+    /**
+     * Keep the writer open and leave flushing to its buffer, instead of a network write per row.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+    private final ExportFormat format;
+
+    private final Writer writer;
+
+    private boolean headerWritten;
+
+    public ProductExportWriter(OutputStream outputStream, ExportFormat format) {
+        this.format = format;
+        this.writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write one product.
+     *
+     * @throws UncheckedIOException if the client disconnected, to stop reading the rows
+     */
+    public void write(Product product) {
+
+        try {
+            if (format == ExportFormat.NDJSON) {
+                OBJECT_MAPPER.writeValue(writer, product);
+            } else {
+                writeCsv(product);
+            }
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the CSV header if there were no rows, and the buffered rows.
+     */
+    public void finish() throws IOException {
+
+        if (format == ExportFormat.CSV && !headerWritten) {
+            writeCsvHeader();
+        }
+
+        writer.flush();
+    }
+
+    private void writeCsv(Product product) throws IOException {
+
+        if (!headerWritten) {
+            writeCsvHeader();
+        }
+
+        final JsonNode node = OBJECT_MAPPER.valueToTree(product);
+
+        String separator = "";
+        for (String field : ProductColumns.fields()) {
+            writer.write(separator);
+            final JsonNode value = node.get(field);
+            if (value != null && value.isBigDecimal()) {
+                // Plain notation, e.g. 10000 instead of 1E+4
+                writeCsvValue(value.decimalValue().toPlainString());
+            } else if (value != null && !value.isNull()) {
+                writeCsvValue(value.asText());
+            }
+            separator = ",";
+        }
+    }
+
+    private void writeCsvHeader() throws IOException {
+
+        writer.write(String.join(",", ProductColumns.fields()));
+        writer.write('\n');
+        headerWritten = true;
+    }
+
+    /**
+     * Quote values containing a separator, quote or line break, as in RFC 4180.
+     */
+    private void writeCsvValue(String value) throws IOException {
+
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+}
@@ -0,0 +1,86 @@
+package bg.startit.products.export;
+
+import bg.startit.products.model.Sale;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * One block of a binary sales export as arrays of the values of its columns, read by {@link SaleExportReader}.
+ * The arrays are reused for the next block, only the first {@link #size} values are of this block.
+ */
+public class SaleBlock {
+
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    final long[] saleIds;
+    final long[] saleDates;
+    final long[] productTypes;
+    final long[] productIds;
+    final long[] nbSold;
+    final long[] prices;
+
+    int priceScale;
+
+    int size;
+
+    SaleBlock(int capacity) {
+        saleIds = new long[capacity];
+        saleDates = new long[capacity];
+        productTypes = new long[capacity];
+        productIds = new long[capacity];
+        nbSold = new long[capacity];
+        prices = new long[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long[] getSaleIds() {
+        return saleIds;
+    }
+
+    /**
+     * Microseconds since 1970-01-01T00:00.
+     */
+    public long[] getSaleDates() {
+        return saleDates;
+    }
+
+    public long[] getProductTypes() {
+        return productTypes;
+    }
+
+    public long[] getProductIds() {
+        return productIds;
+    }
+
+    public long[] getNbSold() {
+        return nbSold;
+    }
+
+    /**
+     * Unscaled prices at {@link #getPriceScale()}.
+     */
+    public long[] getPrices() {
+        return prices;
+    }
+
+    public int getPriceScale() {
+        return priceScale;
+    }
+
+    /**
+     * Sale of row of this block.
+     */
+    public Sale getSale(int row) {
+
+        Sale sale = new Sale(productIds[row], nbSold[row], EPOCH.plus(saleDates[row], ChronoUnit.MICROS),
+                (int) productTypes[row], BigDecimal.valueOf(prices[row], priceScale));
+        sale.setSale_id(saleIds[row]);
+
+        return sale;
+    }
+}
@@ -0,0 +1,45 @@
+package bg.startit.products.export;
+
+/**
+ * Columns of the binary sales export, in the order they are written in every block, see {@link SaleExportWriter}.
+ */
+public enum SaleColumn {
+
+    SALE_ID(Encoding.DELTA),
+    SALE_DATE(Encoding.DELTA),
+    PRODUCT_TYPE(Encoding.VARINT),
+    PRODUCT_ID(Encoding.VARINT),
+    NB_SOLD(Encoding.VARINT),
+    PRICE(Encoding.DECIMAL);
+
+    /**
+     * How the values of a column are written, its ordinal is written in the header.
+     */
+    public enum Encoding {
+
+        /**
+         * Varint of the value.
+         */
+        VARINT,
+
+        /**
+         * Zigzag varint of the difference from the previous value of the block, the first from 0.
+         */
+        DELTA,
+
+        /**
+         * Scale of the block in one byte, then the zigzag varint of every unscaled value at that scale.
+         */
+        DECIMAL
+    }
+
+    private final Encoding encoding;
+
+    SaleColumn(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+}
@@ -0,0 +1,197 @@
+package bg.startit.products.export;
+
+import bg.startit.products.model.Sale;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Read a binary sales export written by {@link SaleExportWriter}, one block of columns at a time.
+ * Columns unknown to this reader are skipped, columns missing from the export are read as 0.
+ */
+public class SaleExportReader {
+
+    private final DataInputStream inputStream;
+
+    /**
+     * Known column at every position of the header, null if unknown.
+     */
+    private final SaleColumn[] columns;
+
+    private final SaleBlock block;
+
+    private byte[] bytes = new byte[64];
+
+    private boolean finished;
+
+    /**
+     * Read the header of the export.
+     *
+     * @throws IOException if inputStream is not a sales export of a supported version
+     */
+    public SaleExportReader(InputStream inputStream) throws IOException {
+
+        this.inputStream = new DataInputStream(new BufferedInputStream(inputStream, 64 * 1024));
+
+        final byte[] magic = new byte[SaleExportWriter.MAGIC.length];
+        this.inputStream.readFully(magic);
+        if (!Arrays.equals(magic, SaleExportWriter.MAGIC)) {
+            throw new IOException("Not a sales export");
+        }
+
+        final int version = this.inputStream.readUnsignedByte();
+        if (version != SaleExportWriter.VERSION) {
+            throw new IOException("Unsupported sales export version: " + version);
+        }
+
+        block = new SaleBlock((int) readVarint());
+
+        columns = new SaleColumn[(int) readVarint()];
+        for (int i = 0; i < columns.length; i++) {
+            final byte[] name = new byte[(int) readVarint()];
+            this.inputStream.readFully(name);
+            final int encoding = this.inputStream.readUnsignedByte();
+            columns[i] = find(new String(name, StandardCharsets.UTF_8), encoding);
+        }
+    }
+
+    /**
+     * Next block, null after the last one. The returned block is overwritten by the next call.
+     */
+    public SaleBlock readBlock() throws IOException {
+
+        if (finished) {
+            return null;
+        }
+
+        final int rows = (int) readVarint();
+        if (rows == 0) {
+            finished = true;
+            return null;
+        }
+        if (rows > block.saleIds.length) {
+            throw new IOException("Block of " + rows + " rows is larger than the header allows");
+        }
+
+        block.size = rows;
+        Arrays.fill(block.saleIds, 0, rows, 0L);
+        Arrays.fill(block.saleDates, 0, rows, 0L);
+        Arrays.fill(block.productTypes, 0, rows, 0L);
+        Arrays.fill(block.productIds, 0, rows, 0L);
+        Arrays.fill(block.nbSold, 0, rows, 0L);
+        Arrays.fill(block.prices, 0, rows, 0L);
+        block.priceScale = 0;
+
+        for (SaleColumn column : columns) {
+            final int length = (int) readVarint();
+            if (length > bytes.length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            inputStream.readFully(bytes, 0, length);
+
+            if (column != null) {
+                decode(column, rows);
+            }
+        }
+
+        return block;
+    }
+
+    /**
+     * Pass every sale of the remaining blocks to consumer.
+     */
+    public void forEach(Consumer<Sale> consumer) throws IOException {
+
+        for (SaleBlock saleBlock = readBlock(); saleBlock != null; saleBlock = readBlock()) {
+            for (int row = 0; row < saleBlock.size(); row++) {
+                consumer.accept(saleBlock.getSale(row));
+            }
+        }
+    }
+
+    private void decode(SaleColumn column, int rows) {
+
+        switch (column) {
+            case SALE_ID:
+                decodeDeltas(block.saleIds, rows);
+                break;
+            case SALE_DATE:
+                decodeDeltas(block.saleDates, rows);
+                break;
+            case PRODUCT_TYPE:
+                decodeVarints(block.productTypes, rows, 0, false);
+                break;
+            case PRODUCT_ID:
+                decodeVarints(block.productIds, rows, 0, false);
+                break;
+            case NB_SOLD:
+                decodeVarints(block.nbSold, rows, 0, false);
+                break;
+            case PRICE:
+                block.priceScale = bytes[0];
+                decodeVarints(block.prices, rows, 1, true);
+                break;
+        }
+    }
+
+    private void decodeDeltas(long[] values, int rows) {
+
+        decodeVarints(values, rows, 0, true);
+
+        for (int i = 1; i < rows; i++) {
+            values[i] += values[i - 1];
+        }
+    }
+
+    /**
+     * Decode rows varints of the column starting at position, zigzag encoded if zigzag.
+     */
+    private void decodeVarints(long[] values, int rows, int position, boolean zigzag) {
+
+        for (int i = 0; i < rows; i++) {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            values[i] = zigzag ? (value >>> 1) ^ -(value & 1) : value;
+        }
+    }
+
+    private long readVarint() throws IOException {
+
+        long value = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = inputStream.read();
+            if (b < 0) {
+                throw new EOFException("Sales export ends too early");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+
+        return value;
+    }
+
+    private static SaleColumn find(String name, int encoding) {
+
+        for (SaleColumn column : SaleColumn.values()) {
+            if (column.name().equals(name) && column.getEncoding().ordinal() == encoding) {
+                return column;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,241 @@
+package bg.startit.products.export;
+
+import bg.startit.products.model.Sale;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+
+/**
+ * Write sales as blocks of columns, only the current block is held in memory. Read them with {@link SaleExportReader}.
+ * <p>
+ * The header is the magic bytes SALE, the version, the rows per block, the number of columns and the name and
+ * {@link SaleColumn.Encoding} of every column. Every block is its number of rows, then every column as its length
+ * in bytes followed by its values, so a reader skips the columns it does not need. A block of 0 rows ends the stream.
+ * <p>
+ * Integers are varints, 7 bits per byte with the low bits first. SALE_DATE is in microseconds since 1970-01-01T00:00,
+ * without time zone as in the database. Missing values are written as 0.
+ */
+public class SaleExportWriter {
+
+    public static final String EXTENSION = "sales";
+
+    static final byte[] MAGIC = "SALE".getBytes(StandardCharsets.US_ASCII);
+
+    static final int VERSION = 1;
+
+    /**
+     * Rows per block, large enough for the varints of a column to compress well and small enough to stay in cache.
+     */
+    public static final int BLOCK_ROWS = 4096;
+
+    private final OutputStream outputStream;
+
+    private final int blockRows;
+
+    private final long[] saleIds;
+    private final long[] saleDates;
+    private final long[] productTypes;
+    private final long[] productIds;
+    private final long[] nbSold;
+    private final BigDecimal[] prices;
+
+    private int rows;
+
+    /**
+     * Values of the column being written, reused for every column.
+     */
+    private byte[] column = new byte[64];
+
+    private int columnLength;
+
+    private boolean headerWritten;
+
+    public SaleExportWriter(OutputStream outputStream) {
+        this(outputStream, BLOCK_ROWS);
+    }
+
+    public SaleExportWriter(OutputStream outputStream, int blockRows) {
+        this.outputStream = new BufferedOutputStream(outputStream, 64 * 1024);
+        this.blockRows = blockRows;
+        this.saleIds = new long[blockRows];
+        this.saleDates = new long[blockRows];
+        this.productTypes = new long[blockRows];
+        this.productIds = new long[blockRows];
+        this.nbSold = new long[blockRows];
+        this.prices = new BigDecimal[blockRows];
+    }
+
+    /**
+     * Write one sale, the block is written once it is full.
+     *
+     * @throws UncheckedIOException if the client disconnected, to stop reading the rows
+     */
+    public void write(Sale sale) {
+
+        saleIds[rows] = valueOf(sale.getSale_id());
+        saleDates[rows] = toMicros(sale.getSale_date());
+        productTypes[rows] = sale.getProduct_type() == null ? 0 : sale.getProduct_type();
+        productIds[rows] = valueOf(sale.getProduct_id());
+        nbSold[rows] = valueOf(sale.getNb_sold());
+        prices[rows] = sale.getPrice() == null ? BigDecimal.ZERO : sale.getPrice();
+        rows++;
+
+        if (rows == blockRows) {
+            try {
+                writeBlock();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Write the last block, the end of the stream and the buffered bytes.
+     */
+    public void finish() throws IOException {
+
+        if (rows > 0) {
+            writeBlock();
+        }
+
+        writeHeader();
+        writeVarint(outputStream, 0);
+        outputStream.flush();
+    }
+
+    private void writeHeader() throws IOException {
+
+        if (headerWritten) {
+            return;
+        }
+
+        outputStream.write(MAGIC);
+        outputStream.write(VERSION);
+        writeVarint(outputStream, blockRows);
+        writeVarint(outputStream, SaleColumn.values().length);
+        for (SaleColumn saleColumn : SaleColumn.values()) {
+            final byte[] name = saleColumn.name().getBytes(StandardCharsets.UTF_8);
+            writeVarint(outputStream, name.length);
+            outputStream.write(name);
+            outputStream.write(saleColumn.getEncoding().ordinal());
+        }
+        headerWritten = true;
+    }
+
+    private void writeBlock() throws IOException {
+
+        writeHeader();
+        writeVarint(outputStream, rows);
+
+        for (SaleColumn saleColumn : SaleColumn.values()) {
+            columnLength = 0;
+            switch (saleColumn) {
+                case SALE_ID:
+                    encodeDeltas(saleIds);
+                    break;
+                case SALE_DATE:
+                    encodeDeltas(saleDates);
+                    break;
+                case PRODUCT_TYPE:
+                    encodeValues(productTypes);
+                    break;
+                case PRODUCT_ID:
+                    encodeValues(productIds);
+                    break;
+                case NB_SOLD:
+                    encodeValues(nbSold);
+                    break;
+                case PRICE:
+                    encodePrices();
+                    break;
+            }
+            writeVarint(outputStream, columnLength);
+            outputStream.write(column, 0, columnLength);
+        }
+
+        rows = 0;
+    }
+
+    private void encodeValues(long[] values) {
+
+        for (int i = 0; i < rows; i++) {
+            append(values[i]);
+        }
+    }
+
+    private void encodeDeltas(long[] values) {
+
+        long previous = 0;
+        for (int i = 0; i < rows; i++) {
+            append(zigzag(values[i] - previous));
+            previous = values[i];
+        }
+    }
+
+    /**
+     * Every price of the block at the largest scale of the block, so no digit is lost.
+     */
+    private void encodePrices() {
+
+        int scale = 0;
+        for (int i = 0; i < rows; i++) {
+            scale = Math.max(scale, prices[i].scale());
+        }
+
+        ensureCapacity(1);
+        column[columnLength++] = (byte) scale;
+
+        for (int i = 0; i < rows; i++) {
+            append(zigzag(prices[i].setScale(scale).unscaledValue().longValueExact()));
+        }
+    }
+
+    private void append(long value) {
+
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            column[columnLength++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        column[columnLength++] = (byte) value;
+    }
+
+    private void ensureCapacity(int bytes) {
+
+        if (columnLength + bytes > column.length) {
+            column = Arrays.copyOf(column, Math.max(column.length * 2, columnLength + bytes));
+        }
+    }
+
+    private static void writeVarint(OutputStream outputStream, long value) throws IOException {
+
+        while ((value & ~0x7FL) != 0) {
+            outputStream.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        outputStream.write((int) value);
+    }
+
+    private static long zigzag(long value) {
+
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long valueOf(Long value) {
+
+        return value == null ? 0L : value;
+    }
+
+    private static long toMicros(LocalDateTime dateTime) {
+
+        return dateTime == null ? 0L
+                : ChronoUnit.MICROS.between(LocalDateTime.of(1970, 1, 1, 0, 0), dateTime);
+    }
+}
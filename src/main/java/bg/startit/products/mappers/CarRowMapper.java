@@ -3,30 +3,93 @@ package bg.startit.products.mappers;
 import bg.startit.products.model.Car;
 import org.springframework.jdbc.core.RowMapper;
 
-import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Set;
 
 /**
  * Convert db data for car to Car entity.
+ * Column indexes are resolved once per result set, so create one mapper per query.
  */
 public class CarRowMapper implements RowMapper<Car> {
 
     /**
-     * Convert row from table CAR to Car entity.
+     * Selected columns of a projection, null when all columns are selected.
+     */
+    private final Set<String> columns;
+
+    /**
+     * Result set the indexes are resolved for.
+     */
+    private ResultSet resultSet;
+
+    /**
+     * Index of every column in resultSet, 0 if not selected.
+     */
+    private int id;
+    private int brandName;
+    private int color;
+    private int price;
+    private int weight;
+    private int length;
+    private int quantity;
+    private int version;
+
+    public CarRowMapper() {
+        this(null);
+    }
+
+    public CarRowMapper(Set<String> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Convert row from table CAR to Car entity, columns not selected are left null.
      */
     @Override
     public Car mapRow(ResultSet resultSet, int i) throws SQLException {
+        if (resultSet != this.resultSet) {
+            resolveIndexes(resultSet);
+        }
+
         Car car = new Car();
 
-        car.setId(resultSet.getLong("ID"));
-        car.setBrand_name(resultSet.getString("BRAND_NAME"));
-        car.setColor(resultSet.getString("COLOR"));
-        car.setPrice(BigDecimal.valueOf(resultSet.getDouble("PRICE")));
-        car.setLength(resultSet.getLong("LENGTH"));
-        car.setWeight(resultSet.getLong("WEIGHT"));
-        car.setQuantity(resultSet.getLong("QUANTITY"));
+        car.setId(resultSet.getLong(id));
+        if (brandName > 0) {
+            car.setBrand_name(resultSet.getString(brandName));
+        }
+        if (color > 0) {
+            car.setColor(resultSet.getString(color));
+        }
+        if (price > 0) {
+            car.setPrice(ProductColumns.getPrice(resultSet, price));
+        }
+        if (weight > 0) {
+            car.setWeight(resultSet.getLong(weight));
+        }
+        if (length > 0) {
+            car.setLength(resultSet.getLong(length));
+        }
+        if (quantity > 0) {
+            car.setQuantity(resultSet.getLong(quantity));
+        }
+        if (version > 0) {
+            car.setVersion(resultSet.getLong(version));
+        }
 
         return car;
     }
+
+    private void resolveIndexes(ResultSet resultSet) throws SQLException {
+        this.resultSet = resultSet;
+
+        id = resultSet.findColumn("ID");
+        brandName = ProductColumns.indexOf(resultSet, columns, "BRAND_NAME");
+        color = ProductColumns.indexOf(resultSet, columns, "COLOR");
+        price = ProductColumns.indexOf(resultSet, columns, "PRICE");
+        weight = ProductColumns.indexOf(resultSet, columns, "WEIGHT");
+        length = ProductColumns.indexOf(resultSet, columns, "LENGTH");
+        quantity = ProductColumns.indexOf(resultSet, columns, "QUANTITY");
+        version = ProductColumns.indexOf(resultSet, columns, "VERSION");
+    }
 }
@@ -0,0 +1,28 @@
+package bg.startit.products.mappers;
+
+import bg.startit.products.model.IdempotentResponse;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+
+/**
+ * Convert db data for a stored response to IdempotentResponse entity.
+ */
+public class IdempotentResponseRowMapper implements RowMapper<IdempotentResponse> {
+
+    /**
+     * Convert row from table IDEMPOTENCY_KEY to IdempotentResponse entity.
+     */
+    @Override
+    public IdempotentResponse mapRow(ResultSet resultSet, int i) throws SQLException {
+
+        return new IdempotentResponse(
+                resultSet.getString("IDEMPOTENCY_KEY"),
+                resultSet.getString("REQUEST"),
+                resultSet.getInt("STATUS"),
+                resultSet.getString("BODY"),
+                resultSet.getObject("CREATED", LocalDateTime.class));
+    }
+}
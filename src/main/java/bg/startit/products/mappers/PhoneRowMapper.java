@@ -3,30 +3,93 @@ package bg.startit.products.mappers;
 import bg.startit.products.model.Phone;
 import org.springframework.jdbc.core.RowMapper;
 
-import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Set;
 
 /**
  * Convert db data for phone to Phone entity.
+ * Column indexes are resolved once per result set, so create one mapper per query.
  */
 public class PhoneRowMapper implements RowMapper<Phone> {
 
     /**
-     * Convert row from table PHONE to Car entity.
+     * Selected columns of a projection, null when all columns are selected.
+     */
+    private final Set<String> columns;
+
+    /**
+     * Result set the indexes are resolved for.
+     */
+    private ResultSet resultSet;
+
+    /**
+     * Index of every column in resultSet, 0 if not selected.
+     */
+    private int id;
+    private int brandName;
+    private int color;
+    private int price;
+    private int weight;
+    private int length;
+    private int quantity;
+    private int version;
+
+    public PhoneRowMapper() {
+        this(null);
+    }
+
+    public PhoneRowMapper(Set<String> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Convert row from table PHONE to Phone entity, columns not selected are left null.
      */
     @Override
     public Phone mapRow(ResultSet resultSet, int i) throws SQLException {
+        if (resultSet != this.resultSet) {
+            resolveIndexes(resultSet);
+        }
+
         Phone phone = new Phone();
 
-        phone.setId(resultSet.getLong("ID"));
-        phone.setBrand_name(resultSet.getString("BRAND_NAME"));
-        phone.setColor(resultSet.getString("COLOR"));
-        phone.setPrice(BigDecimal.valueOf(resultSet.getDouble("PRICE")));
-        phone.setLength(resultSet.getLong("LENGTH"));
-        phone.setWeight(resultSet.getLong("WEIGHT"));
-        phone.setQuantity(resultSet.getLong("QUANTITY"));
+        phone.setId(resultSet.getLong(id));
+        if (brandName > 0) {
+            phone.setBrand_name(resultSet.getString(brandName));
+        }
+        if (color > 0) {
+            phone.setColor(resultSet.getString(color));
+        }
+        if (price > 0) {
+            phone.setPrice(ProductColumns.getPrice(resultSet, price));
+        }
+        if (weight > 0) {
+            phone.setWeight(resultSet.getLong(weight));
+        }
+        if (length > 0) {
+            phone.setLength(resultSet.getLong(length));
+        }
+        if (quantity > 0) {
+            phone.setQuantity(resultSet.getLong(quantity));
+        }
+        if (version > 0) {
+            phone.setVersion(resultSet.getLong(version));
+        }
 
         return phone;
     }
+
+    private void resolveIndexes(ResultSet resultSet) throws SQLException {
+        this.resultSet = resultSet;
+
+        id = resultSet.findColumn("ID");
+        brandName = ProductColumns.indexOf(resultSet, columns, "BRAND_NAME");
+        color = ProductColumns.indexOf(resultSet, columns, "COLOR");
+        price = ProductColumns.indexOf(resultSet, columns, "PRICE");
+        weight = ProductColumns.indexOf(resultSet, columns, "WEIGHT");
+        length = ProductColumns.indexOf(resultSet, columns, "LENGTH");
+        quantity = ProductColumns.indexOf(resultSet, columns, "QUANTITY");
+        version = ProductColumns.indexOf(resultSet, columns, "VERSION");
+    }
 }
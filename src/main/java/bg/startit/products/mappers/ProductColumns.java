@@ -0,0 +1,86 @@
+package bg.startit.products.mappers;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Columns shared by the product tables CAR, PHONE and TV.
+ */
+public final class ProductColumns {
+
+    /**
+     * DTO field name to column name. Only these columns may be selected by a projection.
+     */
+    private static final Map<String, String> FIELD_TO_COLUMN;
+
+    static {
+        Map<String, String> fieldToColumn = new LinkedHashMap<>();
+        fieldToColumn.put("id", "ID");
+        fieldToColumn.put("brand_name", "BRAND_NAME");
+        fieldToColumn.put("color", "COLOR");
+        fieldToColumn.put("price", "PRICE");
+        fieldToColumn.put("weight", "WEIGHT");
+        fieldToColumn.put("length", "LENGTH");
+        fieldToColumn.put("quantity", "QUANTITY");
+        fieldToColumn.put("version", "VERSION");
+        FIELD_TO_COLUMN = Collections.unmodifiableMap(fieldToColumn);
+    }
+
+    private ProductColumns() {
+    }
+
+    /**
+     * DTO field names of all columns, in table order.
+     */
+    public static Set<String> fields() {
+
+        return FIELD_TO_COLUMN.keySet();
+    }
+
+    /**
+     * Convert requested DTO fields to columns. ID is always selected.
+     *
+     * @throws IllegalArgumentException if a field is not a product column
+     */
+    public static Set<String> toColumns(Collection<String> fields) {
+
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add("ID");
+
+        for (String field : fields) {
+            final String column = FIELD_TO_COLUMN.get(field.trim().toLowerCase());
+            if (column == null) {
+                throw new IllegalArgumentException("Unknown field: " + field);
+            }
+            columns.add(column);
+        }
+
+        return columns;
+    }
+
+    /**
+     * Index of column in resultSet, 0 if it is not one of the selected columns (null for all).
+     */
+    static int indexOf(ResultSet resultSet, Set<String> columns, String column) throws SQLException {
+
+        return columns == null || columns.contains(column) ? resultSet.findColumn(column) : 0;
+    }
+
+    /**
+     * Read a price exactly, not through double.
+     * Whole prices keep one decimal digit, e.g. 10000.0, as they had when read as double.
+     */
+    static BigDecimal getPrice(ResultSet resultSet, int index) throws SQLException {
+
+        final BigDecimal price = resultSet.getBigDecimal(index);
+
+        return price == null || price.scale() > 0 ? price : price.setScale(1);
+    }
+}
@@ -0,0 +1,31 @@
+package bg.startit.products.mappers;
+
+import bg.startit.products.model.Reservation;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+
+/**
+ * Convert db data for reservation to Reservation entity.
+ */
+public class ReservationRowMapper implements RowMapper<Reservation> {
+
+    /**
+     * Convert row from table RESERVATION to Reservation entity.
+     */
+    @Override
+    public Reservation mapRow(ResultSet resultSet, int i) throws SQLException {
+
+        Reservation reservation = new Reservation(
+                resultSet.getLong("PRODUCT_ID"),
+                resultSet.getInt("PRODUCT_TYPE"),
+                resultSet.getLong("QUANTITY"),
+                resultSet.getBigDecimal("PRICE"),
+                resultSet.getObject("EXPIRES", LocalDateTime.class));
+        reservation.setId(resultSet.getLong("ID"));
+
+        return reservation;
+    }
+}
@@ -1,33 +1,59 @@
 package bg.startit.products.mappers;
 
-import bg.startit.products.model.Car;
 import bg.startit.products.model.Sale;
 import org.springframework.jdbc.core.RowMapper;
 
-import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.LocalDateTime;
 
 /**
  * Convert db data for sale to Sale entity.
+ * Column indexes are resolved once per result set, so create one mapper per query.
  */
 public class SaleRowMapper implements RowMapper<Sale> {
 
+    /**
+     * Result set the indexes are resolved for.
+     */
+    private ResultSet resultSet;
+
+    private int saleId;
+    private int productId;
+    private int nbSold;
+    private int saleDate;
+    private int productType;
+    private int price;
+
     /**
      * Convert row from table SALE to Sale entity.
      */
     @Override
     public Sale mapRow(ResultSet resultSet, int i) throws SQLException {
+        if (resultSet != this.resultSet) {
+            resolveIndexes(resultSet);
+        }
+
         Sale sale = new Sale();
 
-        sale.setSale_id(resultSet.getLong("SALE_ID"));
-        sale.setProduct_id(resultSet.getLong("PRODUCT_ID"));
-        sale.setNb_sold(resultSet.getLong("NB_SOLD"));
-        sale.setSale_date(resultSet.getObject(4, LocalDateTime.class));
-        sale.setProduct_type(resultSet.getInt("PRODUCT_TYPE"));
-        sale.setPrice(resultSet.getBigDecimal("PRICE"));
+        sale.setSale_id(resultSet.getLong(saleId));
+        sale.setProduct_id(resultSet.getLong(productId));
+        sale.setNb_sold(resultSet.getLong(nbSold));
+        sale.setSale_date(resultSet.getObject(saleDate, LocalDateTime.class));
+        sale.setProduct_type(resultSet.getInt(productType));
+        sale.setPrice(resultSet.getBigDecimal(price));
 
         return sale;
     }
+
+    private void resolveIndexes(ResultSet resultSet) throws SQLException {
+        this.resultSet = resultSet;
+
+        saleId = resultSet.findColumn("SALE_ID");
+        productId = resultSet.findColumn("PRODUCT_ID");
+        nbSold = resultSet.findColumn("NB_SOLD");
+        saleDate = resultSet.findColumn("SALE_DATE");
+        productType = resultSet.findColumn("PRODUCT_TYPE");
+        price = resultSet.findColumn("PRICE");
+    }
 }
@@ -3,30 +3,93 @@ package bg.startit.products.mappers;
 import bg.startit.products.model.TV;
 import org.springframework.jdbc.core.RowMapper;
 
-import java.math.BigDecimal;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Set;
 
 /**
  * Convert db data for tv to TV entity.
+ * Column indexes are resolved once per result set, so create one mapper per query.
  */
 public class TVRowMapper implements RowMapper<TV> {
 
     /**
-     * Convert row from table TV to Car entity.
+     * Selected columns of a projection, null when all columns are selected.
+     */
+    private final Set<String> columns;
+
+    /**
+     * Result set the indexes are resolved for.
+     */
+    private ResultSet resultSet;
+
+    /**
+     * Index of every column in resultSet, 0 if not selected.
+     */
+    private int id;
+    private int brandName;
+    private int color;
+    private int price;
+    private int weight;
+    private int length;
+    private int quantity;
+    private int version;
+
+    public TVRowMapper() {
+        this(null);
+    }
+
+    public TVRowMapper(Set<String> columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Convert row from table TV to TV entity, columns not selected are left null.
      */
     @Override
     public TV mapRow(ResultSet resultSet, int i) throws SQLException {
+        if (resultSet != this.resultSet) {
+            resolveIndexes(resultSet);
+        }
+
         TV tv = new TV();
 
-        tv.setId(resultSet.getLong("ID"));
-        tv.setBrand_name(resultSet.getString("BRAND_NAME"));
-        tv.setColor(resultSet.getString("COLOR"));
-        tv.setPrice(BigDecimal.valueOf(resultSet.getDouble("PRICE")));
-        tv.setLength(resultSet.getLong("LENGTH"));
-        tv.setWeight(resultSet.getLong("WEIGHT"));
-        tv.setQuantity(resultSet.getLong("QUANTITY"));
+        tv.setId(resultSet.getLong(id));
+        if (brandName > 0) {
+            tv.setBrand_name(resultSet.getString(brandName));
+        }
+        if (color > 0) {
+            tv.setColor(resultSet.getString(color));
+        }
+        if (price > 0) {
+            tv.setPrice(ProductColumns.getPrice(resultSet, price));
+        }
+        if (weight > 0) {
+            tv.setWeight(resultSet.getLong(weight));
+        }
+        if (length > 0) {
+            tv.setLength(resultSet.getLong(length));
+        }
+        if (quantity > 0) {
+            tv.setQuantity(resultSet.getLong(quantity));
+        }
+        if (version > 0) {
+            tv.setVersion(resultSet.getLong(version));
+        }
 
         return tv;
     }
+
+    private void resolveIndexes(ResultSet resultSet) throws SQLException {
+        this.resultSet = resultSet;
+
+        id = resultSet.findColumn("ID");
+        brandName = ProductColumns.indexOf(resultSet, columns, "BRAND_NAME");
+        color = ProductColumns.indexOf(resultSet, columns, "COLOR");
+        price = ProductColumns.indexOf(resultSet, columns, "PRICE");
+        weight = ProductColumns.indexOf(resultSet, columns, "WEIGHT");
+        length = ProductColumns.indexOf(resultSet, columns, "LENGTH");
+        quantity = ProductColumns.indexOf(resultSet, columns, "QUANTITY");
+        version = ProductColumns.indexOf(resultSet, columns, "VERSION");
+    }
 }
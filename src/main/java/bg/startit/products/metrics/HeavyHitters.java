@@ -0,0 +1,239 @@
+package bg.startit.products.metrics;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Top products of a sliding window by units sold, in fixed memory and without locks.
+ * <p>
+ * Units are counted in a Count-Min sketch per pane, a window is the last panes of windowMillis / panes each
+ * plus the current one. A count is never underestimated, and with probability 1 - e^-{@value #DEPTH} overestimated
+ * by at most e / width of the units sold in the window, see {@link #maxError}.
+ * <p>
+ * The products to report are kept in a table of candidates, every product has two slots and takes the one whose
+ * product has the lower count when its own count is higher. A product can be missing from the top only if both its
+ * slots hold products with higher counts, which is unlikely while the table has many more slots than products asked.
+ * <p>
+ * Sales at the moment their pane is reused for a new one may be lost.
+ */
+public class HeavyHitters {
+
+    /**
+     * Rows of the sketch, each with its own hash.
+     */
+    private static final int DEPTH = 5;
+
+    private final int width;
+
+    private final long paneMillis;
+
+    private final Pane[] panes;
+
+    private final AtomicLongArray candidates;
+
+    /**
+     * @param windowMillis length of the window
+     * @param panes        panes of the window, a window is up to 1 / panes longer
+     * @param width        columns of the sketch, rounded up to a power of two
+     * @param candidates   products kept to report, rounded up to a power of two
+     */
+    public HeavyHitters(long windowMillis, int panes, int width, int candidates) {
+        this.width = Integer.highestOneBit(Math.max(1, width - 1)) << 1;
+        this.paneMillis = windowMillis / panes;
+        this.panes = new Pane[panes + 1];
+        this.candidates = new AtomicLongArray(Integer.highestOneBit(Math.max(1, candidates - 1)) << 1);
+
+        for (int i = 0; i < this.panes.length; i++) {
+            this.panes[i] = new Pane(DEPTH * this.width);
+        }
+    }
+
+    /**
+     * Add units of product id sold at timeMillis, counted in the current pane if later than nowMillis.
+     * Sales older than the window are dropped, ids are positive.
+     */
+    public void add(long id, long units, long timeMillis, long nowMillis) {
+
+        final long now = Math.floorDiv(nowMillis, paneMillis);
+        final long paneIndex = Math.min(Math.floorDiv(timeMillis, paneMillis), now);
+
+        if (paneIndex <= now - panes.length || id <= 0) {
+            return;
+        }
+
+        final Pane pane = panes[(int) Math.floorMod(paneIndex, (long) panes.length)];
+
+        long epoch = pane.epoch.get();
+        while (epoch < paneIndex) {
+            if (pane.epoch.compareAndSet(epoch, paneIndex)) {
+                // Who moves the pane to the new epoch clears it
+                pane.clear();
+                break;
+            }
+            epoch = pane.epoch.get();
+        }
+        if (epoch > paneIndex) {
+            // The pane already holds a later one
+            return;
+        }
+
+        final long hash = mix(id);
+        for (int row = 0; row < DEPTH; row++) {
+            pane.counts.getAndAdd(row * width + column(hash, row), units);
+        }
+        pane.total.getAndAdd(units);
+
+        offer(id, hash, now);
+    }
+
+    /**
+     * Top n products of the window ending nowMillis by units sold.
+     *
+     * @return id and estimated units of every product, most units first
+     */
+    public List<long[]> top(int n, long nowMillis) {
+
+        final long now = Math.floorDiv(nowMillis, paneMillis);
+
+        List<long[]> top = new ArrayList<>();
+
+        for (int i = 0; i < candidates.length(); i++) {
+            final long id = candidates.get(i);
+            if (id > 0) {
+                final long count = estimate(mix(id), now);
+                if (count > 0) {
+                    top.add(new long[]{id, count});
+                }
+            }
+        }
+
+        top.sort(Comparator.<long[]>comparingLong(product -> -product[1]).thenComparingLong(product -> product[0]));
+
+        return top.size() > n ? new ArrayList<>(top.subList(0, n)) : top;
+    }
+
+    /**
+     * Overestimation of the counts of the window ending nowMillis not exceeded with probability 1 - e^-DEPTH.
+     */
+    public long maxError(long nowMillis) {
+
+        final long now = Math.floorDiv(nowMillis, paneMillis);
+
+        long total = 0;
+        for (Pane pane : panes) {
+            if (inWindow(pane, now)) {
+                total += pane.total.get();
+            }
+        }
+
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * Put id in one of its candidate slots, if free, or if the product there has a lower count.
+     */
+    private void offer(long id, long hash, long now) {
+
+        final int first = (int) hash & (candidates.length() - 1);
+        final int second = (int) (hash >>> 32) & (candidates.length() - 1);
+
+        final long firstId = candidates.get(first);
+        final long secondId = candidates.get(second);
+
+        if (firstId == id || secondId == id) {
+            return;
+        }
+        if (firstId == 0 && candidates.compareAndSet(first, 0, id)
+                || secondId == 0 && candidates.compareAndSet(second, 0, id)) {
+            return;
+        }
+
+        final long firstCount = firstId > 0 ? estimate(mix(firstId), now) : 0;
+        final long secondCount = secondId > 0 ? estimate(mix(secondId), now) : 0;
+
+        final int slot = firstCount <= secondCount ? first : second;
+        final long slotId = firstCount <= secondCount ? firstId : secondId;
+
+        // Lost to a concurrent update of the slot, the id is offered again with its next sale
+        if (estimate(hash, now) > Math.min(firstCount, secondCount)) {
+            candidates.compareAndSet(slot, slotId, id);
+        }
+    }
+
+    /**
+     * Units sold in the window, summed over the panes from the minimum of the rows of each.
+     */
+    private long estimate(long hash, long now) {
+
+        long count = 0;
+
+        for (Pane pane : panes) {
+            if (!inWindow(pane, now)) {
+                continue;
+            }
+
+            long min = Long.MAX_VALUE;
+            for (int row = 0; row < DEPTH; row++) {
+                min = Math.min(min, pane.counts.get(row * width + column(hash, row)));
+            }
+            count += min;
+        }
+
+        return count;
+    }
+
+    private boolean inWindow(Pane pane, long now) {
+
+        final long epoch = pane.epoch.get();
+
+        return epoch > now - panes.length && epoch <= now;
+    }
+
+    /**
+     * Column of row, from an own hash per row. Double hashing would make ids colliding in one row
+     * collide in all of them too often.
+     */
+    private int column(long hash, int row) {
+
+        return (int) (mix(hash + row * 0x9e3779b97f4a7c15L) >>> 32) & (width - 1);
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads consecutive IDs over all columns.
+     */
+    private static long mix(long value) {
+
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+
+        return value;
+    }
+
+    /**
+     * Count-Min sketch of the units sold in one pane.
+     */
+    private static final class Pane {
+
+        private final AtomicLong epoch = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLongArray counts;
+
+        private Pane(int size) {
+            this.counts = new AtomicLongArray(size);
+        }
+
+        private void clear() {
+
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            total.set(0);
+        }
+    }
+}
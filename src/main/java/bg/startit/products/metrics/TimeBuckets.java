@@ -0,0 +1,81 @@
+package bg.startit.products.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Ring buffer of the sales, items and cents of the last size time buckets, in primitive arrays.
+ * <p>
+ * Every slot remembers the bucket it holds, so slots of buckets that passed are cleared when reused
+ * and skipped when summed, without a thread clearing them.
+ */
+public class TimeBuckets {
+
+    private final long bucketMillis;
+
+    private final long[] buckets;
+
+    private final long[] sales;
+
+    private final long[] units;
+
+    private final long[] cents;
+
+    public TimeBuckets(int size, long bucketMillis) {
+        this.bucketMillis = bucketMillis;
+        this.buckets = new long[size];
+        this.sales = new long[size];
+        this.units = new long[size];
+        this.cents = new long[size];
+
+        // No slot holds a bucket yet
+        Arrays.fill(buckets, Long.MIN_VALUE);
+    }
+
+    /**
+     * Add a sale at timeMillis, counted in the current bucket if later than nowMillis.
+     * Sales older than the buffer are dropped.
+     */
+    public synchronized void add(long timeMillis, long nowMillis, long units, long cents) {
+
+        final long now = Math.floorDiv(nowMillis, bucketMillis);
+        final long bucket = Math.min(Math.floorDiv(timeMillis, bucketMillis), now);
+
+        if (bucket <= now - buckets.length) {
+            return;
+        }
+
+        final int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+
+        if (buckets[slot] != bucket) {
+            buckets[slot] = bucket;
+            sales[slot] = 0;
+            this.units[slot] = 0;
+            this.cents[slot] = 0;
+        }
+
+        sales[slot]++;
+        this.units[slot] += units;
+        this.cents[slot] += cents;
+    }
+
+    /**
+     * Add the sales, items and cents of the last count buckets up to the one of nowMillis to totals[0..2].
+     */
+    public synchronized void sum(long nowMillis, int count, long[] totals) {
+
+        final long now = Math.floorDiv(nowMillis, bucketMillis);
+
+        for (long bucket = now - Math.min(count, buckets.length) + 1; bucket <= now; bucket++) {
+            final int slot = (int) Math.floorMod(bucket, (long) buckets.length);
+            if (buckets[slot] == bucket) {
+                totals[0] += sales[slot];
+                totals[1] += units[slot];
+                totals[2] += cents[slot];
+            }
+        }
+    }
+
+    public long getBucketMillis() {
+        return bucketMillis;
+    }
+}
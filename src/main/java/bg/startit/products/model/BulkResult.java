@@ -0,0 +1,54 @@
+package bg.startit.products.model;
+
+/**
+ * Result of one row of a bulk create or update.
+ */
+public class BulkResult {
+
+    private int index;
+    private Long id;
+    private boolean success;
+    private String message;
+
+    public BulkResult() {
+    }
+
+    public BulkResult(int index, Long id, boolean success, String message) {
+        this.index = index;
+        this.id = id;
+        this.success = success;
+        this.message = message;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public void setSuccess(boolean success) {
+        this.success = success;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+}
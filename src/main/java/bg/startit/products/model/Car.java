@@ -11,6 +11,7 @@ public class Car extends Product {
     private Long weight;
     private Long length;
     private Long quantity;
+    private Long version;
 
     public Car() {
     }
@@ -79,4 +80,15 @@ public class Car extends Product {
     public void setQuantity(Long quantity) {
         this.quantity = quantity;
     }
+
+    /**
+     * Incremented by every change of the row, an update with another version is refused.
+     */
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
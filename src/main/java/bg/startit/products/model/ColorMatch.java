@@ -0,0 +1,22 @@
+package bg.startit.products.model;
+
+/**
+ * How the color of a search is compared with the color of the products.
+ */
+public enum ColorMatch {
+
+    /**
+     * Color equal to the searched one.
+     */
+    EXACT,
+
+    /**
+     * Color starting with the searched one.
+     */
+    PREFIX,
+
+    /**
+     * Color containing the searched one.
+     */
+    SUBSTRING
+}
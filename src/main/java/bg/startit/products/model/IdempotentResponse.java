@@ -0,0 +1,79 @@
+package bg.startit.products.model;
+
+import java.time.LocalDateTime;
+
+/**
+ * Response of a request with an Idempotency-Key header, returned again for every retry with the same key.
+ */
+public class IdempotentResponse {
+
+    /**
+     * Status of a request still executing, its key is claimed and it has no response yet.
+     */
+    public static final int PENDING = 0;
+
+    private String idempotency_key;
+    private String request;
+    private Integer status;
+    private String body;
+    private LocalDateTime created;
+
+    public IdempotentResponse() {
+    }
+
+    public IdempotentResponse(String idempotency_key, String request, Integer status, String body,
+                              LocalDateTime created) {
+        this.idempotency_key = idempotency_key;
+        this.request = request;
+        this.status = status;
+        this.body = body;
+        this.created = created;
+    }
+
+    public String getIdempotency_key() {
+        return idempotency_key;
+    }
+
+    public void setIdempotency_key(String idempotency_key) {
+        this.idempotency_key = idempotency_key;
+    }
+
+    /**
+     * Parameters of the request, a retry with the same key must have the same.
+     */
+    public String getRequest() {
+        return request;
+    }
+
+    public void setRequest(String request) {
+        this.request = request;
+    }
+
+    public Integer getStatus() {
+        return status;
+    }
+
+    public void setStatus(Integer status) {
+        this.status = status;
+    }
+
+    public boolean isPending() {
+        return status == PENDING;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    public void setCreated(LocalDateTime created) {
+        this.created = created;
+    }
+}
@@ -0,0 +1,44 @@
+package bg.startit.products.model;
+
+/**
+ * Windows of the live sales metrics, ending now.
+ */
+public enum LiveWindow {
+
+    FIVE_MINUTES("5m", 5 * 60),
+    ONE_HOUR("1h", 60 * 60),
+    ONE_DAY("24h", 24 * 60 * 60);
+
+    private final String name;
+    private final int seconds;
+
+    LiveWindow(String name, int seconds) {
+        this.name = name;
+        this.seconds = seconds;
+    }
+
+    /**
+     * Name in requests, like 5m.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public int getSeconds() {
+        return seconds;
+    }
+
+    /**
+     * Window named name, null if there is none.
+     */
+    public static LiveWindow of(String name) {
+
+        for (LiveWindow window : values()) {
+            if (window.name.equals(name)) {
+                return window;
+            }
+        }
+
+        return null;
+    }
+}
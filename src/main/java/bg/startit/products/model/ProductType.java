@@ -0,0 +1,44 @@
+package bg.startit.products.model;
+
+/**
+ * Product types of the sales, stored in SALE.PRODUCT_TYPE.
+ */
+public enum ProductType {
+
+    CAR(1, "CAR"),
+    PHONE(2, "PHONE"),
+    TV(3, "TV");
+
+    private final int code;
+    private final String table;
+
+    ProductType(int code, String table) {
+        this.code = code;
+        this.table = table;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * Table of the products of this type.
+     */
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * Type with code, null if there is none.
+     */
+    public static ProductType of(Integer code) {
+
+        for (ProductType productType : values()) {
+            if (code != null && productType.code == code) {
+                return productType;
+            }
+        }
+
+        return null;
+    }
+}
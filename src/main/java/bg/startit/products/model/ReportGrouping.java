@@ -0,0 +1,36 @@
+package bg.startit.products.model;
+
+/**
+ * What the totals of a sales report are broken down by.
+ */
+public enum ReportGrouping {
+
+    /**
+     * Product type of the sales.
+     */
+    PRODUCT_TYPE,
+
+    /**
+     * Product of the sales, within its product type.
+     */
+    PRODUCT_ID,
+
+    /**
+     * Day of the sales.
+     */
+    DAY,
+
+    /**
+     * ISO week of the sales, starting on Monday.
+     */
+    WEEK,
+
+    /**
+     * Month of the sales.
+     */
+    MONTH;
+
+    public boolean isPeriod() {
+        return this == DAY || this == WEEK || this == MONTH;
+    }
+}
@@ -0,0 +1,99 @@
+package bg.startit.products.model;
+
+import bg.startit.products.dto.sale.SalesReportDto;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A sales report computed in background, polled by its id until done or failed.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class ReportJob {
+
+    public enum Status {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    private final String id = UUID.randomUUID().toString();
+    private final LocalDateTime start;
+    private final LocalDateTime end;
+    private final Set<ReportGrouping> group_by;
+    private final LocalDateTime submitted = LocalDateTime.now();
+    private volatile Status status = Status.PENDING;
+    private volatile LocalDateTime finished;
+    private volatile LocalDateTime expires;
+    private volatile SalesReportDto result;
+
+    public ReportJob(LocalDateTime start, LocalDateTime end, Set<ReportGrouping> group_by) {
+        this.start = start;
+        this.end = end;
+        this.group_by = group_by;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public LocalDateTime getStart() {
+        return start;
+    }
+
+    public LocalDateTime getEnd() {
+        return end;
+    }
+
+    public Set<ReportGrouping> getGroup_by() {
+        return group_by;
+    }
+
+    public LocalDateTime getSubmitted() {
+        return submitted;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    public LocalDateTime getFinished() {
+        return finished;
+    }
+
+    public void setFinished(LocalDateTime finished) {
+        this.finished = finished;
+    }
+
+    /**
+     * When the job and its result are forgotten, null while not finished.
+     */
+    public LocalDateTime getExpires() {
+        return expires;
+    }
+
+    public void setExpires(LocalDateTime expires) {
+        this.expires = expires;
+    }
+
+    public SalesReportDto getResult() {
+        return result;
+    }
+
+    public void setResult(SalesReportDto result) {
+        this.result = result;
+    }
+
+    /**
+     * Jobs of the same key compute the same report.
+     */
+    @JsonIgnore
+    public String getKey() {
+        return start + "/" + end + "/" + group_by;
+    }
+}
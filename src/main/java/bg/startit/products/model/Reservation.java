@@ -0,0 +1,79 @@
+package bg.startit.products.model;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Units of a product held for a customer, sold when confirmed and back in stock when released or expired.
+ */
+public class Reservation {
+
+    private Long id;
+    private Long product_id;
+    private Integer product_type;
+    private Long quantity;
+    private BigDecimal price;
+    private LocalDateTime expires;
+
+    public Reservation() {
+    }
+
+    public Reservation(Long product_id, Integer product_type, Long quantity, BigDecimal price, LocalDateTime expires) {
+        this.product_id = product_id;
+        this.product_type = product_type;
+        this.quantity = quantity;
+        this.price = price;
+        this.expires = expires;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getProduct_id() {
+        return product_id;
+    }
+
+    public void setProduct_id(Long product_id) {
+        this.product_id = product_id;
+    }
+
+    public Integer getProduct_type() {
+        return product_type;
+    }
+
+    public void setProduct_type(Integer product_type) {
+        this.product_type = product_type;
+    }
+
+    public Long getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Long quantity) {
+        this.quantity = quantity;
+    }
+
+    /**
+     * Price of all reserved units, charged when confirmed.
+     */
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    public LocalDateTime getExpires() {
+        return expires;
+    }
+
+    public void setExpires(LocalDateTime expires) {
+        this.expires = expires;
+    }
+}
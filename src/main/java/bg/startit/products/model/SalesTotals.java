@@ -0,0 +1,121 @@
+package bg.startit.products.model;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.LocalDate;
+
+/**
+ * Totals of the sales of one group of a sales report. A ticket is the price charged for one sale.
+ * Period, product_type and product_id are null unless the report is grouped by them.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SalesTotals {
+
+    private LocalDate period;
+    private Integer product_type;
+    private Long product_id;
+    private long sales;
+    private long nb_sold;
+    private BigDecimal revenue = BigDecimal.ZERO;
+    private BigDecimal min_ticket;
+    private BigDecimal max_ticket;
+
+    public SalesTotals() {
+    }
+
+    public SalesTotals(LocalDate period, Integer product_type, Long product_id) {
+        this.period = period;
+        this.product_type = product_type;
+        this.product_id = product_id;
+    }
+
+    /**
+     * Add the totals of other sales.
+     */
+    public void add(long sales, long nb_sold, BigDecimal revenue, BigDecimal min_ticket, BigDecimal max_ticket) {
+        this.sales += sales;
+        this.nb_sold += nb_sold;
+        this.revenue = this.revenue.add(revenue);
+        this.min_ticket = this.min_ticket == null || min_ticket.compareTo(this.min_ticket) < 0 ? min_ticket : this.min_ticket;
+        this.max_ticket = this.max_ticket == null || max_ticket.compareTo(this.max_ticket) > 0 ? max_ticket : this.max_ticket;
+    }
+
+    public void add(SalesTotals totals) {
+        if (totals.sales > 0) {
+            add(totals.sales, totals.nb_sold, totals.revenue, totals.min_ticket, totals.max_ticket);
+        }
+    }
+
+    public LocalDate getPeriod() {
+        return period;
+    }
+
+    public void setPeriod(LocalDate period) {
+        this.period = period;
+    }
+
+    public Integer getProduct_type() {
+        return product_type;
+    }
+
+    public void setProduct_type(Integer product_type) {
+        this.product_type = product_type;
+    }
+
+    public Long getProduct_id() {
+        return product_id;
+    }
+
+    public void setProduct_id(Long product_id) {
+        this.product_id = product_id;
+    }
+
+    public long getSales() {
+        return sales;
+    }
+
+    public void setSales(long sales) {
+        this.sales = sales;
+    }
+
+    public long getNb_sold() {
+        return nb_sold;
+    }
+
+    public void setNb_sold(long nb_sold) {
+        this.nb_sold = nb_sold;
+    }
+
+    public BigDecimal getRevenue() {
+        return revenue;
+    }
+
+    public void setRevenue(BigDecimal revenue) {
+        this.revenue = revenue;
+    }
+
+    /**
+     * Revenue per sale rounded to cents, null without sales.
+     */
+    public BigDecimal getAverage_ticket() {
+        return sales == 0 ? null : revenue.divide(BigDecimal.valueOf(sales), 2, RoundingMode.HALF_UP);
+    }
+
+    public BigDecimal getMin_ticket() {
+        return min_ticket;
+    }
+
+    public void setMin_ticket(BigDecimal min_ticket) {
+        this.min_ticket = min_ticket;
+    }
+
+    public BigDecimal getMax_ticket() {
+        return max_ticket;
+    }
+
+    public void setMax_ticket(BigDecimal max_ticket) {
+        this.max_ticket = max_ticket;
+    }
+}
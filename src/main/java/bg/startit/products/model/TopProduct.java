@@ -0,0 +1,34 @@
+package bg.startit.products.model;
+
+/**
+ * Product among the best sellers of a window, with the units sold.
+ */
+public class TopProduct {
+
+    private Long product_id;
+    private Long nb_sold;
+
+    public TopProduct() {
+    }
+
+    public TopProduct(Long product_id, Long nb_sold) {
+        this.product_id = product_id;
+        this.nb_sold = nb_sold;
+    }
+
+    public Long getProduct_id() {
+        return product_id;
+    }
+
+    public void setProduct_id(Long product_id) {
+        this.product_id = product_id;
+    }
+
+    public Long getNb_sold() {
+        return nb_sold;
+    }
+
+    public void setNb_sold(Long nb_sold) {
+        this.nb_sold = nb_sold;
+    }
+}
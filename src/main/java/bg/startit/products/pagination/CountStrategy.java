@@ -0,0 +1,28 @@
+package bg.startit.products.pagination;
+
+/**
+ * How the total number of rows of a paged query is computed.
+ */
+public enum CountStrategy {
+
+    /**
+     * Do not count, the total is only derived from the returned page.
+     */
+    NONE,
+
+    /**
+     * Run COUNT(*) with the filter of the query on every request.
+     */
+    EXACT,
+
+    /**
+     * Run COUNT(*) once per (table, filter) and reuse it until the table is modified.
+     */
+    CACHED,
+
+    /**
+     * Read the number of rows of the table from the database statistics.
+     * Does not apply the filter, so for filtered queries it is an upper bound.
+     */
+    ESTIMATED
+}
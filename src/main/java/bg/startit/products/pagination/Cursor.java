@@ -0,0 +1,93 @@
+package bg.startit.products.pagination;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Opaque continuation token for keyset (seek) pagination.
+ * Holds the sort key of the last row of a page: ID alone, or (PRICE, ID) for listings ordered by price.
+ */
+public class Cursor {
+
+    private static final String SEPARATOR = "|";
+
+    private final BigDecimal price;
+    private final Long id;
+
+    private Cursor(BigDecimal price, Long id) {
+        this.price = price;
+        this.id = id;
+    }
+
+    public static Cursor of(Long id) {
+        return new Cursor(null, id);
+    }
+
+    public static Cursor of(BigDecimal price, Long id) {
+        return new Cursor(price, id);
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public boolean hasPrice() {
+        return price != null;
+    }
+
+    /**
+     * Encode the cursor as URL safe token.
+     */
+    public String encode() {
+
+        final String value = hasPrice() ? price.toPlainString() + SEPARATOR + id : String.valueOf(id);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decode token created by {@link #encode()}.
+     * Empty token means first page and returns null.
+     *
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static Cursor decode(String token) {
+
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+
+        final String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        final int separator = value.indexOf(SEPARATOR);
+
+        try {
+            if (separator < 0) {
+                return of(Long.valueOf(value));
+            }
+            return of(new BigDecimal(value.substring(0, separator)), Long.valueOf(value.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + token, e);
+        }
+    }
+
+    /**
+     * Decode token of a listing keyed on (PRICE, ID).
+     *
+     * @throws IllegalArgumentException if the token is malformed or not keyed on price
+     */
+    public static Cursor decodeKeyedOnPrice(String token) {
+
+        final Cursor cursor = decode(token);
+
+        if (cursor != null && !cursor.hasPrice()) {
+            throw new IllegalArgumentException("Cursor is not keyed on price: " + token);
+        }
+
+        return cursor;
+    }
+}
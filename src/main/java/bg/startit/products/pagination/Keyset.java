@@ -0,0 +1,74 @@
+package bg.startit.products.pagination;
+
+import bg.startit.products.model.Product;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL fragments and helpers shared by the keyset paginated queries of the product DAOs.
+ */
+public final class Keyset {
+
+    /**
+     * Order used by listings keyed on ID.
+     */
+    public static final String ORDER_BY_ID = " ORDER BY ID FETCH NEXT :limit ROWS ONLY";
+
+    /**
+     * Order used by listings keyed on (PRICE, ID). ID makes the order total, so no row is skipped or repeated.
+     */
+    public static final String ORDER_BY_PRICE = " ORDER BY PRICE DESC, ID DESC FETCH NEXT :limit ROWS ONLY";
+
+    private Keyset() {
+    }
+
+    /**
+     * Add the parameters of a query keyed on ID and return the seek predicate.
+     */
+    public static String afterId(Cursor cursor, int limit, MapSqlParameterSource mapSqlParameterSource) {
+
+        mapSqlParameterSource.addValue("cursor_id", cursor == null ? 0L : cursor.getId());
+        // Fetch one row more than requested to know if there is a next page
+        mapSqlParameterSource.addValue("limit", limit + 1);
+
+        return "ID > :cursor_id";
+    }
+
+    /**
+     * Add the parameters of a query keyed on (PRICE, ID) and return the seek predicate to append after WHERE.
+     * The row value comparison is expanded, because Oracle does not support it for '<'.
+     */
+    public static String afterPrice(Cursor cursor, int limit, MapSqlParameterSource mapSqlParameterSource) {
+
+        mapSqlParameterSource.addValue("limit", limit + 1);
+
+        if (cursor == null) {
+            return "";
+        }
+        if (!cursor.hasPrice()) {
+            throw new IllegalArgumentException("Cursor is not keyed on price");
+        }
+
+        mapSqlParameterSource.addValue("cursor_price", cursor.getPrice());
+        mapSqlParameterSource.addValue("cursor_id", cursor.getId());
+
+        return " AND (PRICE < :cursor_price OR (PRICE = :cursor_price AND ID < :cursor_id))";
+    }
+
+    /**
+     * Convert rows fetched with limit + 1 to a slice of at most limit rows.
+     */
+    public static Slice<Product> toSlice(List<? extends Product> rows, int limit) {
+
+        final boolean hasNext = rows.size() > limit;
+
+        final List<Product> productList = new ArrayList<>(hasNext ? rows.subList(0, limit) : rows);
+
+        return new SliceImpl<>(productList, PageRequest.of(0, limit), hasNext);
+    }
+}
@@ -2,12 +2,21 @@ package bg.startit.products.service;
 
 import bg.startit.products.IStaff;
 import bg.startit.products.dao.CarDao;
+import bg.startit.products.model.BulkResult;
+import bg.startit.products.model.ColorMatch;
 import bg.startit.products.model.Product;
+import bg.startit.products.pagination.CountStrategy;
+import bg.startit.products.pagination.Cursor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 /**
  * Business logic for Car
  */
@@ -30,6 +39,16 @@ public class CarService implements IStaff {
         return carDao.findProduct(id);
     }
 
+    @Override
+    public Product findProduct(Long id, Collection<String> fields) {
+        return carDao.findProduct(id, fields);
+    }
+
+    @Override
+    public Map<Long, Product> findProducts(List<Long> ids) {
+        return carDao.findProducts(ids);
+    }
+
     @Override
     public Page<Product> findProduct(String color, Pageable pageable) {
         return carDao.findProduct(color, pageable);
@@ -40,6 +59,41 @@ public class CarService implements IStaff {
         return carDao.findProduct(price, pageable);
     }
 
+    @Override
+    public Page<Product> getAll(Pageable pageable, CountStrategy countStrategy) {
+        return carDao.getAll(pageable, countStrategy);
+    }
+
+    @Override
+    public Page<Product> findProduct(String color, ColorMatch match, Pageable pageable, CountStrategy countStrategy) {
+        return carDao.findProduct(color, match, pageable, countStrategy);
+    }
+
+    @Override
+    public Page<Product> findProduct(BigDecimal price, Pageable pageable, CountStrategy countStrategy) {
+        return carDao.findProduct(price, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> getAll(Cursor cursor, int limit) {
+        return carDao.getAll(cursor, limit);
+    }
+
+    @Override
+    public Slice<Product> findProduct(String color, ColorMatch match, Cursor cursor, int limit) {
+        return carDao.findProduct(color, match, cursor, limit);
+    }
+
+    @Override
+    public Slice<Product> findProduct(BigDecimal price, Cursor cursor, int limit) {
+        return carDao.findProduct(price, cursor, limit);
+    }
+
+    @Override
+    public void exportAll(Consumer<Product> consumer) {
+        carDao.exportAll(consumer);
+    }
+
     @Override
     public String getColor(Long id) {
         return carDao.getColor(id);
@@ -75,6 +129,16 @@ public class CarService implements IStaff {
         return carDao.update(product);
     }
 
+    @Override
+    public List<BulkResult> createAll(List<Product> products) {
+        return carDao.createAll(products);
+    }
+
+    @Override
+    public List<BulkResult> updateAll(List<Product> products) {
+        return carDao.updateAll(products);
+    }
+
     @Override
     public boolean delete(Long id) {
         return carDao.delete(id);
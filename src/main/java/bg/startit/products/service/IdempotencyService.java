@@ -0,0 +1,235 @@
+package bg.startit.products.service;
+
+import bg.startit.products.dao.IdempotencyDao;
+import bg.startit.products.model.IdempotentResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Execute a request once per Idempotency-Key and answer its retries with the stored response.
+ * The latest responses are kept in memory, all of them in table IDEMPOTENCY_KEY, each for ttlMs.
+ * <p>
+ * The key is claimed in IDEMPOTENCY_KEY before the request executes, so of concurrent requests with the same key
+ * on every instance of the application only one executes. The others wait up to waitMs for its response.
+ * A request interrupted by a crash keeps its key claimed until it expires, it is never executed twice.
+ */
+@Service
+public class IdempotencyService {
+
+    @Value("${products.sales.idempotency.ttl-ms:86400000}")
+    private long ttlMillis;
+
+    @Value("${products.sales.idempotency.max-entries:10000}")
+    private int maxEntries;
+
+    @Value("${products.sales.idempotency.cleanup-interval-ms:60000}")
+    private long cleanupIntervalMillis;
+
+    @Value("${products.sales.idempotency.wait-ms:10000}")
+    private long waitMillis;
+
+    /**
+     * How often a request waiting for another instance looks for its response.
+     */
+    private static final long POLL_MILLIS = 50;
+
+    private final IdempotencyDao idempotencyDao;
+
+    /**
+     * Latest responses by key, least recently used evicted first. Guarded by itself.
+     */
+    private Map<String, IdempotentResponse> responses;
+
+    private final ConcurrentMap<String, CompletableFuture<IdempotentResponse>> executing = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService cleaner;
+
+    public IdempotencyService(IdempotencyDao idempotencyDao) {
+
+        this.idempotencyDao = idempotencyDao;
+    }
+
+    @PostConstruct
+    public void start() {
+
+        responses = new LinkedHashMap<String, IdempotentResponse>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, IdempotentResponse> eldest) {
+                return size() > maxEntries;
+            }
+        };
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "idempotency-cleanup");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(() -> idempotencyDao.deleteExpired(expiredBefore()),
+                cleanupIntervalMillis, cleanupIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        cleaner.shutdownNow();
+    }
+
+    /**
+     * Execute request, or return the response of the request executed before with the same key.
+     * Server errors (5xx) are returned to the requests waiting for them but not stored, so a later retry executes again.
+     *
+     * @param request parameters of the request, a request with the same key and other parameters is refused
+     * @return the response, a {@link IdempotentResponse#isPending() pending} one if the request with the same key
+     * is still executing after waitMs, a 503 without body if the database is not available,
+     * null if key was used with other parameters
+     */
+    public IdempotentResponse execute(String key, String request, Supplier<IdempotentResponse> execution) {
+
+        while (true) {
+            final IdempotentResponse stored = getStored(key);
+            if (stored != null) {
+                return matching(stored, request);
+            }
+
+            final CompletableFuture<IdempotentResponse> future = new CompletableFuture<>();
+            final CompletableFuture<IdempotentResponse> first = executing.putIfAbsent(key, future);
+
+            if (first != null) {
+                try {
+                    return matching(first.join(), request);
+                } catch (CompletionException e) {
+                    // The first request failed without a response, try again
+                    continue;
+                }
+            }
+
+            try {
+                final IdempotentResponse response = claimAndExecute(key, request, execution);
+
+                if (response == null) {
+                    // The other instance gave up its claim, wake up the waiting requests to claim the key again
+                    future.completeExceptionally(new IllegalStateException("Idempotency-Key released"));
+                    continue;
+                }
+
+                if (!response.isPending() && response.getStatus() < 500) {
+                    synchronized (responses) {
+                        responses.put(key, response);
+                    }
+                }
+
+                future.complete(response);
+
+                return matching(response, request);
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+                throw e;
+            } finally {
+                executing.remove(key, future);
+            }
+        }
+    }
+
+    /**
+     * Execute request if this instance claims key, or wait for the response of the instance that claimed it.
+     *
+     * @return the response, null if the other instance released the key without a response
+     */
+    private IdempotentResponse claimAndExecute(String key, String request, Supplier<IdempotentResponse> execution) {
+
+        final LocalDateTime now = LocalDateTime.now();
+        final Boolean claimed = idempotencyDao.claim(
+                new IdempotentResponse(key, request, IdempotentResponse.PENDING, null, now), expiredBefore());
+
+        if (claimed == null) {
+            return new IdempotentResponse(key, request, HttpStatus.SERVICE_UNAVAILABLE.value(), null, now);
+        }
+
+        if (!claimed) {
+            return await(key);
+        }
+
+        final IdempotentResponse executed;
+        try {
+            executed = execution.get();
+        } catch (RuntimeException e) {
+            idempotencyDao.release(key);
+            throw e;
+        }
+
+        final IdempotentResponse response = new IdempotentResponse(key, request, executed.getStatus(),
+                executed.getBody(), now);
+
+        if (response.getStatus() < 500) {
+            idempotencyDao.complete(response);
+        } else {
+            idempotencyDao.release(key);
+        }
+
+        return response;
+    }
+
+    /**
+     * Wait up to waitMs for the response of the request that claimed key.
+     *
+     * @return the response, still pending after waitMs, null if the key was released
+     */
+    private IdempotentResponse await(String key) {
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+
+        while (true) {
+            final IdempotentResponse response = idempotencyDao.find(key, expiredBefore());
+
+            if (response == null || !response.isPending() || System.nanoTime() - deadline >= 0) {
+                return response;
+            }
+
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return response;
+            }
+        }
+    }
+
+    private IdempotentResponse getStored(String key) {
+
+        synchronized (responses) {
+            final IdempotentResponse response = responses.get(key);
+
+            if (response != null && response.getCreated().isBefore(expiredBefore())) {
+                responses.remove(key);
+                return null;
+            }
+
+            return response;
+        }
+    }
+
+    private IdempotentResponse matching(IdempotentResponse response, String request) {
+
+        return response.getRequest().equals(request) ? response : null;
+    }
+
+    private LocalDateTime expiredBefore() {
+
+        return LocalDateTime.now().minusNanos(TimeUnit.MILLISECONDS.toNanos(ttlMillis));
+    }
+}
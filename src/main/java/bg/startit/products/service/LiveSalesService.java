@@ -0,0 +1,138 @@
+package bg.startit.products.service;
+
+import bg.startit.products.dao.SaleDao;
+import bg.startit.products.dto.sale.LiveSalesDto;
+import bg.startit.products.metrics.TimeBuckets;
+import bg.startit.products.model.LiveWindow;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.Sale;
+import bg.startit.products.model.SalesTotals;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Live sales metrics of the last minutes and hours, from per-second and per-minute {@link TimeBuckets} by product type
+ * fed with every sale, so they are read without accessing the database.
+ * <p>
+ * On startup the buckets are filled with the sales of the last 24 hours from table SALE, after the write-behind
+ * journal is stored. If they can not be read the metrics are incomplete until a window has passed since startup.
+ */
+@Service
+@DependsOn("saleWriter")
+public class LiveSalesService {
+
+    private static final long SECOND_MILLIS = TimeUnit.SECONDS.toMillis(1);
+
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Seconds kept per second, longer windows are summed per minute.
+     */
+    private static final int SECONDS = LiveWindow.FIVE_MINUTES.getSeconds();
+
+    private static final int MINUTES = LiveWindow.ONE_DAY.getSeconds() / 60;
+
+    private final SaleDao saleDao;
+
+    private final Map<ProductType, TimeBuckets> perSecond = new EnumMap<>(ProductType.class);
+
+    private final Map<ProductType, TimeBuckets> perMinute = new EnumMap<>(ProductType.class);
+
+    /**
+     * Time since which every sale is in the buckets.
+     */
+    private volatile long completeSinceMillis;
+
+    public LiveSalesService(SaleDao saleDao) {
+
+        this.saleDao = saleDao;
+
+        for (ProductType productType : ProductType.values()) {
+            perSecond.put(productType, new TimeBuckets(SECONDS, SECOND_MILLIS));
+            perMinute.put(productType, new TimeBuckets(MINUTES, MINUTE_MILLIS));
+        }
+    }
+
+    @PostConstruct
+    public void warmUp() {
+
+        final long nowMillis = System.currentTimeMillis();
+        final long sinceMillis = nowMillis - TimeUnit.SECONDS.toMillis(LiveWindow.ONE_DAY.getSeconds());
+
+        completeSinceMillis = saleDao.forEachSince(toLocalDateTime(sinceMillis), this::record) ? sinceMillis : nowMillis;
+    }
+
+    /**
+     * Add a stored or written behind sale to the metrics.
+     */
+    public void record(Sale sale) {
+
+        final ProductType productType = ProductType.of(sale.getProduct_type());
+
+        if (productType == null || sale.getSale_date() == null || sale.getPrice() == null) {
+            return;
+        }
+
+        final long nowMillis = System.currentTimeMillis();
+        final long timeMillis = sale.getSale_date().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        final long cents = sale.getPrice().setScale(2, RoundingMode.HALF_UP).unscaledValue().longValue();
+
+        perSecond.get(productType).add(timeMillis, nowMillis, sale.getNb_sold(), cents);
+        perMinute.get(productType).add(timeMillis, nowMillis, sale.getNb_sold(), cents);
+    }
+
+    public void record(List<Sale> sales) {
+
+        sales.forEach(this::record);
+    }
+
+    /**
+     * Totals of the sales in window, overall and by product type. Windows longer than the per-second buckets
+     * start at a full minute, so they can be up to a minute longer.
+     */
+    public LiveSalesDto getWindow(LiveWindow window) {
+
+        final long nowMillis = System.currentTimeMillis();
+
+        final boolean bySecond = window.getSeconds() <= SECONDS;
+        final long bucketMillis = bySecond ? SECOND_MILLIS : MINUTE_MILLIS;
+        final int count = (int) (TimeUnit.SECONDS.toMillis(window.getSeconds()) / bucketMillis);
+        final long startMillis = (Math.floorDiv(nowMillis, bucketMillis) - count + 1) * bucketMillis;
+
+        SalesTotals total = new SalesTotals();
+        List<SalesTotals> groups = new ArrayList<>();
+
+        for (ProductType productType : ProductType.values()) {
+            long[] totals = new long[3];
+            (bySecond ? perSecond : perMinute).get(productType).sum(nowMillis, count, totals);
+
+            SalesTotals group = new SalesTotals(null, productType.getCode(), null);
+            group.setSales(totals[0]);
+            group.setNb_sold(totals[1]);
+            group.setRevenue(BigDecimal.valueOf(totals[2], 2));
+
+            total.add(group);
+            groups.add(group);
+        }
+
+        return new LiveSalesDto(window.getName(), toLocalDateTime(startMillis), toLocalDateTime(nowMillis),
+                completeSinceMillis <= startMillis, total, groups);
+    }
+
+    private static LocalDateTime toLocalDateTime(long millis) {
+
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+    }
+}
@@ -2,12 +2,21 @@ package bg.startit.products.service;
 
 import bg.startit.products.IStaff;
 import bg.startit.products.dao.PhoneDao;
+import bg.startit.products.model.BulkResult;
+import bg.startit.products.model.ColorMatch;
 import bg.startit.products.model.Product;
+import bg.startit.products.pagination.CountStrategy;
+import bg.startit.products.pagination.Cursor;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
 
 import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Business logic for Phone
@@ -31,6 +40,16 @@ public class PhoneService implements IStaff {
         return phoneDao.findProduct(id);
     }
 
+    @Override
+    public Product findProduct(Long id, Collection<String> fields) {
+        return phoneDao.findProduct(id, fields);
+    }
+
+    @Override
+    public Map<Long, Product> findProducts(List<Long> ids) {
+        return phoneDao.findProducts(ids);
+    }
+
     @Override
     public Page<Product> findProduct(String color, Pageable pageable) {
         return phoneDao.findProduct(color, pageable);
@@ -41,6 +60,41 @@ public class PhoneService implements IStaff {
         return phoneDao.findProduct(price, pageable);
     }
 
+    @Override
+    public Page<Product> getAll(Pageable pageable, CountStrategy countStrategy) {
+        return phoneDao.getAll(pageable, countStrategy);
+    }
+
+    @Override
+    public Page<Product> findProduct(String color, ColorMatch match, Pageable pageable, CountStrategy countStrategy) {
+        return phoneDao.findProduct(color, match, pageable, countStrategy);
+    }
+
+    @Override
+    public Page<Product> findProduct(BigDecimal price, Pageable pageable, CountStrategy countStrategy) {
+        return phoneDao.findProduct(price, pageable, countStrategy);
+    }
+
+    @Override
+    public Slice<Product> getAll(Cursor cursor, int limit) {
+        return phoneDao.getAll(cursor, limit);
+    }
+
+    @Override
+    public Slice<Product> findProduct(String color, ColorMatch match, Cursor cursor, int limit) {
+        return phoneDao.findProduct(color, match, cursor, limit);
+    }
+
+    @Override
+    public Slice<Product> findProduct(BigDecimal price, Cursor cursor, int limit) {
+        return phoneDao.findProduct(price, cursor, limit);
+    }
+
+    @Override
+    public void exportAll(Consumer<Product> consumer) {
+        phoneDao.exportAll(consumer);
+    }
+
     @Override
     public String getColor(Long id) {
         return phoneDao.getColor(id);
@@ -76,6 +130,16 @@ public class PhoneService implements IStaff {
         return phoneDao.update(product);
     }
 
+    @Override
+    public List<BulkResult> createAll(List<Product> products) {
+        return phoneDao.createAll(products);
+    }
+
+    @Override
+    public List<BulkResult> updateAll(List<Product> products) {
+        return phoneDao.updateAll(products);
+    }
+
     @Override
     public boolean delete(Long id) {
         return phoneDao.delete(id);
@@ -0,0 +1,197 @@
+package bg.startit.products.service;
+
+import bg.startit.products.dao.SaleDao;
+import bg.startit.products.dao.SaleRollupDao;
+import bg.startit.products.model.ReportGrouping;
+import bg.startit.products.model.Sale;
+import bg.startit.products.model.SalesTotals;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Totals of the sales reports with the totals of every closed month kept in memory, as they do not change once
+ * the month is over. Only the open month and the parts of months at the ends of a range are read from the database.
+ * A month is closed closedAfterMs after its end, so sales written behind are in it before it is cached.
+ * Only the last maxMonths closed months are kept, older sales are read from the database.
+ * The totals of a month are forgotten when sales of it are inserted, rolled up again or detached.
+ */
+@Service
+public class ReportCacheService {
+
+    @Value("${products.sales.report-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${products.sales.report-cache.closed-after-ms:60000}")
+    private long closedAfterMillis;
+
+    @Value("${products.sales.report-cache.max-months:120}")
+    private int maxMonths;
+
+    private final SaleDao saleDao;
+
+    /**
+     * Totals of closed months by grouping.
+     */
+    private final ConcurrentMap<YearMonth, Map<Set<ReportGrouping>, List<SalesTotals>>> months =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Incremented by every invalidation, totals read before one are not cached.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ReportCacheService(SaleDao saleDao) {
+
+        this.saleDao = saleDao;
+    }
+
+    /**
+     * Totals of the sales from start to end, both included, see {@link SaleDao#getTotalsInDateRange}.
+     *
+     * @return the totals of every group ordered by period, product type and product id, one without groupBy,
+     * null if the database is not available
+     */
+    public List<SalesTotals> getTotalsInDateRange(LocalDateTime start, LocalDateTime end, Set<ReportGrouping> groupBy) {
+
+        // Whole months of the range, the month of end is not whole as end is its last instant at most
+        YearMonth first = YearMonth.from(start);
+        if (start.isAfter(first.atDay(1).atStartOfDay())) {
+            first = first.plusMonths(1);
+        }
+        YearMonth last = YearMonth.from(end).minusMonths(1);
+        final YearMonth openMonth = openMonth();
+        if (!last.isBefore(openMonth)) {
+            last = openMonth.minusMonths(1);
+        }
+        if (first.isBefore(openMonth.minusMonths(maxMonths))) {
+            first = openMonth.minusMonths(maxMonths);
+        }
+
+        if (!enabled || first.isAfter(last)) {
+            return saleDao.getTotalsInDateRange(start, end, groupBy);
+        }
+
+        final Set<ReportGrouping> grouping = groupBy.isEmpty()
+                ? EnumSet.noneOf(ReportGrouping.class) : EnumSet.copyOf(groupBy);
+
+        Map<SalesTotals, SalesTotals> totals = new TreeMap<>(SaleRollupDao.GROUP_ORDER);
+
+        final LocalDateTime firstStart = first.atDay(1).atStartOfDay();
+        if (start.isBefore(firstStart)
+                && !add(totals, saleDao.getTotalsInDateRange(start, firstStart, false, grouping))) {
+            return null;
+        }
+
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            if (!add(totals, getMonth(month, grouping))) {
+                return null;
+            }
+        }
+
+        if (!add(totals, saleDao.getTotalsInDateRange(last.plusMonths(1).atDay(1).atStartOfDay(), end, grouping))) {
+            return null;
+        }
+
+        if (grouping.isEmpty() && totals.isEmpty()) {
+            return Collections.singletonList(new SalesTotals());
+        }
+
+        return new ArrayList<>(totals.values());
+    }
+
+    /**
+     * Forget the totals of the month of a sale inserted after the month was closed.
+     */
+    public void record(Sale sale) {
+
+        final YearMonth month = YearMonth.from(sale.getSale_date());
+
+        if (month.isBefore(openMonth())) {
+            invalidate(month, month);
+        }
+    }
+
+    /**
+     * Forget the totals of the months from first to last, both included, after their sales were changed.
+     */
+    public void invalidate(YearMonth first, YearMonth last) {
+
+        invalidations.incrementAndGet();
+
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            months.remove(month);
+        }
+    }
+
+    private List<SalesTotals> getMonth(YearMonth month, Set<ReportGrouping> grouping) {
+
+        final Map<Set<ReportGrouping>, List<SalesTotals>> cached = months.get(month);
+        if (cached != null && cached.containsKey(grouping)) {
+            return cached.get(grouping);
+        }
+
+        final long version = invalidations.get();
+        final List<SalesTotals> totals = saleDao.getTotalsInDateRange(month.atDay(1).atStartOfDay(),
+                month.plusMonths(1).atDay(1).atStartOfDay(), false, grouping);
+
+        if (totals != null) {
+            months.keySet().removeIf(cachedMonth -> cachedMonth.isBefore(openMonth().minusMonths(maxMonths)));
+
+            // Serialized with the removal of the month, so totals read before an invalidation are never cached
+            months.compute(month, (key, byGrouping) -> {
+                if (invalidations.get() != version) {
+                    return byGrouping;
+                }
+                final Map<Set<ReportGrouping>, List<SalesTotals>> updated =
+                        byGrouping == null ? new ConcurrentHashMap<>() : byGrouping;
+                updated.put(grouping, Collections.unmodifiableList(totals));
+                return updated;
+            });
+        }
+
+        return totals;
+    }
+
+    /**
+     * Add copies of groups to totals, the cached groups are never changed.
+     *
+     * @return false if groups is null
+     */
+    private static boolean add(Map<SalesTotals, SalesTotals> totals, List<SalesTotals> groups) {
+
+        if (groups == null) {
+            return false;
+        }
+
+        for (SalesTotals group : groups) {
+            if (group.getSales() > 0) {
+                totals.computeIfAbsent(group, key -> new SalesTotals(key.getPeriod(), key.getProduct_type(),
+                        key.getProduct_id())).add(group);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * First month not closed yet.
+     */
+    private YearMonth openMonth() {
+
+        return YearMonth.from(LocalDateTime.now().minusNanos(TimeUnit.MILLISECONDS.toNanos(closedAfterMillis)));
+    }
+}
@@ -0,0 +1,154 @@
+package bg.startit.products.service;
+
+import bg.startit.products.dto.sale.SalesReportDto;
+import bg.startit.products.model.ReportGrouping;
+import bg.startit.products.model.ReportJob;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compute sales reports in background on a few threads of their own, so long reports hold no request thread.
+ * A report submitted while the same report is pending or running joins that job instead of computing it again.
+ * Finished jobs are kept with their result for resultTtlMs.
+ */
+@Service
+public class ReportJobService {
+
+    @Value("${products.sales.reports.threads:2}")
+    private int threads;
+
+    @Value("${products.sales.reports.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${products.sales.reports.result-ttl-ms:3600000}")
+    private long resultTtlMillis;
+
+    private final SaleService saleService;
+
+    private final ConcurrentMap<String, ReportJob> jobs = new ConcurrentHashMap<>();
+
+    /**
+     * Pending and running jobs by {@link ReportJob#getKey()}.
+     */
+    private final ConcurrentMap<String, ReportJob> inFlight = new ConcurrentHashMap<>();
+
+    private ThreadPoolExecutor executor;
+
+    public ReportJobService(SaleService saleService) {
+
+        this.saleService = saleService;
+    }
+
+    @PostConstruct
+    public void start() {
+
+        final AtomicInteger count = new AtomicInteger();
+
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "report-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+
+        executor.shutdownNow();
+    }
+
+    /**
+     * Compute the report of the sales from start until end in background, see {@link SaleService#getReport}.
+     *
+     * @return the new job, or the pending or running job of the same report
+     * @throws ReportQueueFullException if too many reports are waiting
+     */
+    public ReportJob submit(LocalDateTime start, LocalDateTime end, Set<ReportGrouping> groupBy) {
+
+        removeExpired();
+
+        final ReportJob submitted = new ReportJob(start, end,
+                groupBy.isEmpty() ? EnumSet.noneOf(ReportGrouping.class) : EnumSet.copyOf(groupBy));
+        final ReportJob job = inFlight.computeIfAbsent(submitted.getKey(), key -> submitted);
+
+        if (job != submitted) {
+            return job;
+        }
+
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            inFlight.remove(job.getKey(), job);
+            throw new ReportQueueFullException();
+        }
+
+        return job;
+    }
+
+    /**
+     * The job of id, null if there is no such job or its result expired.
+     */
+    public ReportJob find(String id) {
+
+        final ReportJob job = jobs.get(id);
+
+        if (job == null || isExpired(job, LocalDateTime.now())) {
+            return null;
+        }
+
+        return job;
+    }
+
+    private void run(ReportJob job) {
+
+        job.setStatus(ReportJob.Status.RUNNING);
+
+        ReportJob.Status status = ReportJob.Status.FAILED;
+        try {
+            final SalesReportDto report = saleService.getReport(job.getStart(), job.getEnd(), job.getGroup_by());
+
+            if (report != null) {
+                job.setResult(report);
+                status = ReportJob.Status.DONE;
+            }
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            final LocalDateTime now = LocalDateTime.now();
+
+            // Finished and expires are set before the status polled by clients
+            job.setFinished(now);
+            job.setExpires(now.plusNanos(TimeUnit.MILLISECONDS.toNanos(resultTtlMillis)));
+            job.setStatus(status);
+            inFlight.remove(job.getKey(), job);
+        }
+    }
+
+    private void removeExpired() {
+
+        final LocalDateTime now = LocalDateTime.now();
+
+        jobs.values().removeIf(job -> isExpired(job, now));
+    }
+
+    private static boolean isExpired(ReportJob job, LocalDateTime now) {
+
+        return job.getExpires() != null && !job.getExpires().isAfter(now);
+    }
+}
@@ -0,0 +1,11 @@
+package bg.startit.products.service;
+
+/**
+ * Too many reports are waiting to be computed by {@link ReportJobService}, the report is not accepted.
+ */
+public class ReportQueueFullException extends RuntimeException {
+
+    public ReportQueueFullException() {
+        super("Too many reports waiting to be computed");
+    }
+}
@@ -0,0 +1,174 @@
+package bg.startit.products.service;
+
+import bg.startit.products.dao.ReservationDao;
+import bg.startit.products.model.Reservation;
+import bg.startit.products.model.Sale;
+import bg.startit.products.timer.TimingWheel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Business logic for Reservation. Reservations are released when they expire by a timer of a {@link TimingWheel},
+ * the timers of the reservations stored before a restart are scheduled again on startup.
+ */
+@Service
+public class ReservationService {
+
+    /**
+     * Slots per level of the timing wheel, with 100 ms ticks 3 levels cover 7 hours.
+     */
+    private static final int WHEEL_SIZE = 64;
+
+    private static final int WHEEL_LEVELS = 3;
+
+    private static final long RETRY_DELAY_MILLIS = 1000;
+
+    @Value("${products.sales.reservations.ttl-ms:900000}")
+    private long ttlMillis;
+
+    @Value("${products.sales.reservations.tick-ms:100}")
+    private long tickMillis;
+
+    private final ReservationDao reservationDao;
+
+    private final LiveSalesService liveSalesService;
+
+    private final TopSalesService topSalesService;
+
+    private final ReportCacheService reportCacheService;
+
+    private final Map<Long, TimingWheel.Timeout> expiries = new ConcurrentHashMap<>();
+
+    private ExecutorService releaser;
+
+    private TimingWheel timingWheel;
+
+    public ReservationService(ReservationDao reservationDao, LiveSalesService liveSalesService,
+                              TopSalesService topSalesService, ReportCacheService reportCacheService) {
+
+        this.reservationDao = reservationDao;
+        this.liveSalesService = liveSalesService;
+        this.topSalesService = topSalesService;
+        this.reportCacheService = reportCacheService;
+    }
+
+    @PostConstruct
+    public void start() {
+
+        releaser = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "reservation-release");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timingWheel = new TimingWheel(tickMillis, TimeUnit.MILLISECONDS, WHEEL_SIZE, WHEEL_LEVELS, releaser,
+                "reservation-expiry");
+
+        for (Reservation reservation : reservationDao.findAll()) {
+            scheduleExpiry(reservation);
+        }
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+
+        // Reservations expiring meanwhile are released after the next start
+        timingWheel.stop();
+        releaser.shutdown();
+        releaser.awaitTermination(tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hold up to quantity items of a product for ttlMs.
+     *
+     * @return the reservation with the quantity actually held, null if sold out
+     */
+    public Reservation reserve(Long productId, Integer productType, Long quantity) {
+
+        final Reservation reservation = reservationDao.reserve(productId, productType, quantity,
+                LocalDateTime.now().plusNanos(TimeUnit.MILLISECONDS.toNanos(ttlMillis)));
+
+        if (reservation != null) {
+            scheduleExpiry(reservation);
+        }
+
+        return reservation;
+    }
+
+    /**
+     * Sell the held items.
+     *
+     * @return the created sale, null if there is no such reservation or it expired
+     */
+    public Sale confirm(Long id) {
+
+        final Sale sale = reservationDao.confirm(id, LocalDateTime.now());
+
+        if (sale != null) {
+            cancelExpiry(id);
+            liveSalesService.record(sale);
+            topSalesService.record(sale);
+            reportCacheService.record(sale);
+        }
+
+        return sale;
+    }
+
+    /**
+     * Put the held items back in stock.
+     *
+     * @return false if there is no such reservation
+     */
+    public boolean release(Long id) {
+
+        final boolean released = reservationDao.release(id);
+
+        if (released) {
+            cancelExpiry(id);
+        }
+
+        return released;
+    }
+
+    private void scheduleExpiry(Reservation reservation) {
+
+        final long delayMillis = Duration.between(LocalDateTime.now(), reservation.getExpires()).toMillis();
+
+        expiries.put(reservation.getId(),
+                timingWheel.schedule(() -> expire(reservation.getId()), delayMillis, TimeUnit.MILLISECONDS));
+    }
+
+    private void expire(Long id) {
+
+        try {
+            // Not found if confirmed or released meanwhile
+            if (reservationDao.release(id) || reservationDao.findById(id) == null) {
+                expiries.remove(id);
+                return;
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+
+        // The database is not available, try again
+        expiries.put(id, timingWheel.schedule(() -> expire(id), RETRY_DELAY_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    private void cancelExpiry(Long id) {
+
+        final TimingWheel.Timeout timeout = expiries.remove(id);
+
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+}
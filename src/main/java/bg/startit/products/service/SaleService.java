@@ -1,11 +1,28 @@
 package bg.startit.products.service;
 
+import bg.startit.products.dao.HotStockDao;
 import bg.startit.products.dao.SaleDao;
+import bg.startit.products.dao.SalePartitionDao;
+import bg.startit.products.dao.SaleQueueFullException;
+import bg.startit.products.dao.SaleRollupDao;
+import bg.startit.products.dao.SaleWriter;
+import bg.startit.products.dto.sale.LiveSalesDto;
+import bg.startit.products.dto.sale.SalesReportDto;
+import bg.startit.products.dto.sale.TopSalesDto;
+import bg.startit.products.model.LiveWindow;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.ReportGrouping;
 import bg.startit.products.model.Sale;
+import bg.startit.products.model.SalesTotals;
 import org.springframework.stereotype.Service;
 
-import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Business logic for Sale
@@ -15,24 +32,200 @@ public class SaleService {
 
     private final SaleDao saleDao;
 
-    public SaleService(SaleDao saleDao) {
+    private final SaleWriter saleWriter;
+
+    private final HotStockDao hotStockDao;
+
+    private final SaleRollupDao saleRollupDao;
+
+    private final SalePartitionDao salePartitionDao;
+
+    private final LiveSalesService liveSalesService;
+
+    private final TopSalesService topSalesService;
+
+    private final ReportCacheService reportCacheService;
+
+    public SaleService(SaleDao saleDao, SaleWriter saleWriter, HotStockDao hotStockDao,
+                       SaleRollupDao saleRollupDao, SalePartitionDao salePartitionDao,
+                       LiveSalesService liveSalesService, TopSalesService topSalesService,
+                       ReportCacheService reportCacheService) {
 
         this.saleDao = saleDao;
+        this.saleWriter = saleWriter;
+        this.hotStockDao = hotStockDao;
+        this.saleRollupDao = saleRollupDao;
+        this.salePartitionDao = salePartitionDao;
+        this.liveSalesService = liveSalesService;
+        this.topSalesService = topSalesService;
+        this.reportCacheService = reportCacheService;
     }
 
+    /**
+     * Record a sale, written behind if products.sales.write-behind.enabled.
+     *
+     * @throws SaleQueueFullException if too many sales are waiting to be written
+     */
     public boolean create(Sale sale) {
 
-        return saleDao.create(sale);
+        if (saleWriter.isEnabled() && saleWriter.submit(sale) || saleDao.create(sale)) {
+            liveSalesService.record(sale);
+            topSalesService.record(sale);
+            reportCacheService.record(sale);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Sell up to nb_sold items of the product of sale.
+     * With products.sales.write-behind.enabled the stock is taken at once and the sale is written behind.
+     * Hot products are sold from their in-memory stock, see {@link HotStockDao}.
+     *
+     * @return the created sale with the sold quantity and the price charged, null if sold out or not recorded
+     * @throws SaleQueueFullException if too many sales are waiting to be written, nothing is sold then
+     */
+    public Sale sell(Sale sale) {
+
+        final Sale sold = sellFromStock(sale);
+
+        if (sold != null) {
+            liveSalesService.record(sold);
+            topSalesService.record(sold);
+            reportCacheService.record(sold);
+        }
+
+        return sold;
+    }
+
+    private Sale sellFromStock(Sale sale) {
+
+        // Hot products require write-behind, see HotStockDao
+        if (!saleWriter.isEnabled()) {
+            return saleDao.sell(sale);
+        }
+
+        final boolean hot = hotStockDao.isHot(sale.getProduct_type(), sale.getProduct_id());
+
+        // Refuse before taking the stock, so a sale taken out of stock is never refused
+        if (!saleWriter.reserve()) {
+            throw new SaleQueueFullException();
+        }
+
+        final Sale sold = hot ? hotStockDao.takeStock(sale) : saleDao.takeStock(sale);
+
+        if (sold == null) {
+            saleWriter.release();
+            return null;
+        }
+
+        // If the journal is not writable, record the sale directly
+        if (!saleWriter.submitReserved(sold) && !saleDao.create(sold)) {
+            // Not recorded, so not sold
+            if (hot) {
+                hotStockDao.putBack(sold);
+            } else {
+                saleDao.restock(ProductType.of(sold.getProduct_type()), sold.getProduct_id(), sold.getNb_sold());
+            }
+            return null;
+        }
+
+        return sold;
     }
 
-    public Long getCountAllInDateRange(LocalDateTime start, LocalDateTime end) {
+    /**
+     * Sell all lines of an order or none of them.
+     *
+     * @throws bg.startit.products.dao.InsufficientStockException with the lines that can not be sold
+     */
+    public List<Sale> sellAll(List<Sale> lines, LocalDateTime saleDate) {
+
+        final List<Sale> sales = saleDao.sellAll(lines, saleDate);
+
+        if (sales != null) {
+            liveSalesService.record(sales);
+            topSalesService.record(sales);
+            sales.forEach(reportCacheService::record);
+        }
+
+        return sales;
+    }
+
+    /**
+     * Live totals of the sales in window, see {@link LiveSalesService}.
+     */
+    public LiveSalesDto getLive(LiveWindow window) {
+
+        return liveSalesService.getWindow(window);
+    }
+
+    /**
+     * Best sellers of productType in window, see {@link TopSalesService}.
+     */
+    public TopSalesDto getTop(ProductType productType, int n, LiveWindow window, boolean exact) {
+
+        return topSalesService.getTop(productType, n, window, exact);
+    }
+
+    /**
+     * Totals of the sales from start to end, both included, overall and by the groups of groupBy.
+     *
+     * @return null if the database is not available
+     */
+    public SalesReportDto getReport(LocalDateTime start, LocalDateTime end, Set<ReportGrouping> groupBy) {
+
+        final List<SalesTotals> groups = reportCacheService.getTotalsInDateRange(start, end, groupBy);
+
+        if (groups == null) {
+            return null;
+        }
+
+        SalesTotals total = new SalesTotals();
+        groups.forEach(total::add);
+
+        return new SalesReportDto(start, end, groupBy, total, groupBy.isEmpty() ? Collections.emptyList() : groups);
+    }
+
+    /**
+     * Compute the daily totals of the reports again for the days from start to end, after a backfill of SALE.
+     *
+     * @return the number of totals by day and product written
+     */
+    public int rebuildRollup(LocalDate start, LocalDate end) {
+
+        final int rebuilt = saleRollupDao.rebuild(start, end);
+
+        reportCacheService.invalidate(YearMonth.from(start), YearMonth.from(end));
+
+        return rebuilt;
+    }
+
+    /**
+     * Move the sales of month out of table SALE, see {@link SalePartitionDao#detach}, and roll up the month again
+     * so its totals no longer count them.
+     *
+     * @return false if month has no partition
+     */
+    public boolean detachPartition(YearMonth month) {
+
+        final boolean detached = salePartitionDao.detach(month);
+
+        if (detached) {
+            saleRollupDao.rebuild(month.atDay(1), month.atEndOfMonth());
+        }
+
+        reportCacheService.invalidate(month, month);
 
-        return saleDao.getCountInDateRange(start, end);
+        return detached;
     }
 
-    public BigDecimal getSumAllMoneyInDateRange(LocalDateTime start, LocalDateTime end) {
+    /**
+     * Pass every sale of the days from start to end, both included, to consumer in order of sale date.
+     */
+    public void exportSales(LocalDate start, LocalDate end, Consumer<Sale> consumer) {
 
-        return saleDao.getSumAllMoneyInDateRange(start, end);
+        saleDao.exportInRange(start.atStartOfDay(), end.plusDays(1).atStartOfDay(), consumer);
     }
 
     public Sale findByDate(LocalDateTime sale_date) {
@@ -0,0 +1,198 @@
+package bg.startit.products.timer;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hierarchical timing wheel, schedules and cancels timeouts in O(1) however many are pending.
+ * <p>
+ * Level 0 has one slot per tick, every next level has one slot per full rotation of the level below.
+ * A timeout is placed in the lowest level whose rotation covers its deadline and moved down a level
+ * whenever the slot of the level above it comes around, until it expires from level 0.
+ * Deadlines beyond the top level are placed there again on every of its rotations.
+ * <p>
+ * Timeouts expire at most one tick late and run on the given executor, not on the ticker thread.
+ */
+public class TimingWheel {
+
+    private final long tickNanos;
+
+    private final int bits;
+
+    private final int mask;
+
+    private final Queue<Timeout>[][] slots;
+
+    /**
+     * Timeouts scheduled since the last tick, placed by the ticker thread so the slots need no lock.
+     */
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+
+    private final Executor executor;
+
+    private final Thread ticker;
+
+    private final long startNanos;
+
+    /**
+     * Ticks processed, only accessed by the ticker thread.
+     */
+    private long tick;
+
+    private volatile boolean running = true;
+
+    /**
+     * @param tick      length of a tick, the precision of the timeouts
+     * @param wheelSize slots per level, rounded up to a power of two
+     * @param levels    levels of the wheel, wheelSize^levels ticks are covered without rescheduling
+     * @param executor  runs the expired timeouts
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tick, TimeUnit unit, int wheelSize, int levels, Executor executor, String name) {
+        this.tickNanos = unit.toNanos(tick);
+        this.bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, wheelSize - 1));
+        this.mask = (1 << bits) - 1;
+        this.slots = new Queue[levels][1 << bits];
+        this.executor = executor;
+
+        for (Queue<Timeout>[] level : slots) {
+            for (int i = 0; i < level.length; i++) {
+                level[i] = new ArrayDeque<>();
+            }
+        }
+
+        startNanos = System.nanoTime();
+        ticker = new Thread(this::run, name);
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /**
+     * Run task after delay, or soon if delay is not positive.
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+
+        final long deadlineNanos = System.nanoTime() - startNanos + unit.toNanos(Math.max(0, delay));
+        // Round up, so a timeout never runs before its delay
+        final Timeout timeout = new Timeout(task, (deadlineNanos + tickNanos - 1) / tickNanos);
+
+        scheduled.add(timeout);
+
+        return timeout;
+    }
+
+    /**
+     * Stop the ticker, pending timeouts do not run.
+     */
+    public void stop() throws InterruptedException {
+
+        running = false;
+        ticker.interrupt();
+        ticker.join();
+    }
+
+    private void run() {
+
+        while (running) {
+            final long sleepNanos = (tick + 1) * tickNanos - (System.nanoTime() - startNanos);
+
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                continue;
+            }
+
+            advance();
+        }
+    }
+
+    private void advance() {
+
+        tick++;
+
+        // From the top, so a timeout moved down can move down again in the same tick
+        for (int level = slots.length - 1; level > 0; level--) {
+            if ((tick & ((1L << (bits * level)) - 1)) == 0) {
+                final Queue<Timeout> slot = slots[level][(int) (tick >>> (bits * level)) & mask];
+                for (int i = slot.size(); i > 0; i--) {
+                    place(slot.poll());
+                }
+            }
+        }
+
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            place(timeout);
+        }
+
+        final Queue<Timeout> slot = slots[0][(int) tick & mask];
+        for (int i = slot.size(); i > 0; i--) {
+            timeout = slot.poll();
+            if (timeout.deadlineTick > tick) {
+                // A later rotation
+                slot.add(timeout);
+            } else {
+                expire(timeout);
+            }
+        }
+    }
+
+    private void place(Timeout timeout) {
+
+        if (timeout.cancelled) {
+            return;
+        }
+
+        final long remaining = timeout.deadlineTick - tick;
+
+        if (remaining <= 0) {
+            expire(timeout);
+            return;
+        }
+
+        int level = 0;
+        while (level < slots.length - 1 && remaining >= 1L << (bits * (level + 1))) {
+            level++;
+        }
+
+        slots[level][(int) (timeout.deadlineTick >>> (bits * level)) & mask].add(timeout);
+    }
+
+    private void expire(Timeout timeout) {
+
+        if (!timeout.cancelled) {
+            try {
+                executor.execute(timeout.task);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Scheduled task, cancelled ones are dropped when their slot comes around.
+     */
+    public static final class Timeout {
+
+        private final Runnable task;
+
+        private final long deadlineTick;
+
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineTick) {
+            this.task = task;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+}
@@ -1,14 +1,30 @@
 -- Create H2 database tables and populate with example data
+-- Create dictionary of colors, products reference it by COLOR_ID
+CREATE TABLE COLOR
+(
+    ID          IDENTITY,
+    NAME        VARCHAR(40) NOT NULL UNIQUE
+);
+
+-- Insert the colors of the example products
+INSERT INTO COLOR (NAME) VALUES ('blue');
+INSERT INTO COLOR (NAME) VALUES ('yellow');
+INSERT INTO COLOR (NAME) VALUES ('white');
+INSERT INTO COLOR (NAME) VALUES ('red');
+INSERT INTO COLOR (NAME) VALUES ('black');
+
 -- Create table for cars
 CREATE TABLE CAR
 (
     ID          IDENTITY,
     BRAND_NAME  VARCHAR(40),
     COLOR       VARCHAR(40),
+    COLOR_ID    BIGINT,
     PRICE       DECIMAL,
     WEIGHT      BIGINT,
     LENGTH      BIGINT,
-    QUANTITY    BIGINT
+    QUANTITY    BIGINT,
+    VERSION     BIGINT DEFAULT 0 NOT NULL
 );
 
 -- Insert some cars
@@ -21,16 +37,31 @@ VALUES  ('BMW', 'blue', 450, 10000, 2000, 20);
 INSERT INTO CAR (BRAND_NAME, COLOR, LENGTH, PRICE, WEIGHT, QUANTITY)
 VALUES  ('Ferrari', 'yellow', 550, 100000, 3500, 30);
 
+-- Reference the colors from the dictionary
+UPDATE CAR SET COLOR_ID = (SELECT ID FROM COLOR WHERE COLOR.NAME = CAR.COLOR);
+
+-- Search by color is an index range scan already in price order
+CREATE INDEX CAR_COLOR_PRICE_IDX ON CAR (COLOR_ID, PRICE DESC, ID DESC);
+
+-- H2 plans searches by color on an index of COLOR_ID alone and sorts by price, the foreign key reuses it
+CREATE INDEX CAR_COLOR_IDX ON CAR (COLOR_ID);
+ALTER TABLE CAR ADD FOREIGN KEY (COLOR_ID) REFERENCES COLOR (ID);
+
+-- Search by price is an index range scan already in price order
+CREATE INDEX CAR_PRICE_IDX ON CAR (PRICE DESC, ID DESC);
+
 -- Create table for phones
 CREATE TABLE PHONE
 (
     ID          IDENTITY,
     BRAND_NAME  VARCHAR(40),
     COLOR       VARCHAR(40),
+    COLOR_ID    BIGINT,
     PRICE       DECIMAL,
     WEIGHT      BIGINT,
     LENGTH      BIGINT,
-    QUANTITY    BIGINT
+    QUANTITY    BIGINT,
+    VERSION     BIGINT DEFAULT 0 NOT NULL
 );
 
 -- Insert some phones
@@ -43,16 +74,31 @@ VALUES  ('Samsung', 'white', 8, 400, 1, 2000);
 INSERT INTO PHONE (BRAND_NAME, COLOR, LENGTH, PRICE, WEIGHT, QUANTITY)
 VALUES  ('iHunt', 'red', 6, 50, 1, 3000);
 
+-- Reference the colors from the dictionary
+UPDATE PHONE SET COLOR_ID = (SELECT ID FROM COLOR WHERE COLOR.NAME = PHONE.COLOR);
+
+-- Search by color is an index range scan already in price order
+CREATE INDEX PHONE_COLOR_PRICE_IDX ON PHONE (COLOR_ID, PRICE DESC, ID DESC);
+
+-- H2 plans searches by color on an index of COLOR_ID alone and sorts by price, the foreign key reuses it
+CREATE INDEX PHONE_COLOR_IDX ON PHONE (COLOR_ID);
+ALTER TABLE PHONE ADD FOREIGN KEY (COLOR_ID) REFERENCES COLOR (ID);
+
+-- Search by price is an index range scan already in price order
+CREATE INDEX PHONE_PRICE_IDX ON PHONE (PRICE DESC, ID DESC);
+
 -- Create table for TV-s
 create table TV
 (
     ID          IDENTITY,
     BRAND_NAME  VARCHAR(40),
     COLOR       VARCHAR(40),
+    COLOR_ID    BIGINT,
     PRICE       DECIMAL,
     WEIGHT      BIGINT,
     LENGTH      BIGINT,
-    QUANTITY    BIGINT
+    QUANTITY    BIGINT,
+    VERSION     BIGINT DEFAULT 0 NOT NULL
 );
 
 -- Insert some TV-s
@@ -65,13 +111,80 @@ VALUES  ('LG', 'black', 85, 1200, 2, 200);
 INSERT INTO TV (BRAND_NAME, COLOR, LENGTH, PRICE, WEIGHT, QUANTITY)
 VALUES  ('Samsung', 'red', 105, 180, 2, 300);
 
--- Create table for sales
+-- Reference the colors from the dictionary
+UPDATE TV SET COLOR_ID = (SELECT ID FROM COLOR WHERE COLOR.NAME = TV.COLOR);
+
+-- Search by color is an index range scan already in price order
+CREATE INDEX TV_COLOR_PRICE_IDX ON TV (COLOR_ID, PRICE DESC, ID DESC);
+
+-- H2 plans searches by color on an index of COLOR_ID alone and sorts by price, the foreign key reuses it
+CREATE INDEX TV_COLOR_IDX ON TV (COLOR_ID);
+ALTER TABLE TV ADD FOREIGN KEY (COLOR_ID) REFERENCES COLOR (ID);
+
+-- Search by price is an index range scan already in price order
+CREATE INDEX TV_PRICE_IDX ON TV (PRICE DESC, ID DESC);
+
+-- Create sequence for the ids of the sales, shared by SALE and its monthly tables SALE_yyyyMM
+CREATE SEQUENCE SALE_ID_SEQ;
+
+-- Create table for sales, of the months without a monthly table
 create table SALE
 (
-    SALE_ID         IDENTITY,
+    SALE_ID         BIGINT DEFAULT NEXT VALUE FOR SALE_ID_SEQ PRIMARY KEY,
     PRODUCT_ID      BIGINT,
     NB_SOLD         BIGINT,
     SALE_DATE       DATETIME,
     PRODUCT_TYPE    INT,
     PRICE           DECIMAL
+);
+
+-- Sales in a date range are read from the index only, without the rows of the table
+CREATE INDEX SALE_DATE_IDX ON SALE (SALE_DATE, PRODUCT_TYPE, PRODUCT_ID, NB_SOLD, PRICE);
+
+-- Sales of a product, led by PRODUCT_ID since the few product types alone are not selective
+CREATE INDEX SALE_PRODUCT_IDX ON SALE (PRODUCT_ID, PRODUCT_TYPE);
+
+-- Create table for the last journal entry of the write-behind sales stored in SALE, by journal
+CREATE TABLE SALE_JOURNAL
+(
+    NAME            VARCHAR(200) PRIMARY KEY,
+    LAST_SEQ        BIGINT NOT NULL
+);
+
+-- Create table for the stored responses of sale requests with an Idempotency-Key header
+CREATE TABLE IDEMPOTENCY_KEY
+(
+    IDEMPOTENCY_KEY VARCHAR(200) PRIMARY KEY,
+    REQUEST         VARCHAR(200) NOT NULL,
+    STATUS          INT NOT NULL,
+    BODY            VARCHAR(1000),
+    CREATED         DATETIME NOT NULL
+);
+
+-- Expired responses are deleted by their creation time
+CREATE INDEX IDEMPOTENCY_KEY_CREATED_IDX ON IDEMPOTENCY_KEY (CREATED);
+
+-- Create table for the units held for a customer until the sale is confirmed, released or expired
+CREATE TABLE RESERVATION
+(
+    ID              IDENTITY,
+    PRODUCT_ID      BIGINT NOT NULL,
+    PRODUCT_TYPE    INT NOT NULL,
+    QUANTITY        BIGINT NOT NULL,
+    PRICE           DECIMAL NOT NULL,
+    EXPIRES         DATETIME NOT NULL
+);
+
+-- Create table for the totals of the sales by day and product, updated with every sale
+CREATE TABLE SALE_ROLLUP
+(
+    SALE_DAY        DATE NOT NULL,
+    PRODUCT_TYPE    INT NOT NULL,
+    PRODUCT_ID      BIGINT NOT NULL,
+    SALES           BIGINT NOT NULL,
+    NB_SOLD         BIGINT NOT NULL,
+    PRICE           DECIMAL NOT NULL,
+    MIN_PRICE       DECIMAL NOT NULL,
+    MAX_PRICE       DECIMAL NOT NULL,
+    PRIMARY KEY (SALE_DAY, PRODUCT_TYPE, PRODUCT_ID)
 );
\ No newline at end of file
@@ -1,4 +1,21 @@
 -- Create Oracle database tables and populate with example data
+-- Drop existing dictionary of colors and the foreign keys to it
+DROP TABLE COLOR CASCADE CONSTRAINTS PURGE;
+
+-- Create dictionary of colors, products reference it by COLOR_ID
+CREATE TABLE COLOR
+(
+    ID          NUMBER generated as identity primary key,
+    NAME        VARCHAR2(40) not null unique
+);
+
+-- Insert the colors of the example products
+INSERT INTO COLOR (NAME) VALUES ('blue');
+INSERT INTO COLOR (NAME) VALUES ('yellow');
+INSERT INTO COLOR (NAME) VALUES ('white');
+INSERT INTO COLOR (NAME) VALUES ('red');
+INSERT INTO COLOR (NAME) VALUES ('black');
+
 -- Drop existing table for cars
 DROP TABLE CAR PURGE;
 
@@ -8,10 +25,12 @@ CREATE TABLE CAR
     ID          NUMBER generated as identity,
     BRAND_NAME  VARCHAR2(40) not null,
     COLOR       VARCHAR2(40) not null,
+    COLOR_ID    NUMBER references COLOR (ID),
     PRICE       DECIMAL,
     WEIGHT      NUMBER,
     LENGTH      NUMBER,
-    QUANTITY    NUMBER
+    QUANTITY    NUMBER,
+    VERSION     NUMBER default 0 not null
 );
 
 -- Insert some cars
@@ -24,6 +43,15 @@ VALUES  ('BMW', 'blue', 450, 10000, 2000, 20);
 INSERT INTO CAR (BRAND_NAME, COLOR, LENGTH, PRICE, WEIGHT, QUANTITY)
 VALUES  ('Ferrari', 'yellow', 550, 100000, 3500, 30);
 
+-- Reference the colors from the dictionary
+UPDATE CAR SET COLOR_ID = (SELECT ID FROM COLOR WHERE COLOR.NAME = CAR.COLOR);
+
+-- Search by color is an index range scan already in price order
+CREATE INDEX CAR_COLOR_PRICE_IDX ON CAR (COLOR_ID, PRICE DESC, ID DESC);
+
+-- Search by price is an index range scan already in price order
+CREATE INDEX CAR_PRICE_IDX ON CAR (PRICE DESC, ID DESC);
+
 -- Drop existing table for phones
 DROP TABLE PHONE PURGE;
 
@@ -33,10 +61,12 @@ CREATE TABLE PHONE
     ID          NUMBER generated as identity,
     BRAND_NAME  VARCHAR2(40) not null,
     COLOR       VARCHAR2(40) not null,
+    COLOR_ID    NUMBER references COLOR (ID),
     PRICE       DECIMAL,
     WEIGHT      NUMBER,
     LENGTH      NUMBER,
-    QUANTITY    NUMBER
+    QUANTITY    NUMBER,
+    VERSION     NUMBER default 0 not null
 );
 
 -- Insert some phones
@@ -49,6 +79,15 @@ VALUES  ('Samsung', 'white', 8, 400, 1, 2000);
 INSERT INTO PHONE (BRAND_NAME, COLOR, LENGTH, PRICE, WEIGHT, QUANTITY)
 VALUES  ('iHunt', 'red', 6, 50, 1, 3000);
 
+-- Reference the colors from the dictionary
+UPDATE PHONE SET COLOR_ID = (SELECT ID FROM COLOR WHERE COLOR.NAME = PHONE.COLOR);
+
+-- Search by color is an index range scan already in price order
+CREATE INDEX PHONE_COLOR_PRICE_IDX ON PHONE (COLOR_ID, PRICE DESC, ID DESC);
+
+-- Search by price is an index range scan already in price order
+CREATE INDEX PHONE_PRICE_IDX ON PHONE (PRICE DESC, ID DESC);
+
 -- Drop existing table for tvs
 DROP TABLE TV PURGE;
 
@@ -58,10 +97,12 @@ CREATE TABLE TV
     ID          NUMBER generated as identity,
     BRAND_NAME  VARCHAR2(40) not null,
     COLOR       VARCHAR2(40) not null,
+    COLOR_ID    NUMBER references COLOR (ID),
     PRICE       DECIMAL,
     WEIGHT      NUMBER,
     LENGTH      NUMBER,
-    QUANTITY    NUMBER
+    QUANTITY    NUMBER,
+    VERSION     NUMBER default 0 not null
 );
 
 -- Insert some TV-s
@@ -74,10 +115,20 @@ VALUES  ('LG', 'black', 85, 1200, 2, 200);
 INSERT INTO TV (BRAND_NAME, COLOR, LENGTH, PRICE, WEIGHT, QUANTITY)
 VALUES  ('Samsung', 'red', 105, 180, 2, 300);
 
+-- Reference the colors from the dictionary
+UPDATE TV SET COLOR_ID = (SELECT ID FROM COLOR WHERE COLOR.NAME = TV.COLOR);
+
+-- Search by color is an index range scan already in price order
+CREATE INDEX TV_COLOR_PRICE_IDX ON TV (COLOR_ID, PRICE DESC, ID DESC);
+
+-- Search by price is an index range scan already in price order
+CREATE INDEX TV_PRICE_IDX ON TV (PRICE DESC, ID DESC);
+
 -- Drop existing table for sales
 DROP TABLE SALE PURGE;
 
--- Create table for sales
+-- Create table for sales, partitioned by month so range queries read only the months in range
+-- and a month can be detached in O(1), a partition is created with the first sale of its month
 CREATE TABLE SALE
 (
     SALE_ID         NUMBER generated as identity,
@@ -86,4 +137,72 @@ CREATE TABLE SALE
     SALE_DATE       DATE,
     PRODUCT_TYPE    INT,
     PRICE           DECIMAL
+)
+PARTITION BY RANGE (SALE_DATE) INTERVAL (NUMTOYMINTERVAL(1, 'MONTH'))
+(
+    PARTITION SALE_BEFORE_2020 VALUES LESS THAN (DATE '2020-01-01')
+);
+
+-- Sales in a date range are read from the index only, without the rows of the table,
+-- the indexes are local so a partition is still detached in O(1)
+CREATE INDEX SALE_DATE_IDX ON SALE (SALE_DATE, PRODUCT_TYPE, PRODUCT_ID, NB_SOLD, PRICE) LOCAL;
+
+-- Sales of a product, led by PRODUCT_ID since the few product types alone are not selective
+CREATE INDEX SALE_PRODUCT_IDX ON SALE (PRODUCT_ID, PRODUCT_TYPE) LOCAL;
+
+-- Drop existing write-behind checkpoints
+DROP TABLE SALE_JOURNAL PURGE;
+
+-- Create table for the last journal entry of the write-behind sales stored in SALE, by journal
+CREATE TABLE SALE_JOURNAL
+(
+    NAME            VARCHAR2(200) primary key,
+    LAST_SEQ        NUMBER not null
+);
+
+-- Drop existing stored responses
+DROP TABLE IDEMPOTENCY_KEY PURGE;
+
+-- Create table for the stored responses of sale requests with an Idempotency-Key header
+CREATE TABLE IDEMPOTENCY_KEY
+(
+    IDEMPOTENCY_KEY VARCHAR2(200) primary key,
+    REQUEST         VARCHAR2(200) not null,
+    STATUS          INT not null,
+    BODY            VARCHAR2(1000),
+    CREATED         DATE not null
+);
+
+-- Expired responses are deleted by their creation time
+CREATE INDEX IDEMPOTENCY_KEY_CREATED_IDX ON IDEMPOTENCY_KEY (CREATED);
+
+-- Drop existing reservations
+DROP TABLE RESERVATION PURGE;
+
+-- Create table for the units held for a customer until the sale is confirmed, released or expired
+CREATE TABLE RESERVATION
+(
+    ID              NUMBER generated as identity primary key,
+    PRODUCT_ID      NUMBER not null,
+    PRODUCT_TYPE    INT not null,
+    QUANTITY        NUMBER not null,
+    PRICE           DECIMAL not null,
+    EXPIRES         DATE not null
+);
+
+-- Drop existing sale totals
+DROP TABLE SALE_ROLLUP PURGE;
+
+-- Create table for the totals of the sales by day and product, updated with every sale
+CREATE TABLE SALE_ROLLUP
+(
+    SALE_DAY        DATE not null,
+    PRODUCT_TYPE    INT not null,
+    PRODUCT_ID      NUMBER not null,
+    SALES           NUMBER not null,
+    NB_SOLD         NUMBER not null,
+    PRICE           DECIMAL not null,
+    MIN_PRICE       DECIMAL not null,
+    MAX_PRICE       DECIMAL not null,
+    primary key (SALE_DAY, PRODUCT_TYPE, PRODUCT_ID)
 );
\ No newline at end of file
@@ -1,6 +1,7 @@
 package bg.startit.products.controller;
 
 import bg.startit.products.model.Phone;
+import bg.startit.products.pagination.CountStrategy;
 import bg.startit.products.service.PhoneService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
@@ -11,6 +12,7 @@ import org.springframework.boot.test.context.SpringBootContextLoader;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.security.test.context.support.WithSecurityContextTestExecutionListener;
 import org.springframework.test.context.ActiveProfiles;
@@ -21,9 +23,14 @@ import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
 import java.math.BigDecimal;
+import java.util.Collections;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -50,11 +57,8 @@ class PhoneResourceTest extends AbstractTestNGSpringContextTests {
 
         phone = new Phone("brand_name", "color", BigDecimal.ONE, 1L, 1L, 1L);
 
-        if (phoneService.create(phone)) {
-            if (phoneService.findProduct("color", PageRequest.of(1, 1)).get().findFirst().isPresent()) {
-                phone.setId(((Phone) phoneService.findProduct("color", PageRequest.of(1, 1)).get().findFirst().get()).getId());
-            }
-        }
+        // The id generated for it is set on it
+        phoneService.create(phone);
     }
 
     @AfterEach
@@ -105,6 +109,59 @@ class PhoneResourceTest extends AbstractTestNGSpringContextTests {
                 .andExpect(jsonPath("pageNumber").value(0));
     }
 
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getAllRest_returnExactTotal() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/all")
+                        .param("pageNumber", "0")
+                        .param("pageSize", "1")
+                        .param("total", "EXACT")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("count").value(1))
+                .andExpect(jsonPath("total").value(phoneService.getAll(PageRequest.of(0, 1), CountStrategy.EXACT)
+                        .getTotalElements()));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getAllRest_returnSuccess_firstPageByCursor() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/all")
+                        .param("cursor", "")
+                        .param("pageSize", "1")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("count").value(1))
+                .andExpect(jsonPath("nextCursor").exists());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getAllRest_returnBadRequest_whenPageSizeTooLarge() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/all")
+                        .param("cursor", "")
+                        .param("pageSize", "1001")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getAllRest_returnBadRequest_whenCursorInvalid() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/all")
+                        .param("cursor", "not a cursor")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @WithMockUser(username = "admin", password = "admin")
     void getPhoneByIdRest_returnSuccess() throws Exception {
@@ -123,6 +180,33 @@ class PhoneResourceTest extends AbstractTestNGSpringContextTests {
                 .andExpect(jsonPath("quantity").value(1));
     }
 
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getPhoneByIdRest_returnOnlySelectedFields() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/" + phone.getId())
+                        .param("fields", "color,price")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("id").value(phone.getId()))
+                .andExpect(jsonPath("color").value("color"))
+                .andExpect(jsonPath("price").value("1.0 lv."))
+                .andExpect(jsonPath("brand_name").doesNotExist())
+                .andExpect(jsonPath("quantity").doesNotExist());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getPhoneByIdRest_returnBadRequest_whenFieldUnknown() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/" + phone.getId())
+                        .param("fields", "color,unknown")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @WithMockUser(username = "admin", password = "admin")
     void getPhoneByIdRest_returnMethodNotAllowed_whenIdBlank() throws Exception {
@@ -144,6 +228,39 @@ class PhoneResourceTest extends AbstractTestNGSpringContextTests {
                 .andExpect(jsonPath("brand_name").value("Phone not found!"));
     }
 
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getPhonesByIdsRest_returnFoundInOrder_andMissing() throws Exception {
+
+        final long idNotExists = Long.MAX_VALUE;
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/batch")
+                        .param("ids", idNotExists + "," + phone.getId())
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("count").value(1))
+                .andExpect(jsonPath("content[0].id").value(phone.getId()))
+                .andExpect(jsonPath("missing[0]").value(idNotExists));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void exportRest_returnCsvWithHeader() throws Exception {
+
+        MvcResult mvcResult = mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/export")
+                        .param("format", "CSV")
+                )
+                .andReturn();
+
+        mockMvc
+                .perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andExpect(content().contentTypeCompatibleWith("text/csv"))
+                .andExpect(content().string(startsWith("id,brand_name,color,price,weight,length,quantity,version\n")));
+    }
+
     @Test
     @WithMockUser(username = "admin", password = "admin")
     void getBrandNameRest_returnSuccess() throws Exception {
@@ -341,6 +458,25 @@ class PhoneResourceTest extends AbstractTestNGSpringContextTests {
                 .andExpect(status().isOk());
     }
 
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void getPhoneByColorRest_returnOnlyExactMatches() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/colors/" + "colo")
+                        .param("match", "EXACT")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("count").value(0));
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/colors/" + "colo")
+                        .param("match", "PREFIX")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("content[0].color").value("color"));
+    }
+
     @Test
     @WithMockUser(username = "admin", password = "admin")
     void getPhoneByPriceRest_returnSuccess() throws Exception {
@@ -400,6 +536,41 @@ class PhoneResourceTest extends AbstractTestNGSpringContextTests {
         assertThat(content).isEqualTo("Phone not created!");
     }
 
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void createBulkRest_returnResultForEveryPhone() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/phones/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"brand_name\":\"bulk\",\"color\":\"bulk\",\"price\":1,\"weight\":1,\"length\":1,\"quantity\":1}," +
+                                "{\"brand_name\":\"\",\"color\":\"bulk\",\"price\":1,\"weight\":1,\"length\":1,\"quantity\":1}]")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("[0].index").value(0))
+                .andExpect(jsonPath("[0].success").value(true))
+                .andExpect(jsonPath("[0].id").exists())
+                .andExpect(jsonPath("[1].index").value(1))
+                .andExpect(jsonPath("[1].success").value(false));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void updateBulkRest_returnResultForEveryPhone() throws Exception {
+
+        final long idNotExists = Long.MAX_VALUE;
+
+        mockMvc
+                .perform(request(HttpMethod.PUT, "/api/v1/phones/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"id\":" + phone.getId() + ",\"brand_name\":\"bulk\",\"color\":\"color\",\"price\":2,\"weight\":2,\"length\":2,\"quantity\":2}," +
+                                "{\"id\":" + idNotExists + ",\"brand_name\":\"bulk\",\"color\":\"color\",\"price\":2,\"weight\":2,\"length\":2,\"quantity\":2}]")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("[0].success").value(true))
+                .andExpect(jsonPath("[1].success").value(false));
+    }
+
     @Test
     @WithMockUser(username = "admin", password = "admin")
     void updateRest_returnSuccess() throws Exception {
@@ -420,6 +591,55 @@ class PhoneResourceTest extends AbstractTestNGSpringContextTests {
         assertThat(content).isEqualTo("Phone successfully updated!");
     }
 
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void updateRest_returnPreconditionFailed_whenIfMatchIsStale() throws Exception {
+
+        final String eTag = mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/" + phone.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        for (int expectedStatus : new int[]{200, 412}) {
+            mockMvc
+                    .perform(request(HttpMethod.PUT, "/api/v1/phones/update/" + phone.getId())
+                            .header("If-Match", eTag)
+                            .param("brand_name", "brandName2")
+                            .param("color", "color2")
+                            .param("price", "2")
+                            .param("weight", "2")
+                            .param("length", "2")
+                            .param("quantity", "2")
+                    )
+                    .andExpect(status().is(expectedStatus))
+                    // The current version on a 412, so the client can read it again
+                    .andExpect(header().exists("ETag"));
+        }
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void updateRest_returnBadRequest_whenUpdateFailsWithIfMatch() throws Exception {
+
+        final String eTag = mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/phones/" + phone.getId()))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getHeader("ETag");
+
+        // Longer than the column, a failed write and not a stale version
+        mockMvc
+                .perform(request(HttpMethod.PUT, "/api/v1/phones/update/" + phone.getId())
+                        .header("If-Match", eTag)
+                        .param("brand_name", String.join("", Collections.nCopies(41, "b")))
+                        .param("color", "color2")
+                        .param("price", "2")
+                        .param("weight", "2")
+                        .param("length", "2")
+                        .param("quantity", "2")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @WithMockUser(username = "admin", password = "admin")
     void updateRest_returnBadRequest_whenParamsMissing() throws Exception {
@@ -1,13 +1,19 @@
 package bg.startit.products.controller;
 
+import bg.startit.products.export.SaleExportReader;
+import com.jayway.jsonpath.JsonPath;
+import bg.startit.products.dao.IdempotencyDao;
 import bg.startit.products.model.Car;
+import bg.startit.products.model.IdempotentResponse;
 import bg.startit.products.model.Phone;
+import bg.startit.products.model.ProductType;
 import bg.startit.products.model.Sale;
 import bg.startit.products.model.TV;
 import bg.startit.products.service.CarService;
 import bg.startit.products.service.PhoneService;
 import bg.startit.products.service.SaleService;
 import bg.startit.products.service.TVService;
+import bg.startit.products.service.TopSalesService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -17,6 +23,7 @@ import org.springframework.boot.test.context.SpringBootContextLoader;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.security.test.context.support.WithMockUser;
 import org.springframework.security.test.context.support.WithSecurityContextTestExecutionListener;
 import org.springframework.test.context.ActiveProfiles;
@@ -26,11 +33,30 @@ import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 
+import java.io.ByteArrayInputStream;
 import java.math.BigDecimal;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.user;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @SpringBootTest
@@ -52,6 +78,9 @@ class SaleResourceTest extends AbstractTestNGSpringContextTests {
     @Autowired
     private SaleService saleService;
 
+    @Autowired
+    private IdempotencyDao idempotencyDao;
+
     @Autowired
     private TVService tvService;
 
@@ -280,6 +309,202 @@ class SaleResourceTest extends AbstractTestNGSpringContextTests {
         assertThat(content).isEqualTo("Sale not created! No such product type exists.");
     }
 
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void orderRest_returnConflict_andSellNothing_ifOneLineIsSoldOut() throws Exception {
+
+        Car car = new Car("brand_name", "order_color", BigDecimal.ONE, 1L, 1L, 5L);
+        carService.create(car);
+        car.setId(((Car) carService.findProduct("order_color", PageRequest.of(0, 1)).get().findFirst().get()).getId());
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/orders")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"product_id\": " + car.getId() + ", \"product_type\": 1, \"nb_sold\": 2}," +
+                                "{\"product_id\": " + Long.MAX_VALUE + ", \"product_type\": 2, \"nb_sold\": 1}]")
+                )
+                .andExpect(status().isConflict())
+                .andExpect(jsonPath("unavailable[0].product_id").value(Long.MAX_VALUE));
+
+        final Long quantityLeft = ((Car) carService.findProduct(car.getId())).getQuantity();
+
+        carService.delete(car.getId());
+
+        assertThat(quantityLeft).isEqualTo(5L);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void createRest_sellOnce_ifRetriedWithSameIdempotencyKey() throws Exception {
+
+        Car car = new Car("brand_name", "idempotent_color", BigDecimal.ONE, 1L, 1L, 5L);
+        carService.create(car);
+        car.setId(((Car) carService.findProduct("idempotent_color", PageRequest.of(0, 1)).get().findFirst().get()).getId());
+
+        final String idempotencyKey = "sale-" + car.getId() + "-" + System.nanoTime();
+
+        for (int i = 0; i < 2; i++) {
+            mockMvc
+                    .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                            .header("Idempotency-Key", idempotencyKey)
+                            .param("product_id", car.getId().toString())
+                            .param("product_type", "1")
+                            .param("quantity", "2")
+                    )
+                    .andExpect(status().isOk());
+        }
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                        .header("Idempotency-Key", idempotencyKey)
+                        .param("product_id", car.getId().toString())
+                        .param("product_type", "1")
+                        .param("quantity", "3")
+                )
+                .andExpect(status().isUnprocessableEntity());
+
+        final Long quantityLeft = ((Car) carService.findProduct(car.getId())).getQuantity();
+
+        carService.delete(car.getId());
+
+        assertThat(quantityLeft).isEqualTo(3L);
+    }
+
+    @Test
+    void createRest_sellOnce_ifSentConcurrentlyWithSameIdempotencyKey() throws Exception {
+
+        Car car = new Car("brand_name", "concurrent_color", BigDecimal.ONE, 1L, 1L, 20L);
+        carService.create(car);
+        car.setId(((Car) carService.findProduct("concurrent_color", PageRequest.of(0, 1)).get().findFirst().get()).getId());
+
+        final String idempotencyKey = "sale-" + car.getId() + "-" + System.nanoTime();
+        final int requests = 8;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(requests);
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Future<MvcResult>> results = new ArrayList<>();
+        for (int i = 0; i < requests; i++) {
+            results.add(executorService.submit(() -> {
+                start.await();
+                return mockMvc
+                        .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                                .with(user("admin"))
+                                .header("Idempotency-Key", idempotencyKey)
+                                .param("product_id", car.getId().toString())
+                                .param("product_type", "1")
+                                .param("quantity", "2")
+                        )
+                        .andReturn();
+            }));
+        }
+        start.countDown();
+
+        Set<String> bodies = new HashSet<>();
+        for (Future<MvcResult> result : results) {
+            assertThat(result.get(1, TimeUnit.MINUTES).getResponse().getStatus()).isEqualTo(200);
+            bodies.add(result.get().getResponse().getContentAsString());
+        }
+        executorService.shutdown();
+
+        final Long quantityLeft = ((Car) carService.findProduct(car.getId())).getQuantity();
+
+        carService.delete(car.getId());
+
+        assertThat(bodies).hasSize(1);
+        assertThat(quantityLeft).isEqualTo(18L);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void createRest_returnResponseOfOtherInstance_ifIdempotencyKeyClaimedThere() throws Exception {
+
+        Car car = new Car("brand_name", "claimed_color", BigDecimal.ONE, 1L, 1L, 5L);
+        carService.create(car);
+        car.setId(((Car) carService.findProduct("claimed_color", PageRequest.of(0, 1)).get().findFirst().get()).getId());
+
+        final String idempotencyKey = "sale-" + car.getId() + "-" + System.nanoTime();
+        final String request = "product_id=" + car.getId() + "&product_type=1&quantity=2";
+
+        // Another instance claimed the key and sells, its response is stored a little later
+        assertThat(idempotencyDao.claim(new IdempotentResponse(idempotencyKey, request, IdempotentResponse.PENDING,
+                null, LocalDateTime.now()), LocalDateTime.now().minusDays(1))).isTrue();
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        executorService.submit(() -> {
+            Thread.sleep(300);
+            return idempotencyDao.complete(new IdempotentResponse(idempotencyKey, request, 200,
+                    "Sold by the other instance", null));
+        });
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                        .header("Idempotency-Key", idempotencyKey)
+                        .param("product_id", car.getId().toString())
+                        .param("product_type", "1")
+                        .param("quantity", "2")
+                )
+                .andExpect(status().isOk())
+                .andExpect(content().string("Sold by the other instance"));
+        executorService.shutdown();
+
+        final Long quantityLeft = ((Car) carService.findProduct(car.getId())).getQuantity();
+
+        carService.delete(car.getId());
+
+        assertThat(quantityLeft).isEqualTo(5L);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void reserveRest_holdStock_untilReleased() throws Exception {
+
+        Car car = new Car("brand_name", "reserved_color", BigDecimal.ONE, 1L, 1L, 5L);
+        carService.create(car);
+        car.setId(((Car) carService.findProduct("reserved_color", PageRequest.of(0, 1)).get().findFirst().get()).getId());
+
+        MvcResult result = mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/reservations/reserve")
+                        .param("product_id", car.getId().toString())
+                        .param("product_type", "1")
+                        .param("quantity", "2")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("quantity").value(2))
+                .andReturn();
+
+        final Long quantityReserved = ((Car) carService.findProduct(car.getId())).getQuantity();
+
+        final String id = result.getResponse().getContentAsString().replaceAll(".*\"id\":(\\d+).*", "$1");
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/reservations/release/" + id))
+                .andExpect(status().isOk());
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/reservations/confirm/" + id))
+                .andExpect(status().isNotFound());
+
+        final Long quantityReleased = ((Car) carService.findProduct(car.getId())).getQuantity();
+
+        carService.delete(car.getId());
+
+        assertThat(quantityReserved).isEqualTo(3L);
+        assertThat(quantityReleased).isEqualTo(5L);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void orderRest_returnBadRequest_ifNoSuchProductType() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/orders")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[{\"product_id\": 1, \"product_type\": 4, \"nb_sold\": 1}]")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
     @Test
     @WithMockUser(username = "admin", password = "admin")
     void reportRest_returnBadRequest_ifYearsMissing() throws Exception {
@@ -348,4 +573,300 @@ class SaleResourceTest extends AbstractTestNGSpringContextTests {
         assertThat(content).contains("; Final profit: ");
         assertThat(content).contains(" lv.");
     }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void reportTotalsRest_returnGroups_ifGroupedByTypeAndMonth() throws Exception {
+
+        LocalDateTime localDateTimeNow = LocalDateTime.now();
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/report/totals")
+                        .param("start_year", String.valueOf(localDateTimeNow.getYear() - 1))
+                        .param("end_year", String.valueOf(localDateTimeNow.getYear()))
+                        .param("group_by", "product_type,month")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("group_by[0]").value("PRODUCT_TYPE"))
+                .andExpect(jsonPath("group_by[1]").value("MONTH"))
+                .andExpect(jsonPath("total.nb_sold").isNumber())
+                .andExpect(jsonPath("total.revenue").isNumber());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void reportTotalsRest_returnBadRequest_ifNoSuchGrouping() throws Exception {
+
+        LocalDateTime localDateTimeNow = LocalDateTime.now();
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/report/totals")
+                        .param("start_year", String.valueOf(localDateTimeNow.getYear()))
+                        .param("end_year", String.valueOf(localDateTimeNow.getYear()))
+                        .param("group_by", "color")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void reportTotalsRest_returnBackfilledSale_ifMonthWasCached() throws Exception {
+
+        final String year = String.valueOf(LocalDateTime.now().getYear() - 3);
+
+        MvcResult cached = mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/report/totals")
+                        .param("start_year", year)
+                        .param("end_year", year)
+                )
+                .andExpect(status().isOk())
+                .andReturn();
+
+        final long nbSold = ((Number) JsonPath.read(cached.getResponse().getContentAsString(), "total.nb_sold"))
+                .longValue();
+
+        assertThat(saleService.create(new Sale(1L, 2L, LocalDateTime.of(Integer.parseInt(year), 3, 10, 12, 0),
+                1, BigDecimal.ONE))).isTrue();
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/report/totals")
+                        .param("start_year", year)
+                        .param("end_year", year)
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("total.nb_sold").value(nbSold + 2));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void reportTotalsRest_returnBackfilledOrder_ifMonthWasCached() throws Exception {
+
+        final String year = String.valueOf(LocalDateTime.now().getYear() - 4);
+
+        MvcResult cached = mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/report/totals")
+                        .param("start_year", year)
+                        .param("end_year", year)
+                )
+                .andExpect(status().isOk())
+                .andReturn();
+
+        final long nbSold = ((Number) JsonPath.read(cached.getResponse().getContentAsString(), "total.nb_sold"))
+                .longValue();
+
+        assertThat(saleService.sellAll(Collections.singletonList(new Sale(2L, 1L, null, 1, null)),
+                LocalDateTime.of(Integer.parseInt(year), 5, 10, 12, 0))).hasSize(1);
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/report/totals")
+                        .param("start_year", year)
+                        .param("end_year", year)
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("total.nb_sold").value(nbSold + 1));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void submitReportRest_returnReport_whenDone() throws Exception {
+
+        LocalDateTime localDateTimeNow = LocalDateTime.now();
+
+        MvcResult submitted = mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/reports")
+                        .param("start_year", String.valueOf(localDateTimeNow.getYear() - 1))
+                        .param("end_year", String.valueOf(localDateTimeNow.getYear()))
+                        .param("group_by", "product_type")
+                )
+                .andExpect(status().isAccepted())
+                .andExpect(header().exists("Location"))
+                .andReturn();
+
+        final String location = submitted.getResponse().getHeader("Location");
+        String status = JsonPath.read(submitted.getResponse().getContentAsString(), "status");
+
+        for (int i = 0; i < 100 && ("PENDING".equals(status) || "RUNNING".equals(status)); i++) {
+            Thread.sleep(50);
+            status = JsonPath.read(mockMvc.perform(request(HttpMethod.GET, location))
+                    .andExpect(status().isOk())
+                    .andReturn().getResponse().getContentAsString(), "status");
+        }
+
+        mockMvc
+                .perform(request(HttpMethod.GET, location))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("status").value("DONE"))
+                .andExpect(jsonPath("result.group_by[0]").value("PRODUCT_TYPE"))
+                .andExpect(jsonPath("result.total.nb_sold").isNumber());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void reportJobRest_returnNotFound_ifNoSuchReport() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/reports/no-such-report"))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void liveRest_returnTotalsByProductType() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/live")
+                        .param("window", "1h")
+                )
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("window").value("1h"))
+                .andExpect(jsonPath("total.nb_sold").isNumber())
+                .andExpect(jsonPath("groups.length()").value(3));
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void liveRest_returnBadRequest_ifNoSuchWindow() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/live")
+                        .param("window", "2h")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void topRest_returnSoldProduct_ifCarIsSold() throws Exception {
+
+        Car car = new Car("brand_name", "top_color", BigDecimal.ONE, 1L, 1L, 5L);
+        carService.create(car);
+        final Long carId = ((Car) carService.findProduct("top_color", PageRequest.of(0, 1)).get().findFirst().get()).getId();
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                        .param("product_id", String.valueOf(carId))
+                        .param("product_type", "1")
+                        .param("quantity", "5")
+                )
+                .andExpect(status().isOk());
+
+        for (String exact : new String[]{"false", "true"}) {
+            MvcResult result = mockMvc
+                    .perform(request(HttpMethod.GET, "/api/v1/sales/top")
+                            .param("type", "1")
+                            .param("n", String.valueOf(TopSalesService.MAX_TOP))
+                            .param("window", "5m")
+                            .param("exact", exact)
+                    )
+                    .andExpect(status().isOk())
+                    .andReturn();
+
+            assertThat(result.getResponse().getContentAsString()).contains("{\"product_id\":" + carId + ",");
+        }
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void topRest_returnBadRequest_ifNoSuchProductType() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/top")
+                        .param("type", "9")
+                )
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void rebuildRollupRest_returnBadRequest_ifStartAfterEnd() throws Exception {
+
+        MvcResult result = mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/rollup/rebuild")
+                        .param("start", "2020-02-01")
+                        .param("end", "2020-01-01")
+                )
+                .andExpect(status().isBadRequest())
+                .andReturn();
+
+        assertThat(result.getResponse().getContentAsString()).contains("Sale totals not rebuilt!");
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void detachPartitionRest_returnBadRequest_ifMonthNotClosed() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/partitions/detach")
+                        .param("month", YearMonth.now().toString())
+                )
+                .andExpect(status().isBadRequest());
+    }
+
+    @Test
+    void detachPartition_removeTotalsOfMonth_fromReports() {
+
+        // Only the months from now on have their own table
+        final YearMonth month = YearMonth.now().plusMonths(1);
+        final LocalDateTime start = month.atDay(1).atStartOfDay();
+        final LocalDateTime end = month.atEndOfMonth().atTime(LocalTime.MAX);
+
+        assertThat(saleService.create(new Sale(1L, 2L, month.atDay(3).atTime(12, 0), ProductType.CAR.getCode(),
+                BigDecimal.ONE))).isTrue();
+        assertThat(saleService.getReport(start, end, Collections.emptySet()).getTotal().getNb_sold()).isEqualTo(2L);
+
+        assertThat(saleService.detachPartition(month)).isTrue();
+
+        assertThat(saleService.getReport(start, end, Collections.emptySet()).getTotal().getNb_sold()).isEqualTo(0L);
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void exportRest_returnSoldCar_ifCarIsSold() throws Exception {
+
+        Car car = new Car("brand_name", "export_color", new BigDecimal("2.50"), 1L, 1L, 3L);
+        carService.create(car);
+        final Long carId = ((Car) carService.findProduct("export_color", PageRequest.of(0, 1)).get().findFirst().get()).getId();
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                        .param("product_id", String.valueOf(carId))
+                        .param("product_type", "1")
+                        .param("quantity", "3")
+                )
+                .andExpect(status().isOk());
+
+        MvcResult mvcResult = mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/export")
+                        .param("start", LocalDate.now().toString())
+                        .param("end", LocalDate.now().toString())
+                )
+                .andReturn();
+
+        MvcResult result = mockMvc
+                .perform(asyncDispatch(mvcResult))
+                .andExpect(status().isOk())
+                .andReturn();
+
+        List<Sale> sales = new ArrayList<>();
+        new SaleExportReader(new ByteArrayInputStream(result.getResponse().getContentAsByteArray())).forEach(sales::add);
+
+        assertThat(sales).anySatisfy(sale -> {
+            assertThat(sale.getProduct_id()).isEqualTo(carId);
+            assertThat(sale.getProduct_type()).isEqualTo(1);
+            assertThat(sale.getNb_sold()).isEqualTo(3L);
+            assertThat(sale.getPrice()).isEqualByComparingTo("7.50");
+        });
+    }
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void exportRest_returnBadRequest_ifStartAfterEnd() throws Exception {
+
+        mockMvc
+                .perform(request(HttpMethod.GET, "/api/v1/sales/export")
+                        .param("start", LocalDate.now().toString())
+                        .param("end", LocalDate.now().minusDays(1).toString())
+                )
+                .andExpect(status().isBadRequest());
+    }
 }
\ No newline at end of file
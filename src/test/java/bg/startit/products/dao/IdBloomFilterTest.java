@@ -0,0 +1,134 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.Car;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootContextLoader;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Missing IDs are answered by the filters, created IDs are never reported missing, also while a filter is rebuilt.
+ */
+@SpringBootTest(properties = "products.id-filter.enabled=true")
+@ActiveProfiles(value = "dev")
+@ContextConfiguration(loader = SpringBootContextLoader.class)
+class IdBloomFilterTest extends AbstractTestNGSpringContextTests {
+
+    private static final long MISSING_ID = 987654321L;
+
+    @Autowired
+    private CarDao carDao;
+
+    @Autowired
+    private IdFilterDao idFilterDao;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void findProduct_returnNull_withoutQuery_whenIdNotFound() throws Exception {
+
+        waitUntil(() -> !idFilterDao.mightExist("CAR", MISSING_ID));
+
+        assertThat(idFilterDao.mightExist("CAR", 1L)).isTrue();
+        assertThat(carDao.findProduct(MISSING_ID)).isNull();
+        assertThat(carDao.findProducts(Collections.singletonList(MISSING_ID)).get(MISSING_ID)).isNull();
+    }
+
+    @Test
+    void findProduct_returnCreated_whileFilterIsRebuilt() {
+
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        for (int i = 0; i < 20; i++) {
+            // Registering again rebuilds the filter
+            idFilterDao.register("CAR");
+
+            assertThat(carDao.create(new Car("brand_name", "id_filter", BigDecimal.ONE, 1L, 1L, 1L))).isTrue();
+            final Long id = jdbcTemplate.queryForObject("SELECT MAX(ID) FROM CAR", Long.class);
+
+            assertThat(carDao.findProduct(id)).isNotNull();
+        }
+    }
+
+    @Test
+    void add_keepsId_addedWhileTableIsScanned() throws Exception {
+
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE ID_FILTER_TEST (ID BIGINT PRIMARY KEY)");
+        jdbcTemplate.update("INSERT INTO ID_FILTER_TEST VALUES (1)");
+
+        final CountDownLatch scanning = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean stall = new AtomicBoolean();
+
+        // Stalls the scan of the second rebuild until released
+        final IdBloomFilter filter = new IdBloomFilter("ID_FILTER_TEST", new JdbcTemplate(dataSource) {
+            @Override
+            public void query(String sql, RowCallbackHandler rch) {
+                if (stall.getAndSet(false)) {
+                    scanning.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.query(sql, rch);
+            }
+        });
+
+        filter.rebuildAsync();
+        waitUntil(() -> !filter.mightContain(2L));
+        assertThat(filter.mightContain(1L)).isTrue();
+
+        // Known to the database only, it is found once the rebuilt filter is published
+        jdbcTemplate.update("INSERT INTO ID_FILTER_TEST VALUES (2)");
+        stall.set(true);
+        filter.rebuildAsync();
+        assertThat(scanning.await(10, TimeUnit.SECONDS)).isTrue();
+
+        // Created after the scan started and added while the rebuilt filter is published
+        final AtomicLong added = new AtomicLong(1_000_000L);
+        final Thread adder = new Thread(() -> {
+            while (!filter.mightContain(2L)) {
+                filter.add(added.incrementAndGet());
+            }
+        });
+        adder.start();
+        release.countDown();
+        adder.join(TimeUnit.SECONDS.toMillis(10));
+
+        assertThat(adder.isAlive()).isFalse();
+        for (long id = 1_000_001L; id <= added.get(); id++) {
+            assertThat(filter.mightContain(id)).as("id %d", id).isTrue();
+        }
+
+        jdbcTemplate.execute("DROP TABLE ID_FILTER_TEST");
+    }
+
+    private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(condition.getAsBoolean()).isTrue();
+    }
+}
@@ -0,0 +1,441 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.IStaff;
+import bg.startit.products.model.ColorMatch;
+import bg.startit.products.model.IdempotentResponse;
+import bg.startit.products.model.Product;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.ReportGrouping;
+import bg.startit.products.model.Reservation;
+import bg.startit.products.model.Sale;
+import bg.startit.products.pagination.CountStrategy;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.context.SpringBootContextLoader;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Every query of the DAOs is explained on H2, with its parameters, against tables large enough for the planner
+ * to prefer an index, and must use the index it was written for.
+ */
+@SpringBootTest
+@ActiveProfiles(value = "dev")
+@ContextConfiguration(loader = SpringBootContextLoader.class)
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class QueryPlanTest extends AbstractTestNGSpringContextTests {
+
+    private static final String BRAND_NAME = "plan_brand_name";
+
+    private static final int PRODUCTS = 20000;
+
+    private static final int SALES = 50000;
+
+    private static final LocalDate SALES_START = LocalDate.of(2019, 1, 1);
+
+    private static final LocalDate SALES_END = LocalDate.of(2019, 3, 1);
+
+    private static final String IDEMPOTENT_REQUEST = "plan_request";
+
+    /**
+     * Responses are created from here on, after the ones deleted as expired by the cleanup of the application.
+     */
+    private static final LocalDateTime RESPONSES_START = LocalDateTime.of(2100, 1, 1, 0, 0);
+
+    @Autowired
+    private ExplainingDataSource dataSource;
+
+    @Autowired
+    private CarDao carDao;
+
+    @Autowired
+    private PhoneDao phoneDao;
+
+    @Autowired
+    private TVDao tvDao;
+
+    @Autowired
+    private SaleDao saleDao;
+
+    @Autowired
+    private SaleRollupDao saleRollupDao;
+
+    @Autowired
+    private ReservationDao reservationDao;
+
+    @Autowired
+    private IdempotencyDao idempotencyDao;
+
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeAll
+    void seed() {
+
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        for (String table : products().keySet()) {
+            jdbcTemplate.update("INSERT INTO " + table +
+                    " (BRAND_NAME, COLOR, COLOR_ID, PRICE, WEIGHT, LENGTH, QUANTITY)" +
+                    " SELECT '" + BRAND_NAME + "', COLOR.NAME, COLOR.ID, MOD(X * 7919, 100000), 1, 1, 1000" +
+                    " FROM SYSTEM_RANGE(1, " + PRODUCTS + ") JOIN COLOR ON COLOR.ID = 1 + MOD(X, 5)");
+        }
+
+        // A sale every minute, about five weeks of them
+        jdbcTemplate.update("INSERT INTO SALE (PRODUCT_ID, NB_SOLD, SALE_DATE, PRODUCT_TYPE, PRICE)" +
+                " SELECT MOD(X, 1000), 1 + MOD(X, 3), DATEADD('MINUTE', X, TIMESTAMP '" + SALES_START + " 00:00:00')," +
+                " 1 + MOD(X, 3), MOD(X, 100) FROM SYSTEM_RANGE(1, " + SALES + ")");
+        saleRollupDao.rebuild(SALES_START, SALES_END);
+
+        jdbcTemplate.update("INSERT INTO IDEMPOTENCY_KEY (IDEMPOTENCY_KEY, REQUEST, STATUS, BODY, CREATED)" +
+                " SELECT 'plan_' || X, '" + IDEMPOTENT_REQUEST + "', 200, NULL," +
+                " DATEADD('MINUTE', X, TIMESTAMP '" + RESPONSES_START.toLocalDate() + " 00:00:00')" +
+                " FROM SYSTEM_RANGE(1, " + SALES + ")");
+
+        jdbcTemplate.execute("ANALYZE");
+    }
+
+    @AfterAll
+    void tearDown() {
+
+        for (String table : products().keySet()) {
+            jdbcTemplate.update("DELETE FROM " + table + " WHERE BRAND_NAME = ?", BRAND_NAME);
+        }
+
+        jdbcTemplate.update("DELETE FROM SALE WHERE SALE_DATE >= ? AND SALE_DATE < ?",
+                SALES_START.atStartOfDay(), SALES_END.atStartOfDay());
+        saleRollupDao.rebuild(SALES_START, SALES_END);
+
+        jdbcTemplate.update("DELETE FROM IDEMPOTENCY_KEY WHERE REQUEST = ?", IDEMPOTENT_REQUEST);
+    }
+
+    @Test
+    void findProduct_usesPrimaryKey_whenFindingById() {
+
+        products().forEach((table, dao) -> {
+            assertIndexUsed(dataSource.explain(() -> dao.findProduct(1L)), "PRIMARY_KEY");
+            assertIndexUsed(dataSource.explain(() -> dao.findProduct(1L, Arrays.asList("id", "price"))), "PRIMARY_KEY");
+            assertIndexUsed(dataSource.explain(() -> dao.findProducts(Arrays.asList(1L, 2L))), "PRIMARY_KEY");
+            assertIndexUsed(dataSource.explain(() -> dao.getPrice(1L)), "PRIMARY_KEY");
+            assertIndexUsed(dataSource.explain(() -> dao.getAll(null, 10)), "PRIMARY_KEY");
+            assertIndexUsed(dataSource.explain(() -> dao.delete(-1L)), "PRIMARY_KEY");
+        });
+    }
+
+    @Test
+    void findProduct_usesColorIndex_whenSearchingByColor() {
+
+        products().forEach((table, dao) -> {
+            final String index = table + "_COLOR_IDX";
+
+            assertIndexUsed(dataSource.explain(() -> dao.findProduct("red", ColorMatch.EXACT,
+                    PageRequest.of(0, 10), CountStrategy.EXACT)), index);
+            assertIndexUsed(dataSource.explain(() -> dao.findProduct("re", ColorMatch.PREFIX, null, 10)), index);
+        });
+    }
+
+    @Test
+    void findProduct_usesPriceIndex_whenSearchingByPrice() {
+
+        products().forEach((table, dao) -> {
+            final String index = table + "_PRICE_IDX";
+
+            assertIndexUsed(dataSource.explain(() -> dao.findProduct(BigDecimal.valueOf(500),
+                    PageRequest.of(0, 10), CountStrategy.EXACT)), index);
+            assertIndexUsed(dataSource.explain(() -> dao.findProduct(BigDecimal.valueOf(500), null, 10)), index);
+        });
+    }
+
+    @Test
+    void saleQueries_useDateIndex_whenReadingDateRange() {
+
+        final LocalDateTime start = SALES_START.plusDays(30).atStartOfDay();
+
+        assertIndexUsed(dataSource.explain(() -> saleDao.findTopSellers(ProductType.CAR, start, 10)),
+                "SALE_DATE_IDX");
+        assertIndexUsed(dataSource.explain(() -> saleDao.forEachSince(start, sale -> {
+        })), "SALE_DATE_IDX");
+        assertIndexUsed(dataSource.explain(() -> saleDao.findByDate(start)), "SALE_DATE_IDX");
+        assertIndexUsed(dataSource.explain(() -> saleDao.getTotalsInDateRange(start.minusDays(10).plusHours(12),
+                start.plusHours(12), EnumSet.of(ReportGrouping.DAY))), "SALE_DATE_IDX");
+    }
+
+    @Test
+    void restock_usesPrimaryKey_whenUpdatingStock() {
+
+        final Long id = planProductId("CAR");
+
+        assertIndexUsed(dataSource.explain(() -> saleDao.restock(ProductType.CAR, id, 0)), "PRIMARY_KEY");
+    }
+
+    @Test
+    void update_usesPrimaryKey_whenUpdatingProduct() {
+
+        products().forEach((table, dao) -> {
+            final Product product = dao.findProduct(planProductId(table));
+
+            assertIndexUsed(dataSource.explain(() -> assertThat(dao.update(product)).isTrue()), "PRIMARY_KEY");
+        });
+    }
+
+    @Test
+    void sell_usesPrimaryKeys_whenTakingStockAndAddingTotals() {
+
+        final Long id = planProductId("CAR");
+        final LocalDateTime saleDate = SALES_START.plusDays(10).atTime(12, 0);
+
+        assertIndexUsed(dataSource.explain(() -> assertThat(saleDao.sell(
+                new Sale(id, 1L, saleDate, ProductType.CAR.getCode(), null))).isNotNull()), "PRIMARY_KEY");
+        assertIndexUsed(dataSource.explain(() -> assertThat(saleDao.sellAll(Arrays.asList(
+                new Sale(id, 1L, null, ProductType.CAR.getCode(), null),
+                new Sale(id + 1, 1L, null, ProductType.CAR.getCode(), null)), saleDate)).hasSize(2)), "PRIMARY_KEY");
+    }
+
+    @Test
+    void rebuild_usesDateIndexes_whenRollingUpDays() {
+
+        final LocalDate day = SALES_START.plusDays(20);
+
+        // The totals of the day are deleted by their key and computed again from the sales of the day
+        assertIndexesUsed(dataSource.explain(() -> saleRollupDao.rebuild(day, day)), "PRIMARY_KEY", "SALE_DATE_IDX");
+    }
+
+    @Test
+    void reservationQueries_usePrimaryKeys() {
+
+        final Long id = planProductId("PHONE");
+        final LocalDateTime expires = LocalDateTime.now().plusHours(1);
+
+        final Reservation confirmed = reservationDao.reserve(id, ProductType.PHONE.getCode(), 1L, expires);
+        final Reservation released = reservationDao.reserve(id, ProductType.PHONE.getCode(), 1L, expires);
+        assertThat(confirmed).isNotNull();
+        assertThat(released).isNotNull();
+
+        assertIndexUsed(dataSource.explain(() -> reservationDao.reserve(id, ProductType.PHONE.getCode(), 1L, expires)),
+                "PRIMARY_KEY");
+        assertIndexUsed(dataSource.explain(() -> assertThat(reservationDao.findById(confirmed.getId())).isNotNull()),
+                "PRIMARY_KEY");
+        assertIndexUsed(dataSource.explain(() -> assertThat(reservationDao.confirm(confirmed.getId(),
+                SALES_START.plusDays(11).atTime(12, 0))).isNotNull()), "PRIMARY_KEY");
+        assertIndexUsed(dataSource.explain(() -> assertThat(reservationDao.release(released.getId())).isTrue()),
+                "PRIMARY_KEY");
+    }
+
+    @Test
+    void idempotencyQueries_useKeyOrCreatedIndex() {
+
+        final String key = "plan_claimed";
+        final IdempotentResponse pending = new IdempotentResponse(key, IDEMPOTENT_REQUEST, IdempotentResponse.PENDING,
+                null, RESPONSES_START);
+
+        assertIndexUsed(dataSource.explain(() -> assertThat(idempotencyDao.claim(pending, RESPONSES_START)).isTrue()),
+                "PRIMARY_KEY");
+        assertIndexUsed(dataSource.explain(() -> assertThat(idempotencyDao.find(key, RESPONSES_START)).isNotNull()),
+                "PRIMARY_KEY");
+        assertIndexUsed(dataSource.explain(() -> idempotencyDao.release(key)), "PRIMARY_KEY");
+
+        assertThat(idempotencyDao.claim(pending, RESPONSES_START)).isTrue();
+        final IdempotentResponse completed = new IdempotentResponse(key, IDEMPOTENT_REQUEST, 200, "body",
+                RESPONSES_START);
+        assertIndexUsed(dataSource.explain(() -> assertThat(idempotencyDao.complete(completed)).isTrue()),
+                "PRIMARY_KEY");
+
+        // Nothing is that old, the responses of the other tests are kept
+        assertIndexUsed(dataSource.explain(() -> idempotencyDao.deleteExpired(SALES_START.atStartOfDay())),
+                "IDEMPOTENCY_KEY_CREATED_IDX");
+    }
+
+    private Long planProductId(String table) {
+
+        return jdbcTemplate.queryForObject("SELECT MIN(ID) FROM " + table + " WHERE BRAND_NAME = ?",
+                Long.class, BRAND_NAME);
+    }
+
+    private Map<String, IStaff> products() {
+
+        Map<String, IStaff> products = new LinkedHashMap<>();
+        products.put("CAR", carDao);
+        products.put("PHONE", phoneDao);
+        products.put("TV", tvDao);
+        return products;
+    }
+
+    /**
+     * The explained queries use indexes in this order, and no table is scanned in full.
+     */
+    private static void assertIndexesUsed(List<String> plans, String... indexes) {
+
+        assertThat(plans).hasSize(indexes.length);
+        for (int i = 0; i < indexes.length; i++) {
+            assertThat(plans.get(i)).contains(indexes[i]).doesNotContain("tableScan");
+        }
+    }
+
+    /**
+     * Every explained query uses index, and no table is scanned in full.
+     */
+    private static void assertIndexUsed(List<String> plans, String index) {
+
+        assertThat(plans).isNotEmpty();
+        for (String plan : plans) {
+            assertThat(plan).contains(index).doesNotContain("tableScan");
+        }
+    }
+
+    @TestConfiguration
+    static class ExplainingDataSourceConfiguration {
+
+        @Bean
+        static BeanPostProcessor explainingDataSourcePostProcessor() {
+
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+
+                    return bean instanceof DataSource && !(bean instanceof ExplainingDataSource)
+                            ? new ExplainingDataSource((DataSource) bean) : bean;
+                }
+            };
+        }
+    }
+
+    /**
+     * Data source explaining the SELECT, UPDATE, DELETE and INSERT ... SELECT statements run by {@link #explain}
+     * before running them.
+     */
+    static class ExplainingDataSource extends DelegatingDataSource {
+
+        private final ThreadLocal<List<String>> plans = new ThreadLocal<>();
+
+        ExplainingDataSource(DataSource dataSource) {
+
+            super(dataSource);
+        }
+
+        /**
+         * Plans of the statements run by runnable on this thread.
+         */
+        List<String> explain(Runnable runnable) {
+
+            final List<String> explained = new ArrayList<>();
+
+            plans.set(explained);
+            try {
+                runnable.run();
+            } finally {
+                plans.remove();
+            }
+
+            return explained;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+
+            return explaining(super.getConnection());
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+
+            return explaining(super.getConnection(username, password));
+        }
+
+        private Connection explaining(Connection connection) {
+
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                    (proxy, method, args) -> {
+                        final Object result = invoke(connection, method, args);
+                        final List<String> explained = plans.get();
+
+                        if (explained != null && "prepareStatement".equals(method.getName())
+                                && isExplainable((String) args[0])) {
+                            return explaining(connection, (String) args[0], (PreparedStatement) result, explained);
+                        }
+                        return result;
+                    });
+        }
+
+        private PreparedStatement explaining(Connection connection, String sql, PreparedStatement statement,
+                                             List<String> explained) {
+
+            // Setter and arguments of every parameter, replayed on the EXPLAIN statement
+            final List<Object[]> parameters = new ArrayList<>();
+
+            return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class},
+                    (proxy, method, args) -> {
+                        if (method.getName().startsWith("set") && args != null && args.length > 1
+                                && args[0] instanceof Integer) {
+                            parameters.add(new Object[]{method, args});
+                        } else if ("clearParameters".equals(method.getName())) {
+                            parameters.clear();
+                        } else if (method.getName().startsWith("execute") && args == null) {
+                            explained.add(plan(connection, sql, parameters));
+                        }
+                        return invoke(statement, method, args);
+                    });
+        }
+
+        private static String plan(Connection connection, String sql, List<Object[]> parameters) throws Exception {
+
+            try (PreparedStatement explain = connection.prepareStatement("EXPLAIN " + sql)) {
+                for (Object[] parameter : parameters) {
+                    ((Method) parameter[0]).invoke(explain, (Object[]) parameter[1]);
+                }
+                try (ResultSet resultSet = explain.executeQuery()) {
+                    resultSet.next();
+                    return resultSet.getString(1);
+                }
+            }
+        }
+
+        private static boolean isExplainable(String sql) {
+
+            final String statement = sql.trim().toUpperCase(Locale.ROOT);
+
+            return statement.startsWith("SELECT") || statement.startsWith("UPDATE") || statement.startsWith("DELETE")
+                    || statement.startsWith("INSERT") && statement.contains(" SELECT ");
+        }
+
+        private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package bg.startit.products.dao;
+
+import bg.startit.products.model.Car;
+import bg.startit.products.model.Sale;
+import bg.startit.products.service.CarService;
+import bg.startit.products.service.SaleService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootContextLoader;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.security.test.context.support.WithSecurityContextTestExecutionListener;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.sql.DataSource;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Sales written behind are refused once the queue is full, replayed from the journal exactly once,
+ * and set aside when they can never be stored.
+ * A batch waits up to max-delay-ms to fill, so the first sale holds the only room of the queue that long.
+ */
+@SpringBootTest(properties = {
+        "products.sales.write-behind.enabled=true",
+        "products.sales.write-behind.queue-capacity=1",
+        "products.sales.write-behind.max-delay-ms=2000",
+        "products.sales.write-behind.journal=target/sale-writer-test/journal.log"})
+@AutoConfigureMockMvc
+@ActiveProfiles(value = "dev")
+@ContextConfiguration(loader = SpringBootContextLoader.class)
+@TestExecutionListeners({WithSecurityContextTestExecutionListener.class})
+class SaleWriterTest extends AbstractTestNGSpringContextTests {
+
+    private static final long CAR_ID = 2L;
+
+    private static final LocalDate REPLAYED_DAY = LocalDate.of(2001, 2, 3);
+
+    private static final LocalDate FAILED_DAY = LocalDate.of(2001, 3, 4);
+
+    private static final LocalDate STORED_DAY = LocalDate.of(2001, 3, 5);
+
+    @Value("${products.sales.write-behind.journal}")
+    private String journal;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private SaleWriter saleWriter;
+
+    @Autowired
+    private SaleService saleService;
+
+    @Autowired
+    private CarService carService;
+
+    @Autowired
+    private SaleDao saleDao;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    @WithMockUser(username = "admin", password = "admin")
+    void createRest_returnServiceUnavailable_ifQueueIsFull() throws Exception {
+
+        saleWriter.flush();
+        final long quantity = ((Car) carService.findProduct(CAR_ID)).getQuantity();
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                        .param("product_id", String.valueOf(CAR_ID))
+                        .param("product_type", "1")
+                        .param("quantity", "1")
+                )
+                .andExpect(status().isOk());
+
+        // Refused before the stock is taken
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                        .param("product_id", String.valueOf(CAR_ID))
+                        .param("product_type", "1")
+                        .param("quantity", "1")
+                )
+                .andExpect(status().isServiceUnavailable())
+                .andExpect(header().exists(HttpHeaders.RETRY_AFTER));
+
+        saleWriter.flush();
+
+        mockMvc
+                .perform(request(HttpMethod.POST, "/api/v1/sales/create")
+                        .param("product_id", String.valueOf(CAR_ID))
+                        .param("product_type", "1")
+                        .param("quantity", "1")
+                )
+                .andExpect(status().isOk());
+
+        saleWriter.flush();
+
+        assertThat(((Car) carService.findProduct(CAR_ID)).getQuantity()).isEqualTo(quantity - 2);
+    }
+
+    @Test
+    void start_replaysEveryJournaledSaleOnce_afterCrash() throws Exception {
+
+        saleWriter.stop();
+
+        final Path path = Paths.get(journal).toAbsolutePath().normalize();
+        final long checkpoint = getCheckpoint(path);
+
+        // The first sale was stored before the crash, the last line was cut by it
+        Files.write(path, Arrays.asList(
+                checkpoint + ",2,1," + REPLAYED_DAY.atTime(10, 0) + ",1,1",
+                (checkpoint + 1) + ",2,1," + REPLAYED_DAY.atTime(10, 1) + ",1,1",
+                (checkpoint + 2) + ",2,2," + REPLAYED_DAY.atTime(10, 2) + ",1,2",
+                (checkpoint + 3) + ",2,3," + REPLAYED_DAY.atTime(10, 3)), StandardCharsets.UTF_8);
+
+        saleWriter.start();
+        saleWriter.flush();
+
+        assertThat(countReplayed()).isEqualTo(2);
+
+        // Nothing is replayed again after a clean shutdown
+        saleWriter.stop();
+        saleWriter.start();
+        saleWriter.flush();
+
+        assertThat(countReplayed()).isEqualTo(2);
+    }
+
+    @Test
+    void start_setsSaleAside_ifItCanNeverBeStored() throws Exception {
+
+        // The daily total of the product overflows with the failing sale
+        assertThat(saleDao.create(new Sale(CAR_ID, 1L, FAILED_DAY.atTime(9, 0), 1, BigDecimal.ONE))).isTrue();
+
+        saleWriter.stop();
+
+        final Path path = Paths.get(journal).toAbsolutePath().normalize();
+        final Path failed = Paths.get(path + ".failed");
+        Files.deleteIfExists(failed);
+        final long checkpoint = getCheckpoint(path);
+
+        Files.write(path, Arrays.asList(
+                (checkpoint + 1) + ",2,1," + STORED_DAY.atTime(10, 0) + ",1,1",
+                (checkpoint + 2) + ",2," + Long.MAX_VALUE + "," + FAILED_DAY.atTime(10, 0) + ",1,1"),
+                StandardCharsets.UTF_8);
+
+        saleWriter.start();
+        saleWriter.flush();
+
+        assertThat(count(STORED_DAY)).isEqualTo(1);
+        assertThat(Files.readAllLines(failed, StandardCharsets.UTF_8))
+                .containsExactly((checkpoint + 2) + ",2," + Long.MAX_VALUE + "," + FAILED_DAY.atTime(10, 0) + ",1,1");
+
+        // Neither is replayed again
+        saleWriter.stop();
+        saleWriter.start();
+        saleWriter.flush();
+
+        assertThat(count(STORED_DAY)).isEqualTo(1);
+        assertThat(Files.readAllLines(failed, StandardCharsets.UTF_8)).hasSize(1);
+    }
+
+    @Test
+    void start_createsJournalDirectory_ifMissing() throws Exception {
+
+        saleWriter.stop();
+
+        final Path directory = Paths.get(journal).toAbsolutePath().normalize().getParent();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+
+        saleWriter.start();
+
+        assertThat(directory).isDirectory();
+    }
+
+    private long getCheckpoint(Path path) {
+
+        return new JdbcTemplate(dataSource).queryForList(
+                "SELECT LAST_SEQ FROM SALE_JOURNAL WHERE NAME = ?", Long.class, path.toString())
+                .stream().findFirst().orElse(0L);
+    }
+
+    private long countReplayed() {
+
+        return count(REPLAYED_DAY);
+    }
+
+    private long count(LocalDate day) {
+
+        AtomicLong count = new AtomicLong();
+        saleService.exportSales(day, day, sale -> count.incrementAndGet());
+        return count.get();
+    }
+}
\ No newline at end of file
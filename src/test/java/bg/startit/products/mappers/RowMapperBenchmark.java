@@ -0,0 +1,127 @@
+package bg.startit.products.mappers;
+
+import bg.startit.products.model.Car;
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.RowMapper;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Compare CarRowMapper with the previous mapper, which looked up the columns by name on every row.
+ * Every operation maps one row, so the score is rows per second,
+ * and gc.alloc.rate.norm of the GC profiler is the bytes allocated per row.
+ * <p>
+ * Run main from the IDE, or after mvn test-compile with java -cp of the test classpath:
+ * java -cp target/test-classes:target/classes:... org.openjdk.jmh.Main RowMapperBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMapperBenchmark {
+
+    /**
+     * Rows of one query.
+     */
+    private static final int ROWS = 1000;
+
+    private SimpleResultSet resultSet;
+
+    @Setup
+    public void setUp() {
+
+        resultSet = new SimpleResultSet();
+        // Read the same rows on every invocation
+        resultSet.setAutoClose(false);
+        resultSet.addColumn("ID", Types.BIGINT, 19, 0);
+        resultSet.addColumn("BRAND_NAME", Types.VARCHAR, 40, 0);
+        resultSet.addColumn("COLOR", Types.VARCHAR, 40, 0);
+        resultSet.addColumn("COLOR_ID", Types.BIGINT, 19, 0);
+        resultSet.addColumn("PRICE", Types.DECIMAL, 38, 2);
+        resultSet.addColumn("WEIGHT", Types.BIGINT, 19, 0);
+        resultSet.addColumn("LENGTH", Types.BIGINT, 19, 0);
+        resultSet.addColumn("QUANTITY", Types.BIGINT, 19, 0);
+        resultSet.addColumn("VERSION", Types.BIGINT, 19, 0);
+
+        for (long id = 1; id <= ROWS; id++) {
+            resultSet.addRow(id, "Brand " + id, "blue", 1L, BigDecimal.valueOf(id * 100 + 99, 2),
+                    id * 10, id * 5, id % 100, 0L);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void indexBased(Blackhole blackhole) throws SQLException {
+
+        mapAll(new CarRowMapper(), blackhole);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS)
+    public void nameBased(Blackhole blackhole) throws SQLException {
+
+        mapAll(new NameBasedCarRowMapper(), blackhole);
+    }
+
+    /**
+     * Map all rows with a new mapper, as a query does.
+     */
+    private void mapAll(RowMapper<Car> rowMapper, Blackhole blackhole) throws SQLException {
+
+        resultSet.beforeFirst();
+
+        int rowNum = 0;
+        while (resultSet.next()) {
+            blackhole.consume(rowMapper.mapRow(resultSet, rowNum++));
+        }
+    }
+
+    /**
+     * CarRowMapper before resolving the column indexes once per result set.
+     */
+    private static class NameBasedCarRowMapper implements RowMapper<Car> {
+
+        @Override
+        public Car mapRow(ResultSet resultSet, int i) throws SQLException {
+            Car car = new Car();
+
+            car.setId(resultSet.getLong("ID"));
+            car.setBrand_name(resultSet.getString("BRAND_NAME"));
+            car.setColor(resultSet.getString("COLOR"));
+            car.setPrice(BigDecimal.valueOf(resultSet.getDouble("PRICE")));
+            car.setLength(resultSet.getLong("LENGTH"));
+            car.setWeight(resultSet.getLong("WEIGHT"));
+            car.setQuantity(resultSet.getLong("QUANTITY"));
+
+            return car;
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+
+        new Runner(new OptionsBuilder()
+                .include(RowMapperBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
@@ -0,0 +1,160 @@
+package bg.startit.products.service;
+
+import bg.startit.products.dao.SaleWriter;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.Sale;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootContextLoader;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many buyers of a hot car sold from leased stock must never buy more than its stock,
+ * and the units not sold must be back in QUANTITY once reconciled.
+ */
+@SpringBootTest(properties = {
+        "products.sales.write-behind.enabled=true",
+        "products.sales.write-behind.journal=target/hot-stock-test-journal.log",
+        "products.sales.hot-stock.products=CAR:3",
+        "products.sales.hot-stock.lease-size=7",
+        "products.sales.hot-stock.reconcile-interval-ms=200"})
+@ActiveProfiles(value = "dev")
+@ContextConfiguration(loader = SpringBootContextLoader.class)
+class HotStockStressTest extends AbstractTestNGSpringContextTests {
+
+    private static final long CAR_ID = 3L;
+
+    private static final long STOCK = 500;
+
+    private static final int BUYERS = 16;
+
+    @Autowired
+    private SaleService saleService;
+
+    @Autowired
+    private SaleWriter saleWriter;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Test
+    void sell_neverSellsMoreThanStock_whenBuyersCompete() throws Exception {
+
+        final JdbcTemplate jdbcTemplate = setStock();
+        final long recordedBefore = recorded();
+
+        // Buy until sold out
+        final long sold = buy(Long.MAX_VALUE);
+        saleWriter.flush();
+
+        assertThat(sold).isEqualTo(STOCK);
+        assertThat(recorded() - recordedBefore).isEqualTo(STOCK);
+        assertThat(quantity(jdbcTemplate)).isEqualTo(0L);
+    }
+
+    @Test
+    void reconcile_putsUnsoldUnitsBack_afterBuyersStop() throws Exception {
+
+        final JdbcTemplate jdbcTemplate = setStock();
+        final long recordedBefore = recorded();
+
+        // Every buyer stops after a few sales, leaving part of the leased blocks unsold
+        final long sold = buy(5);
+        saleWriter.flush();
+
+        assertThat(sold).isLessThan(STOCK);
+        assertThat(recorded() - recordedBefore).isEqualTo(sold);
+
+        final long deadline = System.currentTimeMillis() + 10_000;
+        while (sold + quantity(jdbcTemplate) != STOCK && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertThat(sold + quantity(jdbcTemplate)).isEqualTo(STOCK);
+    }
+
+    /**
+     * Sell from BUYERS threads at once, each buyer asks for 1, 2 or 3 items at a time up to salesPerBuyer times.
+     *
+     * @return the items sold
+     */
+    private long buy(long salesPerBuyer) throws Exception {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(BUYERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong sold = new AtomicLong();
+
+        List<Future<?>> buyers = new ArrayList<>();
+        for (int i = 0; i < BUYERS; i++) {
+            final long quantity = i % 3 + 1;
+            buyers.add(executorService.submit(() -> {
+                start.await();
+
+                Sale sale;
+                for (long n = 0; n < salesPerBuyer && (sale = saleService.sell(new Sale(CAR_ID, quantity,
+                        LocalDateTime.now(), ProductType.CAR.getCode(), null))) != null; n++) {
+                    assertThat(sale.getNb_sold()).isBetween(1L, quantity);
+                    sold.addAndGet(sale.getNb_sold());
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> buyer : buyers) {
+            buyer.get(5, TimeUnit.MINUTES);
+        }
+        executorService.shutdown();
+
+        return sold.get();
+    }
+
+    private JdbcTemplate setStock() throws InterruptedException {
+
+        final JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+
+        // Let the units leased by the previous test be put back first
+        Thread.sleep(500);
+        jdbcTemplate.update("UPDATE CAR SET QUANTITY = ? WHERE ID = ?", STOCK, CAR_ID);
+
+        return jdbcTemplate;
+    }
+
+    /**
+     * Items of the car recorded today, sales are in the partitions of SALE.
+     */
+    private long recorded() {
+
+        final LocalDate today = LocalDate.now();
+        AtomicLong recorded = new AtomicLong();
+        saleService.exportSales(today, today, sale -> {
+            if (sale.getProduct_id() == CAR_ID && sale.getProduct_type() == ProductType.CAR.getCode()) {
+                recorded.addAndGet(sale.getNb_sold());
+            }
+        });
+        return recorded.get();
+    }
+
+    private long quantity(JdbcTemplate jdbcTemplate) {
+
+        return jdbcTemplate.queryForObject("SELECT QUANTITY FROM CAR WHERE ID = ?", Long.class, CAR_ID);
+    }
+}
@@ -0,0 +1,100 @@
+package bg.startit.products.service;
+
+import bg.startit.products.model.Car;
+import bg.startit.products.model.ProductType;
+import bg.startit.products.model.Sale;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootContextLoader;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.testng.AbstractTestNGSpringContextTests;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Many buyers of the same car at the same time must never buy more than its stock.
+ */
+@SpringBootTest
+@ActiveProfiles(value = "dev")
+@ContextConfiguration(loader = SpringBootContextLoader.class)
+class SaleServiceStressTest extends AbstractTestNGSpringContextTests {
+
+    private static final long STOCK = 500;
+
+    private static final int BUYERS = 16;
+
+    @Autowired
+    private CarService carService;
+
+    @Autowired
+    private SaleService saleService;
+
+    private Car car;
+
+    @BeforeEach
+    void setUp() {
+
+        car = new Car("stress_brand_name", "stress_color", BigDecimal.ONE, 1L, 1L, STOCK);
+
+        // The id generated for it is set on it
+        carService.create(car);
+    }
+
+    @AfterEach
+    void tearDown() {
+
+        carService.delete(car.getId());
+    }
+
+    @Test
+    void sell_neverSellsMoreThanStock_whenBuyersCompete() throws Exception {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(BUYERS);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicLong sold = new AtomicLong();
+        AtomicLong charged = new AtomicLong();
+
+        List<Future<?>> buyers = new ArrayList<>();
+        for (int i = 0; i < BUYERS; i++) {
+            final long quantity = i % 3 + 1;
+            buyers.add(executorService.submit(() -> {
+                start.await();
+
+                // Buy until sold out, each buyer asks for 1, 2 or 3 items at a time
+                Sale sale;
+                while ((sale = saleService.sell(new Sale(car.getId(), quantity, LocalDateTime.now(),
+                        ProductType.CAR.getCode(), null))) != null) {
+                    assertThat(sale.getNb_sold()).isBetween(1L, quantity);
+                    sold.addAndGet(sale.getNb_sold());
+                    charged.addAndGet(sale.getPrice().longValue());
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> buyer : buyers) {
+            buyer.get(5, TimeUnit.MINUTES);
+        }
+        executorService.shutdown();
+
+        assertThat(sold.get()).isEqualTo(STOCK);
+        assertThat(charged.get()).isEqualTo(STOCK);
+        assertThat(((Car) carService.findProduct(car.getId())).getQuantity()).isEqualTo(0L);
+    }
+}